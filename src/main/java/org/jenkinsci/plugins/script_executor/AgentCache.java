@@ -0,0 +1,24 @@
+package org.jenkinsci.plugins.script_executor;
+
+import java.io.File;
+
+/**
+ * Location of the plugin caches on the local machine (agent side)
+ */
+public final class AgentCache {
+
+    private AgentCache() {
+    }
+
+    /**
+     * Get the root directory of all caches
+     * @return Cache directory
+     */
+    public static File getRoot() {
+        String root = System.getProperty(AgentCache.class.getName() + ".root");
+        if (root != null) {
+            return new File(root);
+        }
+        return new File(System.getProperty("java.io.tmpdir"), "universal-script-executor");
+    }
+}
@@ -0,0 +1,392 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.*;
+import hudson.remoting.RemoteInputStream;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runtime source based on a directory of scripts (bundle) on the controller.
+ *
+ * Bundles are subdirectories of a root directory that is managed by the
+ * administrator (<code>$JENKINS_HOME/universal-script-bundles</code> or the
+ * system property <code>org.jenkinsci.plugins.script_executor.BundleScriptSource.root</code>),
+ * so jobs are not able to ship other directories of the controller.
+ *
+ * The directory is packed into a compressed archive that is identified by
+ * the hash of its content. The archive is only transferred to a node if the
+ * node has no unpacked copy of this hash yet, so helper modules cost one
+ * transfer per node instead of one per build. The entry point is executed
+ * from the unpacked bundle. Symbolic links are packed as links, so their
+ * targets are part of the hash.
+ */
+public class BundleScriptSource extends ScriptSource {
+
+    /**
+     * Root directory of the bundles (configured by the administrator)
+     */
+    private static final String ROOT = System.getProperty(BundleScriptSource.class.getName() + ".root");
+
+    /**
+     * Directory of the bundle on the controller (relative to the bundle root)
+     */
+    private final String directory;
+
+    /**
+     * Script in the bundle that is executed
+     */
+    private final String entryPoint;
+
+    @DataBoundConstructor
+    public BundleScriptSource(String directory, String entryPoint) {
+        this.directory = Util.fixEmptyAndTrim(directory);
+        this.entryPoint = Util.fixEmptyAndTrim(entryPoint);
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getEntryPoint() {
+        return entryPoint;
+    }
+
+    /**
+     * Get the root directory of the bundles
+     * @return Bundle root
+     */
+    static File getRoot() {
+        return ROOT != null ? new File(ROOT) : new File(Jenkins.getInstance().getRootDir(), "universal-script-bundles");
+    }
+
+    /**
+     * Check if a path is relative and does not leave its parent
+     * @param path Path
+     * @return True if the path is valid
+     */
+    private static boolean isRelative(String path) {
+        if (path == null || new File(path).isAbsolute() || path.startsWith("/") || path.startsWith("\\")) {
+            return false;
+        }
+        for (String segment : path.split("[/\\\\]")) {
+            if (segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the bundle directory on the controller
+     * @param build Build
+     * @param listener Build listener
+     * @return Bundle directory
+     * @throws IOException if the directory or the entry point is invalid
+     * @throws InterruptedException
+     */
+    private File getBundleDirectory(Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+        EnvVars env = build.getEnvironment(listener);
+        String name = directory != null ? env.expand(directory) : null;
+        File root = getRoot();
+        File dir = new File(root, Util.fixNull(name));
+        // the canonical check also covers symbolic links that leave the root
+        if (!isRelative(name) || !isInside(root, dir)) {
+            throw new IOException("Bundle directory " + name + " is not inside of the bundle root " + root);
+        }
+        if (!dir.isDirectory()) {
+            throw new IOException("Bundle directory " + dir + " does not exist");
+        }
+        if (!isRelative(entryPoint) || !isInside(dir, new File(dir, entryPoint))) {
+            throw new IOException("Invalid entry point " + entryPoint + " of bundle " + dir);
+        }
+        return dir;
+    }
+
+    private static boolean isInside(File dir, File file) throws IOException {
+        return file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator);
+    }
+
+    @Override
+    public FilePath getScriptFile(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+        File dir = getBundleDirectory(build, listener);
+        Bundle bundle = Bundle.of(dir);
+
+        // the archive is only read by the node if the bundle is missing
+        String path;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(bundle.archive))) {
+            path = projectWorkspace.act(new Install(bundle.hash, new RemoteInputStream(in)));
+        }
+        listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Bundle " + dir.getName() + " " + bundle.hash.substring(0, 12));
+        return new FilePath(projectWorkspace.getChannel(), path).child(entryPoint);
+    }
+
+    @Override
+    public InputStream getScriptStream(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+        return new FileInputStream(new File(getBundleDirectory(build, listener), entryPoint));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BundleScriptSource that = (BundleScriptSource) o;
+
+        return (directory != null ? directory.equals(that.directory) : that.directory == null)
+                && (entryPoint != null ? entryPoint.equals(that.entryPoint) : that.entryPoint == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (directory != null ? directory.hashCode() : 0) + (entryPoint != null ? entryPoint.hashCode() : 0);
+    }
+
+    /**
+     * Packed bundle on the controller
+     */
+    static final class Bundle {
+
+        /**
+         * Packed bundles by directory
+         */
+        private static final ConcurrentMap<String, Bundle> BUNDLES = new ConcurrentHashMap<>();
+
+        /**
+         * Size and modification times of the files (cheap check for changes)
+         */
+        private final String stamp;
+        /**
+         * Hash of the bundle content
+         */
+        final String hash;
+        /**
+         * Archive of the bundle
+         */
+        final File archive;
+
+        private Bundle(String stamp, String hash, File archive) {
+            this.stamp = stamp;
+            this.hash = hash;
+            this.archive = archive;
+        }
+
+        /**
+         * Get the packed bundle of a directory (packed again if a file changed)
+         * @param dir Bundle directory
+         * @return Packed bundle
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        static Bundle of(File dir) throws IOException, InterruptedException {
+            List<Path> files = listFiles(dir.toPath());
+            String stamp = getStamp(dir.toPath(), files);
+            String key = dir.getCanonicalPath();
+
+            Bundle bundle = BUNDLES.get(key);
+            if (bundle != null && bundle.stamp.equals(stamp) && bundle.archive.isFile()) {
+                return bundle;
+            }
+
+            String hash = getHash(dir.toPath(), files);
+            // archives are stored outside of the bundle root -> never part of a bundle
+            File root = new File(Jenkins.getInstance().getRootDir(), "universal-script-bundle-archives");
+            File archive = new File(root, hash + ".tar.gz");
+            if (!archive.isFile()) {
+                if (!root.isDirectory() && !root.mkdirs()) {
+                    throw new IOException("Failed to create bundle directory " + root);
+                }
+
+                // write to temporary file -> readers never see a partial archive
+                File tmp = File.createTempFile(hash, ".tmp", root);
+                try {
+                    try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp))) {
+                        new FilePath(dir).tar(out, "**");
+                    }
+                    Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+            }
+
+            bundle = new Bundle(stamp, hash, archive);
+            BUNDLES.put(key, bundle);
+            return bundle;
+        }
+
+        private static List<Path> listFiles(final Path dir) throws IOException {
+            final List<Path> files = new ArrayList<>();
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // symbolic links are packed as links -> their target is part of the content
+                    if (attrs.isRegularFile() || attrs.isSymbolicLink()) {
+                        files.add(dir.relativize(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            Collections.sort(files);
+            return files;
+        }
+
+        private static String getStamp(Path dir, List<Path> files) throws IOException {
+            StringBuilder stamp = new StringBuilder();
+            for (Path file : files) {
+                Path path = dir.resolve(file);
+                if (Files.isSymbolicLink(path)) {
+                    stamp.append(file).append("->").append(Files.readSymbolicLink(path)).append('\n');
+                    continue;
+                }
+                stamp.append(file).append(':').append(Files.size(path)).append(':')
+                        .append(Files.getLastModifiedTime(path).toMillis()).append('\n');
+            }
+            return stamp.toString();
+        }
+
+        private static String getHash(Path dir, List<Path> files) throws IOException {
+            MessageDigest digest = CompileCache.getDigest();
+            byte[] buffer = new byte[64 * 1024];
+            for (Path file : files) {
+                digest.update(file.toString().replace(File.separatorChar, '/').getBytes(Charset.forName("UTF-8")));
+                digest.update((byte) 0);
+                Path path = dir.resolve(file);
+                if (Files.isSymbolicLink(path)) {
+                    digest.update(("l" + Files.readSymbolicLink(path)).getBytes(Charset.forName("UTF-8")));
+                    digest.update((byte) 0);
+                    continue;
+                }
+                digest.update((Files.isExecutable(path) ? "x" : "-").getBytes(Charset.forName("UTF-8")));
+                try (InputStream in = Files.newInputStream(path)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                digest.update((byte) 0);
+            }
+            return Util.toHexString(digest.digest());
+        }
+    }
+
+    /**
+     * Unpack a bundle on the node if it is missing
+     */
+    private static final class Install extends MasterToSlaveCallable<String, IOException> {
+
+        /**
+         * Locks of the bundles that are unpacked
+         */
+        private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+        private final String hash;
+        private final RemoteInputStream archive;
+
+        Install(String hash, RemoteInputStream archive) {
+            this.hash = hash;
+            this.archive = archive;
+        }
+
+        @Override
+        public String call() throws IOException {
+            File root = new File(AgentCache.getRoot(), "bundles");
+            File target = new File(root, hash);
+
+            Object lock = new Object();
+            Object existing = LOCKS.putIfAbsent(hash, lock);
+            synchronized (existing != null ? existing : lock) {
+                if (target.isDirectory()) {
+                    return target.getAbsolutePath();
+                }
+                if (!root.isDirectory() && !root.mkdirs()) {
+                    throw new IOException("Failed to create bundle cache " + root);
+                }
+
+                // unpack into a temporary directory -> executions never see a partial bundle
+                File tmp = Files.createTempDirectory(root.toPath(), hash + ".tmp").toFile();
+                try {
+                    try (InputStream in = archive) {
+                        new FilePath(tmp).untarFrom(in, FilePath.TarCompression.GZIP);
+                    }
+                    Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // fine if unpacked by another process in the meantime
+                    if (!target.isDirectory()) {
+                        throw e;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while unpacking bundle " + hash, e);
+                } finally {
+                    if (tmp.exists()) {
+                        FileUtils.deleteQuietly(tmp);
+                    }
+                }
+                return target.getAbsolutePath();
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ScriptSource> {
+
+        @Override
+        public String getDisplayName() {
+            return "Script bundle";
+        }
+
+        public FormValidation doCheckDirectory(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.error("Bundle directory is required");
+            }
+            if (!isRelative(value.trim())) {
+                return FormValidation.error("Bundle directory must be a relative path in the bundle root " + getRoot());
+            }
+            if (!value.contains("$") && !new File(getRoot(), value.trim()).isDirectory()) {
+                return FormValidation.warning("Bundle " + value.trim() + " does not exist in " + getRoot());
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckEntryPoint(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.error("Entry point is required");
+            }
+            if (!isRelative(value.trim())) {
+                return FormValidation.error("Entry point must be a relative path in the bundle");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.StreamCopyThread;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of execution plans on a node where the output of each stage is
+ * connected to the input of the next stage.
+ *
+ * The stages are connected with the process pipes; the node relays the data
+ * with a fixed size buffer, so the intermediate data never touches the disk
+ * or the controller. A slow stage blocks the writes of the previous stage
+ * (back-pressure). The error output of all stages and the output of the last
+ * stage go to the build log.
+ */
+public class ChainExecution extends MasterToSlaveCallable<ArrayList<Integer>, IOException> {
+
+    /**
+     * Size of the relay buffer between two stages
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Execution plans of the stages
+     */
+    private final List<ExecutionPlan> stages;
+    /**
+     * Build listener
+     */
+    private final TaskListener listener;
+
+    /**
+     * Create chain execution
+     * @param stages Execution plans of the stages
+     * @param listener Build listener
+     */
+    public ChainExecution(List<ExecutionPlan> stages, TaskListener listener) {
+        this.stages = new ArrayList<>(stages);
+        this.listener = listener;
+    }
+
+    /**
+     * Execute the chain on the node
+     * @param channel Channel of the node
+     * @return Exit codes of the stages
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<Integer> execute(VirtualChannel channel) throws IOException, InterruptedException {
+        return channel.call(this);
+    }
+
+    public ArrayList<Integer> call() throws IOException {
+        List<ExecutionPlan.Launch> launches = new ArrayList<>();
+        List<Process> processes = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        try {
+            for (ExecutionPlan stage : stages) {
+                ExecutionPlan.Launch launch = stage.prepare(listener);
+                launches.add(launch);
+                listener.getLogger().println("[" + launch.pwd.getName() + "] | " + StringUtils.join(launch.command, " "));
+            }
+
+            // start all stages
+            for (int i = 0; i < launches.size(); i++) {
+                Process process = launches.get(i).toProcessBuilder().start();
+                processes.add(process);
+
+                // error output of all stages to log
+                threads.add(new StreamCopyThread("Universal script chain error " + i,
+                        process.getErrorStream(), listener.getLogger()));
+
+                if (i == 0) {
+                    process.getOutputStream().close();
+                } else {
+                    // output of previous stage to input of this stage
+                    threads.add(new Relay("Universal script chain relay " + i,
+                            processes.get(i - 1).getInputStream(), process.getOutputStream()));
+                }
+            }
+
+            // output of last stage to log
+            threads.add(new StreamCopyThread("Universal script chain output",
+                    processes.get(processes.size() - 1).getInputStream(), listener.getLogger()));
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+
+            // wait for all stages
+            ArrayList<Integer> exitCodes = new ArrayList<>();
+            for (Process process : processes) {
+                exitCodes.add(process.waitFor());
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return exitCodes;
+
+        } catch (InterruptedException e) {
+            // aborted -> remove all stages
+            for (Process process : processes) {
+                ExecutionPlan.killTree(process);
+            }
+            throw new InterruptedIOException("Execution aborted");
+
+        } catch (IOException e) {
+            for (Process process : processes) {
+                ExecutionPlan.killTree(process);
+            }
+            throw e;
+
+        } finally {
+            for (ExecutionPlan.Launch launch : launches) {
+                launch.cleanup(listener);
+            }
+        }
+    }
+
+    /**
+     * Relay of the output of one stage to the input of the next stage
+     */
+    private static final class Relay extends Thread {
+        private final InputStream in;
+        private final OutputStream out;
+
+        Relay(String name, InputStream in, OutputStream out) {
+            super(name);
+            this.in = in;
+            this.out = out;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    // blocks while the next stage is busy
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // next stage has closed its input -> stop reading of previous stage
+            } finally {
+                IOUtils.closeQuietly(out);
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,252 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of compiled scripts on the local machine (agent side).
+ *
+ * Compiled artifacts are stored by the hash of the script content and the
+ * identity of the compiler. Concurrent executions of the same script wait
+ * for a single compilation. Entries that were not used for
+ * {@link #MAX_AGE} days are removed.
+ */
+public final class CompileCache {
+
+    private static final Logger LOGGER = Logger.getLogger(CompileCache.class.getName());
+
+    /**
+     * Locks for running compilations by cache key
+     */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Time in days a compiled script is kept without being used
+     */
+    static final long MAX_AGE = Long.getLong(CompileCache.class.getName() + ".maxAge", 30L);
+
+    /**
+     * Time in milliseconds between two scans for unused entries
+     */
+    private static final long EVICTION_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Time of the last scan for unused entries
+     */
+    private static final AtomicLong LAST_EVICTION = new AtomicLong();
+
+    private CompileCache() {
+    }
+
+    /**
+     * Get the root directory of the cache
+     * @return Cache directory
+     */
+    static File getCacheRoot() {
+        return new File(AgentCache.getRoot(), "compiled");
+    }
+
+    /**
+     * Compile the script if no cached artifact exist
+     * @param compileCommand Compile command line (${SCRIPT} and ${COMPILED} are replaced)
+     * @param script Script to compile
+     * @param envVars Environment variables for the compiler
+     * @param listener Listener for the compiler output
+     * @return Directory with the compiled artifacts
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static File compile(List<String> compileCommand, File script, Map<String, String> envVars,
+                               TaskListener listener) throws IOException, InterruptedException {
+        String key = getKey(compileCommand, script);
+        File compiled = new File(getCacheRoot(), key);
+        evictUnused();
+
+        // skip compilation of unchanged scripts
+        if (compiled.isDirectory()) {
+            touch(compiled);
+            return compiled;
+        }
+
+        Object lock = new Object();
+        Object existing = LOCKS.putIfAbsent(key, lock);
+        if (existing != null) {
+            lock = existing;
+        }
+
+        synchronized (lock) {
+            // check again -> concurrent build may have compiled the script
+            if (compiled.isDirectory()) {
+                return compiled;
+            }
+
+            File tmp = new File(getCacheRoot(), key + ".tmp" + System.nanoTime());
+            if (!tmp.mkdirs()) {
+                throw new IOException("Failed to create compile directory " + tmp);
+            }
+
+            try {
+                Map<String, String> variables = new HashMap<>();
+                variables.put("SCRIPT", script.getPath());
+                variables.put("COMPILED", tmp.getPath());
+
+                ArrayList<String> cmd = new ArrayList<>();
+                boolean hasScript = false;
+                for (String arg : compileCommand) {
+                    String replaced = Util.replaceMacro(arg, variables);
+                    // only $SCRIPT and ${SCRIPT} reference the script, not e.g. $SCRIPT_DIR
+                    hasScript |= !replaced.equals(Util.replaceMacro(arg, Collections.singletonMap("COMPILED", tmp.getPath())));
+                    cmd.add(replaced);
+                }
+                // append script if not referenced in the command
+                if (!hasScript) {
+                    cmd.add(script.getPath());
+                }
+
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Compiling script");
+
+                ProcessBuilder builder = new ProcessBuilder(cmd);
+                builder.environment().putAll(envVars);
+                builder.directory(script.getAbsoluteFile().getParentFile());
+                builder.redirectErrorStream(true);
+                Process process = SpawnHelper.start(builder);
+
+                int exitCode;
+                try {
+                    IOUtils.copy(process.getInputStream(), listener.getLogger());
+                    exitCode = process.waitFor();
+                } finally {
+                    process.destroy();
+                }
+
+                if (exitCode != 0) {
+                    throw new ExecutionFailureException("Compilation failed", exitCode);
+                }
+
+                // publish artifacts -> rename is atomic for other agent processes
+                try {
+                    Files.move(tmp.toPath(), compiled.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    if (!compiled.isDirectory()) {
+                        throw e;
+                    }
+                }
+                return compiled;
+
+            } finally {
+                if (tmp.exists()) {
+                    Util.deleteRecursive(tmp);
+                }
+                LOCKS.remove(key, lock);
+            }
+        }
+    }
+
+    /**
+     * Mark an entry as used (at most once per eviction interval)
+     * @param compiled Directory of the entry
+     */
+    private static void touch(File compiled) {
+        long now = System.currentTimeMillis();
+        if (now - compiled.lastModified() > EVICTION_INTERVAL && !compiled.setLastModified(now)) {
+            LOGGER.log(Level.FINE, "Unable to mark compiled script {0} as used", compiled);
+        }
+    }
+
+    /**
+     * Remove the entries that were not used for the maximum age (at most once per eviction interval)
+     * @return Number of removed entries
+     */
+    static int evictUnused() {
+        long now = System.currentTimeMillis();
+        long last = LAST_EVICTION.get();
+        if (now - last < EVICTION_INTERVAL || !LAST_EVICTION.compareAndSet(last, now)) {
+            return 0;
+        }
+
+        File[] entries = getCacheRoot().listFiles();
+        if (entries == null) {
+            return 0;
+        }
+        long minModified = now - TimeUnit.DAYS.toMillis(MAX_AGE);
+        int evicted = 0;
+        for (File entry : entries) {
+            // left over temporary directories of aborted compilations are removed as well
+            String key = entry.getName().split("\\.", 2)[0];
+            if (!entry.isDirectory() || entry.lastModified() > minModified || LOCKS.containsKey(key)) {
+                continue;
+            }
+            try {
+                Util.deleteRecursive(entry);
+                evicted++;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to remove compiled script " + entry, e);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Get the cache key of the script and compiler
+     * @param compileCommand Compile command line
+     * @param script Script file
+     * @return Cache key
+     * @throws IOException
+     */
+    private static String getKey(List<String> compileCommand, File script) throws IOException {
+        MessageDigest digest = getDigest();
+
+        // compiler identity
+        for (String arg : compileCommand) {
+            digest.update(arg.getBytes(Charset.forName("UTF-8")));
+            digest.update((byte) 0);
+        }
+        File compiler = new File(compileCommand.get(0));
+        digest.update((compiler.length() + ":" + compiler.lastModified())
+                .getBytes(Charset.forName("UTF-8")));
+
+        // script content
+        try (InputStream in = new FileInputStream(script)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * Get a SHA-256 message digest
+     * @return Message digest
+     */
+    static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
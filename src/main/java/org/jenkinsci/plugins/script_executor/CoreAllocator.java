@@ -0,0 +1,216 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partition of the CPU cores of a node across concurrent executions.
+ *
+ * Each execution gets the cores that are used by the fewest other
+ * executions, so concurrent executions run on disjoint cores as long as
+ * there are enough cores. Only the cores of the affinity mask of the agent
+ * (CPU set of its container) are allocated.
+ */
+public final class CoreAllocator {
+
+    /**
+     * Status of the agent process with the allowed cores
+     */
+    private static final File STATUS = new File("/proc/self/status");
+
+    /**
+     * Ids of the allowed cores
+     */
+    private static int[] cpus;
+    /**
+     * Number of executions per allowed core (same order as the ids)
+     */
+    private static int[] usage;
+
+    /**
+     * Allocated cores by execution id (indexes of the allowed cores)
+     */
+    private static final Map<String, int[]> ALLOCATIONS = new HashMap<>();
+
+    private CoreAllocator() {
+    }
+
+    /**
+     * Allocate cores on the local machine
+     * @param id Id of the execution
+     * @param cores Number of cores (0 = equal share per executor)
+     * @param executors Number of executors of the node
+     * @return CPU list for taskset
+     */
+    static synchronized String allocateLocal(String id, int cores, int executors) {
+        if (usage == null) {
+            cpus = getAllowedCpus();
+            usage = new int[cpus.length];
+        }
+        if (cores <= 0) {
+            cores = usage.length / Math.max(executors, 1);
+        }
+        cores = Math.max(1, Math.min(cores, usage.length));
+
+        // pick the least used cores
+        int[] allocation = new int[cores];
+        boolean[] taken = new boolean[usage.length];
+        for (int i = 0; i < cores; i++) {
+            int best = -1;
+            for (int core = 0; core < usage.length; core++) {
+                if (!taken[core] && (best < 0 || usage[core] < usage[best])) {
+                    best = core;
+                }
+            }
+            taken[best] = true;
+            usage[best]++;
+            allocation[i] = best;
+        }
+        ALLOCATIONS.put(id, allocation);
+
+        StringBuilder list = new StringBuilder();
+        for (int core : allocation) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(cpus[core]);
+        }
+        return list.toString();
+    }
+
+    /**
+     * Get the ids of the cores the agent is allowed to run on
+     * @return Core ids (0 to number of processors - 1 if the mask is not readable)
+     */
+    private static int[] getAllowedCpus() {
+        try {
+            for (String line : FileUtils.readLines(STATUS, Charsets.UTF_8)) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    int[] allowed = parseCpuList(line.substring(line.indexOf(':') + 1));
+                    if (allowed.length > 0) {
+                        return allowed;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // no procfs -> all processors
+        }
+
+        int[] all = new int[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    /**
+     * Parse a CPU list like <code>0-3,8,10-11</code>
+     * @param list CPU list
+     * @return Core ids
+     * @throws NumberFormatException if the list is invalid
+     */
+    static int[] parseCpuList(String list) {
+        List<Integer> ids = new ArrayList<>();
+        for (String range : list.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+            for (int id = first; id <= last; id++) {
+                ids.add(id);
+            }
+        }
+
+        int[] cpus = new int[ids.size()];
+        for (int i = 0; i < cpus.length; i++) {
+            cpus[i] = ids.get(i);
+        }
+        return cpus;
+    }
+
+    /**
+     * Release the cores of an execution on the local machine
+     * @param id Id of the execution
+     */
+    static synchronized void releaseLocal(String id) {
+        int[] allocation = ALLOCATIONS.remove(id);
+        if (allocation != null) {
+            for (int core : allocation) {
+                usage[core]--;
+            }
+        }
+    }
+
+    /**
+     * Allocate cores on a node
+     * @param channel Channel of the node
+     * @param id Id of the execution
+     * @param cores Number of cores (0 = equal share per executor)
+     * @param executors Number of executors of the node
+     * @return CPU list for taskset
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static String allocate(VirtualChannel channel, String id, int cores, int executors)
+            throws IOException, InterruptedException {
+        return channel.call(new Allocate(id, cores, executors));
+    }
+
+    /**
+     * Release the cores of an execution on a node
+     * @param channel Channel of the node
+     * @param id Id of the execution
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void release(VirtualChannel channel, String id) throws IOException, InterruptedException {
+        channel.call(new Release(id));
+    }
+
+    private static final class Allocate extends MasterToSlaveCallable<String, IOException> {
+        private final String id;
+        private final int cores;
+        private final int executors;
+
+        Allocate(String id, int cores, int executors) {
+            this.id = id;
+            this.cores = cores;
+            this.executors = executors;
+        }
+
+        @Override
+        public String call() throws IOException {
+            return allocateLocal(id, cores, executors);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class Release extends MasterToSlaveCallable<Void, IOException> {
+        private final String id;
+
+        Release(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            releaseLocal(id);
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.EnvVars;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Reduces the environment of a launch to the variables that differ from the
+ * base environment of the node.
+ *
+ * The launcher and the execution plan both apply the variables on top of the
+ * environment of the node process, so the node reconstructs the full
+ * environment from the delta. The base environment is fetched once per channel.
+ */
+public final class EnvironmentDelta {
+
+    /**
+     * Base environment by channel (removed with the channel)
+     */
+    private static final Map<VirtualChannel, Map<String, String>> BASES =
+            Collections.synchronizedMap(new WeakHashMap<VirtualChannel, Map<String, String>>());
+
+    private EnvironmentDelta() {
+    }
+
+    /**
+     * Get the base environment of a node
+     * @param channel Channel of the node
+     * @return Environment of the node process
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static Map<String, String> getBase(VirtualChannel channel) throws IOException, InterruptedException {
+        Map<String, String> base = BASES.get(channel);
+        if (base == null) {
+            base = Collections.unmodifiableMap(new HashMap<>(EnvVars.getRemote(channel)));
+            BASES.put(channel, base);
+        }
+        return base;
+    }
+
+    /**
+     * Get the variables that differ from the base environment of a node
+     * @param envVars Full environment of the launch
+     * @param channel Channel of the node
+     * @return Changed and added variables
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static Map<String, String> of(Map<String, String> envVars, VirtualChannel channel) throws IOException, InterruptedException {
+        Map<String, String> base = getBase(channel);
+
+        Map<String, String> delta = new HashMap<>();
+        for (Map.Entry<String, String> entry : envVars.entrySet()) {
+            if (entry.getValue() != null && !entry.getValue().equals(base.get(entry.getKey()))) {
+                delta.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,685 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ProcessTree;
+import hudson.util.StreamCopyThread;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.SystemUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Serialisable description of a script execution that is carried out on the
+ * node in a single remote call.
+ *
+ * The plan contains everything needed for the execution: the script content
+ * or a reference to it, the command template, the environment overlay and the
+ * working directory. The node materialises the script, launches the runtime,
+ * streams the output to the listener and cleans up afterwards.
+ */
+public class ExecutionPlan implements Serializable {
+
+    /**
+     * Runtime installation (already translated for the node)
+     */
+    private final RuntimeInstallation installation;
+    /**
+     * True if executed on unix
+     */
+    private final boolean isUnix;
+    /**
+     * Script to execute (null for a raw runtime call)
+     */
+    private final Script script;
+    /**
+     * Expanded runtime parameters
+     */
+    private final List<String> runtimeArguments;
+    /**
+     * Expanded script parameters
+     */
+    private final List<String> scriptArguments;
+    /**
+     * Environment variables of the execution (overlay of the node environment)
+     */
+    private final Map<String, String> environment;
+    /**
+     * Working directory on the node
+     */
+    private final String workingDirectory;
+
+    /**
+     * Size limit of the result channel in bytes (0 = disabled)
+     */
+    private long resultSizeLimit = 0;
+
+    /**
+     * File on the node that is connected to the input of the process (null = no input)
+     */
+    private String stdinFile = null;
+
+    /**
+     * Id of the process in the process registry of the node (null = not registered)
+     */
+    private String processId = null;
+
+    /**
+     * Id of the execution for the resource usage sampling (null = disabled)
+     */
+    private String executionId = null;
+
+    /**
+     * True if the phases on the node are traced
+     */
+    private boolean traced = false;
+
+    /**
+     * Side log for the output (null = output to the listener)
+     */
+    private SideLog sideLog = null;
+
+    /**
+     * Filter of the output (null = unfiltered)
+     */
+    private OutputFilter outputFilter = null;
+
+    /**
+     * Scheduling policy of the process (null = default scheduling)
+     */
+    private SchedulingPolicy schedulingPolicy = null;
+
+    /**
+     * Number of executors of the node (for the automatic core partition)
+     */
+    private int executors = 1;
+
+    /**
+     * Create execution plan
+     * @param installation Runtime installation
+     * @param isUnix True if executed on unix
+     * @param script Script to execute or null
+     * @param runtimeArguments Expanded runtime parameters
+     * @param scriptArguments Expanded script parameters
+     * @param environment Environment variables of the execution
+     * @param workingDirectory Working directory on the node
+     */
+    public ExecutionPlan(RuntimeInstallation installation, boolean isUnix, Script script,
+                         List<String> runtimeArguments, List<String> scriptArguments,
+                         Map<String, String> environment, String workingDirectory) {
+        this.installation = installation;
+        this.isUnix = isUnix;
+        this.script = script;
+        this.runtimeArguments = new ArrayList<>(runtimeArguments);
+        this.scriptArguments = new ArrayList<>(scriptArguments);
+        this.environment = new HashMap<>(environment);
+        this.workingDirectory = workingDirectory;
+    }
+
+    /**
+     * Enable the result channel
+     * @param resultSizeLimit Size limit of the result file in bytes
+     */
+    public void setResultSizeLimit(long resultSizeLimit) {
+        this.resultSizeLimit = resultSizeLimit;
+    }
+
+    /**
+     * Connect a file to the input of the process
+     * @param stdinFile Path to the file on the node (relative to the working directory)
+     */
+    public void setStdinFile(String stdinFile) {
+        this.stdinFile = stdinFile;
+    }
+
+    /**
+     * Register the process to allow the termination of the execution
+     * @param processId Id of the process in the process registry of the node
+     */
+    public void setProcessId(String processId) {
+        this.processId = processId;
+    }
+
+    /**
+     * Enable the sampling of the resource usage
+     * @param executionId Id of the execution (value of UNIV_EXECUTION_ID)
+     */
+    public void setExecutionId(String executionId) {
+        this.executionId = executionId;
+    }
+
+    /**
+     * Enable the trace of the phases on the node
+     * @param traced True if traced
+     */
+    public void setTraced(boolean traced) {
+        this.traced = traced;
+    }
+
+    /**
+     * Write the output to a side log in the working directory
+     * @param sideLog Side log
+     */
+    public void setSideLog(SideLog sideLog) {
+        this.sideLog = sideLog;
+    }
+
+    /**
+     * Filter the output on the node before it is sent to the build log
+     * @param outputFilter Output filter
+     */
+    public void setOutputFilter(OutputFilter outputFilter) {
+        this.outputFilter = outputFilter;
+    }
+
+    /**
+     * Apply a scheduling policy to the process (unix only)
+     * @param schedulingPolicy Scheduling policy
+     * @param executors Number of executors of the node
+     */
+    public void setSchedulingPolicy(SchedulingPolicy schedulingPolicy, int executors) {
+        this.schedulingPolicy = schedulingPolicy;
+        this.executors = executors;
+    }
+
+    /**
+     * Execute the plan on the node
+     * @param channel Channel of the node
+     * @param listener Build listener
+     * @return Execution result
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ExecutionResult execute(VirtualChannel channel, TaskListener listener) throws IOException, InterruptedException {
+        return channel.call(new Call(this, listener));
+    }
+
+    /**
+     * Execute the plan on the local machine
+     * @param listener Build listener
+     * @return Execution result
+     * @throws IOException
+     */
+    ExecutionResult executeLocal(TaskListener listener) throws IOException {
+        ExecutionTrace.Recorder trace = new ExecutionTrace.Recorder(traced);
+
+        int span = trace.begin("script materialisation");
+        Launch launch = prepare(listener);
+        trace.end(span);
+
+        ResourceSampler sampler = null;
+        try {
+            if (executionId != null) {
+                sampler = ResourceSampler.startLocal(executionId);
+            }
+
+            // execute the script
+            listener.getLogger().println("[" + launch.pwd.getName() + "] $ " + StringUtils.join(launch.command, " "));
+            SideLog.Writer writer = null;
+            int exitCode;
+            if (sideLog != null) {
+                writer = sideLog.new Writer(launch.pwd, listener);
+                exitCode = run(launch, processId, writer, listener, trace);
+            } else {
+                exitCode = run(launch, processId, null, listener, trace);
+            }
+
+            ExecutionResult result = new ExecutionResult(exitCode);
+            if (writer != null) {
+                result.setSideLogLines(writer.getLines());
+            }
+            if (launch.resultFile != null) {
+                span = trace.begin("result channel");
+                result.setResults(ResultChannel.read(launch.resultFile, resultSizeLimit, listener));
+                trace.end(span);
+            }
+            if (sampler != null) {
+                result.setResourceUsage(sampler.finish());
+                sampler = null;
+            }
+            if (traced) {
+                result.setTrace(trace);
+            }
+            return result;
+
+        } finally {
+            if (sampler != null) {
+                sampler.finish();
+            }
+            span = trace.begin("cleanup");
+            launch.cleanup(listener);
+            trace.end(span);
+        }
+    }
+
+    /**
+     * Prepare the execution on the local machine
+     * (materialise the script, build the environment and the command line)
+     * @param listener Build listener
+     * @return Prepared launch
+     * @throws IOException
+     */
+    Launch prepare(TaskListener listener) throws IOException {
+        File pwd = new File(workingDirectory);
+        if (!pwd.isDirectory() && !pwd.mkdirs()) {
+            throw new IOException("Failed to create working directory " + pwd);
+        }
+
+        Launch launch = new Launch(pwd);
+        try {
+            if (script != null) {
+                launch.scriptFile = script.materialise(pwd);
+                launch.temporaryScript = script.isTemporary();
+            }
+
+            // prepare environment variables
+            Map<String, String> envVars = new HashMap<>(environment);
+            envVars.put("RUNTIME_HOME", installation.getLocalHome(isUnix));
+            envVars.putAll(installation.getEnvVarMap(envVars, isUnix));
+
+            if (resultSizeLimit > 0) {
+                launch.resultFile = File.createTempFile("result", ".json", pwd);
+                envVars.put(ResultChannel.ENV_VAR, launch.resultFile.getPath());
+            }
+
+            if (stdinFile != null) {
+                File file = new File(stdinFile);
+                launch.stdinFile = file.isAbsolute() ? file : new File(pwd, stdinFile);
+                if (!launch.stdinFile.isFile()) {
+                    listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Input file " + launch.stdinFile + " does not exist.");
+                    throw new ExecutionFailureException("Missing input file");
+                }
+            }
+
+            if (executionId != null) {
+                envVars.put(ResourceSampler.ENV_VAR, executionId);
+            }
+
+            launch.environment = envVars;
+            launch.outputFilter = outputFilter;
+            launch.responseFile = ResponseFile.of(installation);
+            launch.command = buildCommandLine(launch, envVars, listener);
+
+            if (schedulingPolicy != null && isUnix && !SystemUtils.IS_OS_LINUX) {
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Scheduling policy is ignored, it is only supported on Linux nodes");
+            } else if (schedulingPolicy != null && isUnix) {
+                String cpus = null;
+                if (schedulingPolicy.isAutoCpus()) {
+                    launch.coreAllocation = UUID.randomUUID().toString();
+                    cpus = CoreAllocator.allocateLocal(launch.coreAllocation, schedulingPolicy.getAutoCores(), executors);
+                }
+                launch.cgroup = schedulingPolicy.getCgroup(installation.getName(), UUID.randomUUID().toString());
+                launch.command = schedulingPolicy.apply(launch.command, cpus, launch.cgroup);
+            }
+            return launch;
+
+        } catch (IOException | RuntimeException e) {
+            launch.cleanup(listener);
+            throw e;
+        }
+    }
+
+    /**
+     * Build the command line on the node
+     * @param launch Prepared launch (script file and response file)
+     * @param envVars Environment variables
+     * @param listener Build listener
+     * @return Command line
+     * @throws IOException
+     */
+    private List<String> buildCommandLine(Launch launch, Map<String, String> envVars,
+                                          TaskListener listener) throws IOException {
+        ArrayList<String> cmd = new ArrayList<>();
+        File scriptFile = launch.scriptFile;
+
+        // large argument lists are passed as response file
+        // (raw calls have no script -> their parameters are the runtime arguments)
+        List<String> runtimeArguments = this.runtimeArguments;
+        List<String> scriptArguments = this.scriptArguments;
+        if (launch.responseFile != null) {
+            if (script == null) {
+                runtimeArguments = launch.responseFile.spill(launch.pwd, runtimeArguments, listener);
+            } else {
+                scriptArguments = launch.responseFile.spill(launch.pwd, scriptArguments, listener);
+            }
+        }
+
+        if (scriptFile != null && installation.hasCompilePhase()) {
+            // the compiled script replaces the runtime executable and the script
+            cmd.addAll(installation.compileLocal(scriptFile, isUnix, envVars, listener));
+            cmd.addAll(runtimeArguments);
+
+        } else {
+            String exe = installation.getLocalExecutable(isUnix);
+            if (exe == null) {
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime executable is NULL, please check your configuration.");
+                throw new ExecutionFailureException("Empty command");
+            }
+            cmd.add(exe);
+            cmd.addAll(runtimeArguments);
+
+            if (scriptFile != null) {
+                cmd.add(scriptFile.getPath());
+            }
+        }
+
+        cmd.addAll(scriptArguments);
+        return cmd;
+    }
+
+    /**
+     * Run the prepared launch and stream the output to the listener
+     * @param launch Prepared launch
+     * @param processId Id of the process in the process registry or null
+     * @param sideLog Writer of the side log or null
+     * @param listener Build listener
+     * @param trace Recorder of the trace
+     * @return Exit code
+     * @throws IOException
+     */
+    private static int run(Launch launch, String processId, SideLog.Writer sideLog, TaskListener listener,
+                           ExecutionTrace.Recorder trace) throws IOException {
+        int span = trace.begin("process spawn");
+        OutputFilter.Stream filtered = null;
+        if (launch.outputFilter != null) {
+            filtered = launch.outputFilter.wrap(listener.getLogger(), launch.pwd);
+        }
+        ProcessBuilder builder = launch.toProcessBuilder();
+        builder.redirectErrorStream(true);
+        Process process = SpawnHelper.start(builder);
+        process.getOutputStream().close();
+        if (processId != null) {
+            ProcessRegistry.register(processId, process);
+        }
+
+        Thread output;
+        if (sideLog != null) {
+            output = sideLog;
+            sideLog.setInput(process.getInputStream());
+            sideLog.setFilter(filtered);
+        } else if (filtered != null) {
+            output = new StreamCopyThread(
+                    "Universal script output: " + launch.command.get(0), process.getInputStream(), filtered);
+        } else {
+            output = new StreamCopyThread(
+                    "Universal script output: " + launch.command.get(0), process.getInputStream(), listener.getLogger());
+        }
+        output.start();
+        trace.end(span);
+
+        try {
+            span = trace.begin("run");
+            int exitCode = process.waitFor();
+            output.join();
+            trace.end(span);
+            return exitCode;
+
+        } catch (InterruptedException e) {
+            // aborted -> remove the whole process tree
+            killTree(process);
+            throw new InterruptedIOException("Execution aborted");
+
+        } finally {
+            if (processId != null) {
+                ProcessRegistry.unregister(processId);
+            }
+            if (filtered != null) {
+                // report the dropped lines and close the local copy
+                filtered.close();
+            }
+        }
+    }
+
+    /**
+     * Kill a process with all its children
+     * @param process Process to kill
+     */
+    static void killTree(Process process) {
+        try {
+            ProcessTree.OSProcess osProcess = SpawnHelper.getOSProcess(process);
+            if (osProcess != null) {
+                osProcess.killRecursively();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Prepared launch of an execution plan on the local machine
+     */
+    static final class Launch {
+        /**
+         * Working directory
+         */
+        final File pwd;
+        /**
+         * Command line
+         */
+        List<String> command;
+        /**
+         * Environment variables
+         */
+        Map<String, String> environment;
+        /**
+         * Materialised script file
+         */
+        File scriptFile;
+        /**
+         * True if the script file is removed after the execution
+         */
+        boolean temporaryScript;
+        /**
+         * Result channel file
+         */
+        File resultFile;
+        /**
+         * File connected to the input of the process
+         */
+        File stdinFile;
+        /**
+         * Filter of the output (null = unfiltered)
+         */
+        OutputFilter outputFilter;
+        /**
+         * Id of the allocated cores (null = no allocation)
+         */
+        String coreAllocation;
+        /**
+         * Cgroup of the execution (null = none)
+         */
+        String cgroup;
+        /**
+         * Response file of the arguments (null = disabled)
+         */
+        ResponseFile responseFile;
+
+        Launch(File pwd) {
+            this.pwd = pwd;
+        }
+
+        /**
+         * Create a process builder for this launch
+         * @return Process builder
+         */
+        ProcessBuilder toProcessBuilder() {
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.environment().putAll(environment);
+            builder.directory(pwd);
+            if (stdinFile != null) {
+                // the process reads the file directly -> no copy through the node
+                builder.redirectInput(stdinFile);
+            }
+            return builder;
+        }
+
+        /**
+         * Remove the temporary files
+         * @param listener Build listener
+         */
+        void cleanup(TaskListener listener) {
+            if (scriptFile != null && temporaryScript && !scriptFile.delete()) {
+                listener.error("Unable to delete script file " + scriptFile);
+            }
+            if (resultFile != null && !resultFile.delete()) {
+                listener.error("Unable to delete result file " + resultFile);
+            }
+            if (coreAllocation != null) {
+                CoreAllocator.releaseLocal(coreAllocation);
+            }
+            if (cgroup != null) {
+                SchedulingPolicy.removeCgroupLocal(cgroup);
+            }
+            if (responseFile != null) {
+                responseFile.delete(listener);
+            }
+        }
+    }
+
+    /**
+     * Script of an execution plan (content or reference)
+     */
+    public static final class Script implements Serializable {
+        /**
+         * Script content (null for a reference)
+         */
+        private final byte[] content;
+        /**
+         * Path to the script on the node (null for content)
+         */
+        private final String path;
+        /**
+         * Hash of the content (only for a template)
+         */
+        private String hash;
+        /**
+         * Values of the macros (null if the content is no template)
+         */
+        private Map<String, String> variables;
+        /**
+         * True if a referenced file is removed after the execution
+         */
+        private boolean temporary;
+
+        private Script(byte[] content, String path) {
+            this.content = content;
+            this.path = path;
+        }
+
+        /**
+         * Create a script from content which is written to a temporary file on the node
+         * @param content Script content
+         * @return Script
+         */
+        public static Script content(byte[] content) {
+            return new Script(content, null);
+        }
+
+        /**
+         * Create a script that refers to an existing file on the node
+         * @param path Path to the script on the node
+         * @return Script
+         */
+        public static Script reference(String path) {
+            return new Script(null, path);
+        }
+
+        /**
+         * Create a script that refers to a temporary file on the node
+         * @param path Path to the script on the node
+         * @return Script
+         */
+        public static Script temporaryReference(String path) {
+            Script script = new Script(null, path);
+            script.temporary = true;
+            return script;
+        }
+
+        /**
+         * Create a script from a template which is expanded while it is written to the node
+         * @param content Template content (UTF-8)
+         * @param hash Hash of the content
+         * @param variables Values of the macros
+         * @return Script
+         */
+        public static Script template(byte[] content, String hash, Map<String, String> variables) {
+            Script script = new Script(content, null);
+            script.hash = hash;
+            script.variables = new HashMap<>(variables);
+            return script;
+        }
+
+        /**
+         * Check if the script file is removed after the execution
+         * @return True if temporary
+         */
+        public boolean isTemporary() {
+            return content != null || temporary;
+        }
+
+        /**
+         * Get the script file on the node
+         * @param pwd Working directory
+         * @return Script file
+         * @throws IOException
+         */
+        File materialise(File pwd) throws IOException {
+            if (content == null) {
+                return new File(path);
+            }
+
+            File file = File.createTempFile("jenkins", ".use", pwd);
+            if (variables != null) {
+                ScriptTemplate template = ScriptTemplate.get(hash, content);
+                try (Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)), Charsets.UTF_8)) {
+                    template.expand(variables, out);
+                }
+                return file;
+            }
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(content);
+            }
+            return file;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Remote call to execute a plan on the node
+     */
+    private static final class Call extends MasterToSlaveCallable<ExecutionResult, IOException> {
+        private final ExecutionPlan plan;
+        private final TaskListener listener;
+
+        Call(ExecutionPlan plan, TaskListener listener) {
+            this.plan = plan;
+            this.listener = listener;
+        }
+
+        public ExecutionResult call() throws IOException {
+            return plan.executeLocal(listener);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final long serialVersionUID = 1L;
+}
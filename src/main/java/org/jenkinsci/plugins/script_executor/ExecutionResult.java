@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.script_executor;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Result of an execution plan returned from the node
+ */
+public class ExecutionResult implements Serializable {
+
+    /**
+     * Exit code of the runtime
+     */
+    private final int exitCode;
+
+    /**
+     * Records of the result channel (null if disabled)
+     */
+    private List<Object> results;
+
+    /**
+     * Resource usage of the execution (null if not recorded)
+     */
+    private ResourceUsage resourceUsage;
+
+    /**
+     * Trace of the phases on the node (null if disabled)
+     */
+    private ExecutionTrace.Recorder trace;
+
+    /**
+     * Number of lines in the side log (-1 if disabled)
+     */
+    private long sideLogLines = -1;
+
+    public ExecutionResult(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public List<Object> getResults() {
+        return results;
+    }
+
+    public void setResults(List<Object> results) {
+        this.results = results;
+    }
+
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+
+    public void setResourceUsage(ResourceUsage resourceUsage) {
+        this.resourceUsage = resourceUsage;
+    }
+
+    public ExecutionTrace.Recorder getTrace() {
+        return trace;
+    }
+
+    public void setTrace(ExecutionTrace.Recorder trace) {
+        this.trace = trace;
+    }
+
+    public long getSideLogLines() {
+        return sideLogLines;
+    }
+
+    public void setSideLogLines(long sideLogLines) {
+        this.sideLogLines = sideLogLines;
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,390 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.BuildListenerAdapter;
+import hudson.util.ListBoxModel;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trace of the lifecycle of a script execution.
+ *
+ * The trace consists of spans for the phases on the controller and the
+ * phases on the node (recorded relative to the remote call). It is archived
+ * as build artifact in Chrome trace event or OTLP JSON format and optionally
+ * sent to a local OTLP/HTTP collector. A disabled trace is a no-op.
+ */
+public class ExecutionTrace {
+
+    /**
+     * Chrome trace event format
+     */
+    public static final String CHROME = "chrome";
+    /**
+     * OpenTelemetry (OTLP) JSON format
+     */
+    public static final String OTLP = "otlp";
+
+    /**
+     * URL of the OTLP/HTTP collector (e.g. http://localhost:4318/v1/traces)
+     */
+    private static final String COLLECTOR_URL = System.getProperty(ExecutionTrace.class.getName() + ".collectorUrl");
+
+    /**
+     * Disabled trace
+     */
+    public static final ExecutionTrace NOOP = new ExecutionTrace(null, null);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Output format (null = disabled)
+     */
+    private final String format;
+    /**
+     * Id of the trace
+     */
+    private final String traceId;
+    /**
+     * Wall clock at the start of the trace in microseconds
+     */
+    private final long epochMicros = System.currentTimeMillis() * 1000;
+    /**
+     * Monotonic clock at the start of the trace
+     */
+    private final long origin = System.nanoTime();
+    /**
+     * Root span of the execution
+     */
+    private final Span root;
+    /**
+     * All spans of the trace
+     */
+    private final List<Span> spans = Collections.synchronizedList(new ArrayList<Span>());
+
+    private ExecutionTrace(String name, String format) {
+        this.format = format;
+        this.traceId = format != null ? randomId(16) : null;
+        this.root = format != null ? new Span(this, null, name, "controller", System.nanoTime()) : Span.NOOP;
+    }
+
+    /**
+     * Create a trace of an execution
+     * @param name Name of the execution (runtime name)
+     * @param format Output format or empty if disabled
+     * @return Trace or NOOP if disabled
+     */
+    public static ExecutionTrace create(String name, String format) {
+        format = Util.fixEmptyAndTrim(format);
+        if (format == null) {
+            return NOOP;
+        }
+        return new ExecutionTrace("universal script " + name, format);
+    }
+
+    /**
+     * Get the available formats
+     * @return List box model
+     */
+    public static ListBoxModel getFormatItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("Disabled", "");
+        items.add("Chrome trace events", CHROME);
+        items.add("OpenTelemetry (OTLP JSON)", OTLP);
+        return items;
+    }
+
+    /**
+     * Check if the trace is recorded
+     * @return True if enabled
+     */
+    public boolean isEnabled() {
+        return format != null;
+    }
+
+    /**
+     * Start a span on the controller
+     * @param name Name of the span
+     * @return Span (close to end it)
+     */
+    public Span span(String name) {
+        if (format == null) {
+            return Span.NOOP;
+        }
+        return new Span(this, root, name, "controller", System.nanoTime());
+    }
+
+    /**
+     * Add the spans recorded on a node
+     * @param parent Span of the remote call
+     * @param recorder Recorder of the node
+     * @param node Name of the node
+     */
+    public void addRemote(Span parent, Recorder recorder, String node) {
+        if (format == null || recorder == null) {
+            return;
+        }
+        for (int i = 0; i < recorder.names.size(); i++) {
+            long[] times = recorder.times.get(i);
+            Span span = new Span(this, parent, recorder.names.get(i), node, parent.start + times[0]);
+            span.end = times[1] >= 0 ? parent.start + times[1] : span.start;
+        }
+    }
+
+    /**
+     * End the trace, archive it as build artifact and send it to the collector
+     * @param run Build
+     * @param workspace Workspace
+     * @param launcher Launcher
+     * @param listener Build listener
+     */
+    public void export(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) {
+        if (format == null) {
+            return;
+        }
+        root.close();
+
+        String name = "universal-script-traces/" + traceId + ".json";
+        try {
+            String content = CHROME.equals(format) ? toChrome().toString() : toOtlp().toString();
+            FilePath file = workspace.createTextTempFile("trace", ".json", content, false);
+            try {
+                run.getArtifactManager().archive(workspace, launcher, BuildListenerAdapter.wrap(listener),
+                        Collections.singletonMap(name, file.getName()));
+            } finally {
+                file.delete();
+            }
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Trace archived as " + name);
+
+        } catch (IOException | InterruptedException e) {
+            listener.error("[UNIVERSAL SCRIPT EXECUTOR] Failed to archive trace: " + e);
+        }
+
+        if (COLLECTOR_URL != null) {
+            try {
+                send(toOtlp().toString());
+            } catch (IOException e) {
+                listener.error("[UNIVERSAL SCRIPT EXECUTOR] Failed to send trace to " + COLLECTOR_URL + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Get the trace in Chrome trace event format
+     * @return JSON object
+     */
+    JSONObject toChrome() {
+        JSONArray events = new JSONArray();
+        for (Span span : getSpans()) {
+            JSONObject event = new JSONObject();
+            event.put("name", span.name);
+            event.put("ph", "X");
+            event.put("ts", toEpochMicros(span.start));
+            event.put("dur", TimeUnit.NANOSECONDS.toMicros(span.getEnd() - span.start));
+            event.put("pid", traceId);
+            event.put("tid", span.lane);
+            events.add(event);
+        }
+
+        JSONObject trace = new JSONObject();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        return trace;
+    }
+
+    /**
+     * Get the trace in OTLP JSON format
+     * @return JSON object
+     */
+    JSONObject toOtlp() {
+        JSONArray otlpSpans = new JSONArray();
+        for (Span span : getSpans()) {
+            JSONObject otlpSpan = new JSONObject();
+            otlpSpan.put("traceId", traceId);
+            otlpSpan.put("spanId", span.id);
+            if (span.parent != null) {
+                otlpSpan.put("parentSpanId", span.parent.id);
+            }
+            otlpSpan.put("name", span.name);
+            otlpSpan.put("kind", 1);
+            otlpSpan.put("startTimeUnixNano", String.valueOf(toEpochMicros(span.start) * 1000));
+            otlpSpan.put("endTimeUnixNano", String.valueOf(toEpochMicros(span.getEnd()) * 1000));
+            otlpSpan.put("attributes", JSONArray.fromObject(Collections.singletonList(
+                    attribute("jenkins.node", span.lane))));
+            otlpSpans.add(otlpSpan);
+        }
+
+        JSONObject scope = new JSONObject();
+        scope.put("name", ExecutionTrace.class.getPackage().getName());
+
+        JSONObject scopeSpans = new JSONObject();
+        scopeSpans.put("scope", scope);
+        scopeSpans.put("spans", otlpSpans);
+
+        JSONObject resource = new JSONObject();
+        resource.put("attributes", JSONArray.fromObject(Collections.singletonList(
+                attribute("service.name", "universal-script-executor"))));
+
+        JSONObject resourceSpans = new JSONObject();
+        resourceSpans.put("resource", resource);
+        resourceSpans.put("scopeSpans", JSONArray.fromObject(Collections.singletonList(scopeSpans)));
+
+        JSONObject trace = new JSONObject();
+        trace.put("resourceSpans", JSONArray.fromObject(Collections.singletonList(resourceSpans)));
+        return trace;
+    }
+
+    private List<Span> getSpans() {
+        synchronized (spans) {
+            return new ArrayList<>(spans);
+        }
+    }
+
+    private long toEpochMicros(long nanos) {
+        return epochMicros + TimeUnit.NANOSECONDS.toMicros(nanos - origin);
+    }
+
+    private static JSONObject attribute(String key, String value) {
+        JSONObject stringValue = new JSONObject();
+        stringValue.put("stringValue", value);
+        JSONObject attribute = new JSONObject();
+        attribute.put("key", key);
+        attribute.put("value", stringValue);
+        return attribute;
+    }
+
+    /**
+     * Send the trace to the collector
+     * @param content OTLP JSON
+     * @throws IOException
+     */
+    private static void send(String content) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(COLLECTOR_URL).openConnection();
+        try {
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(content.getBytes(Charsets.UTF_8));
+            }
+            if (connection.getResponseCode() >= 300) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            IOUtils.closeQuietly(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String randomId(int bytes) {
+        byte[] id = new byte[bytes];
+        RANDOM.nextBytes(id);
+        return Util.toHexString(id);
+    }
+
+    /**
+     * Span of a trace
+     */
+    public static final class Span implements AutoCloseable {
+        /**
+         * Span of a disabled trace
+         */
+        static final Span NOOP = new Span(null, null, null, null, 0);
+
+        private final String id;
+        private final Span parent;
+        private final String name;
+        private final String lane;
+        private final long start;
+        private volatile long end = -1;
+
+        private Span(ExecutionTrace trace, Span parent, String name, String lane, long start) {
+            this.id = trace != null ? randomId(8) : null;
+            this.parent = parent;
+            this.name = name;
+            this.lane = lane;
+            this.start = start;
+            if (trace != null) {
+                trace.spans.add(this);
+            }
+        }
+
+        private long getEnd() {
+            long end = this.end;
+            return end >= 0 ? end : System.nanoTime();
+        }
+
+        /**
+         * End the span
+         */
+        @Override
+        public void close() {
+            if (id != null && end < 0) {
+                end = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Recorder of spans on a node (times relative to the start of the remote call)
+     */
+    public static final class Recorder implements Serializable {
+        private final boolean enabled;
+        private final transient long origin = System.nanoTime();
+        private final List<String> names = new ArrayList<>();
+        private final List<long[]> times = new ArrayList<>();
+
+        /**
+         * Create a recorder
+         * @param enabled False for a no-op recorder
+         */
+        public Recorder(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Start a span
+         * @param name Name of the span
+         * @return Index of the span
+         */
+        public int begin(String name) {
+            if (!enabled) {
+                return -1;
+            }
+            names.add(name);
+            times.add(new long[]{System.nanoTime() - origin, -1});
+            return names.size() - 1;
+        }
+
+        /**
+         * End a span
+         * @param index Index of the span
+         */
+        public void end(int index) {
+            if (index >= 0) {
+                times.get(index)[1] = System.nanoTime() - origin;
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -4,10 +4,21 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.model.*;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 
@@ -41,6 +52,21 @@ public class FileScriptSource extends ScriptSource {
         return getScriptFile(projectWorkspace,build,listener).read();
     }
 
+    @Override
+    public FilePath getExpandedScriptFile(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener,
+                                          Map<String, String> variables) throws IOException, InterruptedException {
+        // expand on the node, the script file is never transferred
+        FilePath source = getScriptFile(projectWorkspace, build, listener);
+        FilePath target = projectWorkspace.createTempFile("jenkins", ".use");
+        try {
+            source.act(new ExpandTemplate(target.getRemote(), variables));
+        } catch (IOException | InterruptedException e) {
+            target.delete();
+            throw e;
+        }
+        return target;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -56,6 +82,31 @@ public class FileScriptSource extends ScriptSource {
         return scriptFile != null ? scriptFile.hashCode() : 0;
     }
 
+    /**
+     * Expand the macros of a script file on the node
+     */
+    private static final class ExpandTemplate extends MasterToSlaveFileCallable<Void> {
+        private final String target;
+        private final Map<String, String> variables;
+
+        ExpandTemplate(String target, Map<String, String> variables) {
+            this.target = target;
+            this.variables = new HashMap<>(variables);
+        }
+
+        @Override
+        public Void invoke(File file, VirtualChannel channel) throws IOException {
+            String content = FileUtils.readFileToString(file, Charsets.UTF_8);
+            ScriptTemplate template = ScriptTemplate.get(ScriptStore.hash(content), content);
+            try (Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(target)), Charsets.UTF_8)) {
+                template.expand(variables, out);
+            }
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<ScriptSource> {
 
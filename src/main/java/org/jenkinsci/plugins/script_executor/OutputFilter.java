@@ -0,0 +1,176 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * Filter of the script output that is evaluated on the node before the
+ * output is sent to the build log.
+ *
+ * Lines are dropped if they do not match the include pattern, match the
+ * exclude pattern or exceed the rate limit. The number of dropped lines is
+ * reported in the build log. The unfiltered output can be copied to a file
+ * on the node. With a side log, the filter applies to the lines the side log
+ * shows in the build log.
+ */
+public class OutputFilter implements Serializable {
+
+    /**
+     * Pattern of the lines that are kept (null = all)
+     */
+    private final Pattern include;
+    /**
+     * Pattern of the lines that are dropped (null = none)
+     */
+    private final Pattern exclude;
+    /**
+     * Maximum number of lines per second (0 = unlimited)
+     */
+    private final int maxLinesPerSecond;
+    /**
+     * File on the node for the unfiltered output (null = disabled)
+     */
+    private final String localFile;
+
+    /**
+     * Create an output filter (the patterns are compiled once)
+     * @param include Pattern of the lines that are kept or null
+     * @param exclude Pattern of the lines that are dropped or null
+     * @param maxLinesPerSecond Maximum number of lines per second (0 = unlimited)
+     * @param localFile File on the node for the unfiltered output or null
+     */
+    public OutputFilter(String include, String exclude, int maxLinesPerSecond, String localFile) {
+        this.include = include != null ? Pattern.compile(include) : null;
+        this.exclude = exclude != null ? Pattern.compile(exclude) : null;
+        this.maxLinesPerSecond = Math.max(maxLinesPerSecond, 0);
+        this.localFile = localFile;
+    }
+
+    /**
+     * Wrap the output stream of the build log
+     * @param out Output stream of the build log
+     * @param pwd Working directory (base of a relative local file)
+     * @return Filtered stream (close to flush the summary, the build log is not closed)
+     * @throws IOException
+     */
+    Stream wrap(PrintStream out, File pwd) throws IOException {
+        OutputStream copy = null;
+        if (localFile != null) {
+            File file = new File(localFile);
+            copy = new FileOutputStream(file.isAbsolute() ? file : new File(pwd, localFile));
+        }
+        return new Stream(out, copy);
+    }
+
+    /**
+     * Filtered output stream
+     */
+    final class Stream extends LineTransformationOutputStream {
+        private final PrintStream out;
+        private final OutputStream copy;
+
+        private long second = -1;
+        private int linesInSecond = 0;
+        private long filtered = 0;
+        private long limited = 0;
+        private long limitedInSecond = 0;
+
+        Stream(PrintStream out, OutputStream copy) {
+            this.out = out;
+            this.copy = copy;
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            copy(b, len);
+
+            String line = include != null || exclude != null
+                    ? trimEOL(new String(b, 0, len, Charset.defaultCharset())) : null;
+            if (accept(line)) {
+                out.write(b, 0, len);
+            }
+        }
+
+        /**
+         * Write a line to the file of the unfiltered output only
+         * @param b Line with line break
+         * @param len Length of the line
+         * @throws IOException
+         */
+        void copy(byte[] b, int len) throws IOException {
+            if (copy != null) {
+                copy.write(b, 0, len);
+            }
+        }
+
+        /**
+         * Check if a line passes the patterns and the rate limit (dropped lines are counted)
+         * @param line Line without line break (null if no pattern is set)
+         * @return True if the line goes to the build log
+         */
+        boolean accept(String line) {
+            if (include != null || exclude != null) {
+                if ((include != null && !include.matcher(line).find())
+                        || (exclude != null && exclude.matcher(line).find())) {
+                    filtered++;
+                    return false;
+                }
+            }
+
+            if (maxLinesPerSecond > 0) {
+                long now = System.nanoTime() / 1000000000L;
+                if (now != second) {
+                    reportLimited();
+                    second = now;
+                    linesInSecond = 0;
+                }
+                if (linesInSecond >= maxLinesPerSecond) {
+                    limited++;
+                    limitedInSecond++;
+                    return false;
+                }
+                linesInSecond++;
+            }
+            return true;
+        }
+
+        private void reportLimited() {
+            if (limitedInSecond > 0) {
+                out.println("[UNIVERSAL SCRIPT EXECUTOR] ... " + limitedInSecond + " lines dropped by rate limit ...");
+                limitedInSecond = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+            if (copy != null) {
+                copy.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            forceEol();
+            reportLimited();
+            if (filtered > 0 || limited > 0) {
+                out.println("[UNIVERSAL SCRIPT EXECUTOR] Output filter dropped " + filtered
+                        + " filtered and " + limited + " rate limited lines");
+            }
+            out.flush();
+            if (copy != null) {
+                copy.close();
+            }
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+}
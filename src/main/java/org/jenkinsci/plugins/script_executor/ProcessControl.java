@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of a running script execution to terminate it on abort.
+ *
+ * The execution attaches the channel of the node and the launched process
+ * (launcher, processes marked by id in the environment) or only the channel
+ * (execution plan, processes registered by id). Both are terminated by the
+ * node with the same grace period.
+ */
+public final class ProcessControl {
+
+    /**
+     * Grace period between termination and kill of the process tree in milliseconds
+     */
+    public static final long GRACE_PERIOD = Long.getLong(ProcessControl.class.getName() + ".gracePeriod", 5000L);
+
+    /**
+     * Id of the process in the registry of the node
+     */
+    private final String id = UUID.randomUUID().toString();
+
+    /**
+     * Process launched by the launcher
+     */
+    private volatile Proc proc;
+    /**
+     * Channel of the node with the registered process
+     */
+    private volatile VirtualChannel channel;
+    /**
+     * Listener for the termination report (set on termination)
+     */
+    private volatile TaskListener listener;
+
+    /**
+     * Get the id of the process in the registry of the node
+     * @return Process id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Attach a process launched by the launcher.
+     * The environment of the process must contain {@link ProcessRegistry#ENV_VAR} with the id.
+     * @param proc Process
+     * @param channel Channel of the node
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void attach(Proc proc, VirtualChannel channel) throws IOException, InterruptedException {
+        this.channel = channel;
+        this.proc = proc;
+        if (listener != null) {
+            terminate(listener);
+        }
+    }
+
+    /**
+     * Attach the node of an execution plan
+     * @param channel Channel of the node
+     */
+    public void attach(VirtualChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Terminate the process tree
+     * @param listener Listener for the report
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void terminate(TaskListener listener) throws IOException, InterruptedException {
+        this.listener = listener;
+
+        VirtualChannel channel = this.channel;
+        boolean terminated = channel != null && channel.call(new ProcessRegistry.Terminate(id, GRACE_PERIOD, listener));
+
+        Proc proc = this.proc;
+        if (proc != null) {
+            // release the launched process, kills the tree if it was not found by its id
+            long start = System.nanoTime();
+            proc.kill();
+            if (!terminated) {
+                listener.getLogger().println(String.format("[UNIVERSAL SCRIPT EXECUTOR] Killed process tree in %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }
+        }
+    }
+}
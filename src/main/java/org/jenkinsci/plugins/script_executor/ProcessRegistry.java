@@ -0,0 +1,255 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Functions;
+import hudson.model.TaskListener;
+import hudson.util.ProcessTree;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of running script processes on the local machine (agent side).
+ *
+ * Processes are registered by the id of the execution plan, so the controller
+ * is able to terminate the whole process tree of an aborted execution.
+ * Processes started by the launcher are found by the environment variable
+ * {@link #ENV_VAR} with the id instead.
+ */
+public final class ProcessRegistry {
+
+    /**
+     * Environment variable with the id of a process started by the launcher
+     */
+    public static final String ENV_VAR = "UNIV_PROCESS_ID";
+
+    /**
+     * Running processes by id
+     */
+    private static final ConcurrentMap<String, Process> PROCESSES = new ConcurrentHashMap<>();
+
+    private ProcessRegistry() {
+    }
+
+    /**
+     * Register a running process
+     * @param id Id of the process
+     * @param process Process
+     */
+    static void register(String id, Process process) {
+        PROCESSES.put(id, process);
+    }
+
+    /**
+     * Remove a finished process
+     * @param id Id of the process
+     */
+    static void unregister(String id) {
+        PROCESSES.remove(id);
+    }
+
+    /**
+     * Terminate the process tree of a registered process.
+     * All processes of the tree get a termination signal. Processes that are
+     * still alive after the grace period are killed.
+     * @param process Process to terminate
+     * @param gracePeriod Grace period in milliseconds
+     * @param listener Listener for the report
+     * @throws InterruptedException
+     */
+    static void terminate(Process process, long gracePeriod, TaskListener listener) throws InterruptedException {
+        ProcessTree.OSProcess root = SpawnHelper.getOSProcess(process);
+        terminate(root != null ? Collections.singletonList(root) : Collections.<ProcessTree.OSProcess>emptyList(),
+                process, gracePeriod, listener);
+    }
+
+    /**
+     * Terminate the process trees of the given roots
+     * @param roots Roots of the process trees
+     * @param process Process to destroy (null if not started by this JVM)
+     * @param gracePeriod Grace period in milliseconds
+     * @param listener Listener for the report
+     * @throws InterruptedException
+     */
+    private static void terminate(List<ProcessTree.OSProcess> roots, Process process, long gracePeriod,
+                                  TaskListener listener) throws InterruptedException {
+        long start = System.nanoTime();
+
+        // remember the tree -> children are reparented if the parent exits
+        List<Integer> pids = new ArrayList<>();
+        for (ProcessTree.OSProcess root : roots) {
+            collect(root, pids);
+        }
+        for (ProcessTree.OSProcess root : roots) {
+            root.killRecursively();
+        }
+        if (process != null) {
+            process.destroy();
+        }
+
+        // wait for the tree to exit
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(gracePeriod);
+        List<Integer> alive = getAlive(pids);
+        while (!alive.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            alive = getAlive(pids);
+        }
+
+        boolean escalated = false;
+        if (!alive.isEmpty()) {
+            escalated = true;
+            kill(alive);
+        }
+
+        listener.getLogger().println(String.format(
+                "[UNIVERSAL SCRIPT EXECUTOR] Terminated %d processes in %d ms%s",
+                Math.max(1, pids.size()), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                escalated ? " (" + alive.size() + " killed after grace period)" : ""));
+    }
+
+    /**
+     * Get the roots of the process trees marked with an id
+     * @param id Id of the process
+     * @return Marked processes whose parent is not marked
+     */
+    private static List<ProcessTree.OSProcess> getMarked(String id) {
+        List<ProcessTree.OSProcess> marked = new ArrayList<>();
+        for (ProcessTree.OSProcess p : ProcessTree.get()) {
+            if (isMarked(p, id)) {
+                marked.add(p);
+            }
+        }
+
+        List<ProcessTree.OSProcess> roots = new ArrayList<>();
+        for (ProcessTree.OSProcess p : marked) {
+            ProcessTree.OSProcess parent = p.getParent();
+            if (parent == null || !marked.contains(parent)) {
+                roots.add(p);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Check if a process is marked with an id
+     * @param process Process
+     * @param id Id of the process
+     * @return True if marked
+     */
+    private static boolean isMarked(ProcessTree.OSProcess process, String id) {
+        try {
+            return id.equals(process.getEnvironmentVariables().get(ENV_VAR));
+        } catch (RuntimeException e) {
+            // process of other user or already exited
+            return false;
+        }
+    }
+
+    /**
+     * Collect the ids of a process and all its children
+     * @param process Process
+     * @param pids List of process ids
+     */
+    private static void collect(ProcessTree.OSProcess process, List<Integer> pids) {
+        pids.add(process.getPid());
+        for (ProcessTree.OSProcess child : process.getChildren()) {
+            collect(child, pids);
+        }
+    }
+
+    /**
+     * Get the processes that are still alive
+     * @param pids List of process ids
+     * @return List of alive process ids
+     */
+    private static List<Integer> getAlive(List<Integer> pids) {
+        List<Integer> alive = new ArrayList<>();
+        ProcessTree tree = ProcessTree.get();
+        for (Integer pid : pids) {
+            if (tree.get(pid) != null) {
+                alive.add(pid);
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * Kill processes without grace period
+     * @param pids List of process ids
+     */
+    private static void kill(List<Integer> pids) {
+        List<String> cmd = new ArrayList<>();
+        if (Functions.isWindows()) {
+            cmd.add("taskkill");
+            cmd.add("/F");
+            for (Integer pid : pids) {
+                cmd.add("/PID");
+                cmd.add(String.valueOf(pid));
+            }
+        } else {
+            cmd.add("kill");
+            cmd.add("-KILL");
+            for (Integer pid : pids) {
+                cmd.add(String.valueOf(pid));
+            }
+        }
+
+        try {
+            Process process = SpawnHelper.start(new ProcessBuilder(cmd).redirectErrorStream(true));
+            process.getOutputStream().close();
+            process.getInputStream().close();
+            process.waitFor();
+        } catch (IOException e) {
+            // processes may have exited in the meantime
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Remote call to terminate a registered process tree
+     */
+    static final class Terminate extends MasterToSlaveCallable<Boolean, IOException> {
+        private final String id;
+        private final long gracePeriod;
+        private final TaskListener listener;
+
+        Terminate(String id, long gracePeriod, TaskListener listener) {
+            this.id = id;
+            this.gracePeriod = gracePeriod;
+            this.listener = listener;
+        }
+
+        /**
+         * Terminate the registered process or the processes marked with the id
+         * @return False if the process is not running
+         * @throws IOException
+         */
+        public Boolean call() throws IOException {
+            try {
+                Process process = PROCESSES.get(id);
+                if (process != null) {
+                    terminate(process, gracePeriod, listener);
+                    return true;
+                }
+
+                List<ProcessTree.OSProcess> roots = getMarked(id);
+                if (roots.isEmpty()) {
+                    return false;
+                }
+                terminate(roots, null, gracePeriod, listener);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Termination interrupted");
+            }
+            return true;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
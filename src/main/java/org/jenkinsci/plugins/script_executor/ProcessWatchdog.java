@@ -0,0 +1,86 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.TaskListener;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watchdog of a process on the local machine (agent side).
+ *
+ * Terminates the process tree if the process is still watched when the
+ * timeout expires. Reading the output of a process can not be interrupted,
+ * so the readers get the end of the output when the tree is terminated.
+ */
+final class ProcessWatchdog extends Thread {
+
+    private final Process process;
+    private final long timeout;
+    private final long gracePeriod;
+    private final TaskListener listener;
+    /**
+     * True once the watchdog was cancelled or expired
+     */
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile boolean expired;
+
+    private ProcessWatchdog(Process process, long timeout, long gracePeriod, TaskListener listener) {
+        super("Universal script process watchdog");
+        this.process = process;
+        this.timeout = timeout;
+        this.gracePeriod = gracePeriod;
+        this.listener = listener;
+        setDaemon(true);
+    }
+
+    /**
+     * Watch a process
+     * @param process Process
+     * @param timeout Timeout in milliseconds (no watchdog if not positive)
+     * @param gracePeriod Grace period of the termination in milliseconds
+     * @param listener Listener for the report of the termination
+     * @return Started watchdog
+     */
+    static ProcessWatchdog watch(Process process, long timeout, long gracePeriod, TaskListener listener) {
+        ProcessWatchdog watchdog = new ProcessWatchdog(process, timeout, gracePeriod, listener);
+        if (timeout > 0) {
+            watchdog.start();
+        }
+        return watchdog;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Thread.sleep(timeout);
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        expired = true;
+        try {
+            ProcessRegistry.terminate(process, gracePeriod, listener);
+        } catch (InterruptedException e) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Stop watching the process
+     * @return True if the timeout expired and the process tree was terminated
+     */
+    boolean cancel() {
+        if (done.compareAndSet(false, true)) {
+            interrupt();
+            return false;
+        }
+        // wait for the termination of the expired watchdog
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return expired;
+    }
+}
@@ -0,0 +1,449 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sampler of the resource usage of a script execution on the local machine
+ * (agent side, Linux only).
+ *
+ * The processes of the execution are identified by the environment variable
+ * UNIV_EXECUTION_ID and their children. The counters of these processes are
+ * read from /proc in a fixed interval. Only the process tree of this JVM and
+ * the already tracked processes are walked (with the children lists of
+ * /proc, a full scan of /proc is only done on kernels without them).
+ *
+ * The CPU time of children that were waited for is part of the counters of
+ * their parent (cutime and cstime), so short-lived processes that exit
+ * between two samples are still counted. Processes whose parent is gone or
+ * not tracked are counted with their last sample.
+ */
+public final class ResourceSampler extends Thread {
+
+    /**
+     * Environment variable that marks the processes of an execution
+     */
+    public static final String ENV_VAR = "UNIV_EXECUTION_ID";
+
+    /**
+     * Sampling interval in milliseconds
+     */
+    private static final long INTERVAL = Math.max(10L,
+            Long.getLong(ResourceSampler.class.getName() + ".interval", 500L));
+
+    /**
+     * Clock ticks per second of the CPU times in /proc
+     */
+    private static final long CLOCK_TICKS = Long.getLong(ResourceSampler.class.getName() + ".clockTicks", 100L);
+
+    /**
+     * Running samplers by execution id
+     */
+    private static final ConcurrentMap<String, ResourceSampler> SAMPLERS = new ConcurrentHashMap<>();
+
+    private static final File PROC = new File("/proc");
+
+    /**
+     * Id of this process
+     */
+    private static final Integer SELF = getSelf();
+
+    /**
+     * True if the kernel provides the children lists of the processes
+     */
+    private static final boolean HAS_CHILDREN = new File(PROC, "self/task/" + SELF + "/children").isFile();
+
+    private final String id;
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * Processes of the execution
+     */
+    private final Set<Integer> tracked = new HashSet<>();
+    /**
+     * Processes with checked environment
+     */
+    private final Set<Integer> checked = new HashSet<>();
+    /**
+     * Parent of the tracked processes
+     */
+    private final Map<Integer, Integer> parentOf = new HashMap<>();
+    /**
+     * Last counters by process (utime, stime, read, write, voluntary, involuntary, cutime, cstime)
+     */
+    private final Map<Integer, long[]> counters = new HashMap<>();
+    /**
+     * Peak resident memory of the process tree in bytes
+     */
+    private long peakRss = 0;
+
+    private volatile boolean running = true;
+
+    private ResourceSampler(String id) {
+        super("Universal script resource sampler " + id);
+        this.id = id;
+        setDaemon(true);
+    }
+
+    /**
+     * Check if the resource usage can be sampled on the local machine
+     * @return True if supported
+     */
+    static boolean isSupported() {
+        return new File(PROC, "self/stat").isFile();
+    }
+
+    /**
+     * Start sampling of an execution on the local machine
+     * @param id Execution id (value of UNIV_EXECUTION_ID)
+     * @return Sampler or null if not supported
+     */
+    static ResourceSampler startLocal(String id) {
+        if (!isSupported()) {
+            return null;
+        }
+        ResourceSampler sampler = new ResourceSampler(id);
+        SAMPLERS.put(id, sampler);
+        sampler.start();
+        return sampler;
+    }
+
+    /**
+     * Stop sampling and get the resource usage
+     * @return Resource usage of the execution
+     */
+    ResourceUsage finish() {
+        SAMPLERS.remove(id);
+        running = false;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        sample();
+
+        ResourceUsage usage = new ResourceUsage();
+        usage.setDurationMillis(System.currentTimeMillis() - start);
+        for (long[] values : counters.values()) {
+            usage.addProcess((values[0] + values[6]) * 1000 / CLOCK_TICKS, (values[1] + values[7]) * 1000 / CLOCK_TICKS,
+                    values[2], values[3], values[4], values[5]);
+        }
+        usage.updatePeakRss(peakRss);
+        return usage;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take a sample of all processes of the execution
+     */
+    private synchronized void sample() {
+        Map<Integer, Integer> parents = HAS_CHILDREN ? getDescendants() : getAll();
+        if (parents == null) {
+            return;
+        }
+
+        // find new processes of the execution (marked or children)
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Integer, Integer> entry : parents.entrySet()) {
+                Integer pid = entry.getKey();
+                if (tracked.contains(pid)) {
+                    continue;
+                }
+                // children of this process are checked again (environment is replaced on exec)
+                Integer parent = entry.getValue();
+                if (tracked.contains(parent)
+                        || ((checked.add(pid) || parent.equals(SELF)) && isMarked(pid))) {
+                    tracked.add(pid);
+                    parentOf.put(pid, parent);
+                    changed = true;
+                }
+            }
+        }
+
+        // read counters of alive processes
+        long rss = 0;
+        for (Integer pid : tracked) {
+            if (!parents.containsKey(pid)) {
+                exited(pid, parents);
+                continue;
+            }
+            parentOf.put(pid, parents.get(pid));
+            String[] stat = readStat(pid);
+            Map<String, Long> status = readValues(new File(PROC, pid + "/status"));
+            Map<String, Long> io = readValues(new File(PROC, pid + "/io"));
+            if (stat == null) {
+                continue;
+            }
+
+            counters.put(pid, new long[]{
+                    Long.parseLong(stat[11]),
+                    Long.parseLong(stat[12]),
+                    get(io, "read_bytes"),
+                    get(io, "write_bytes"),
+                    get(status, "voluntary_ctxt_switches"),
+                    get(status, "nonvoluntary_ctxt_switches"),
+                    Long.parseLong(stat[13]),
+                    Long.parseLong(stat[14])});
+            rss += get(status, "VmRSS") * 1024;
+            peakRss = Math.max(peakRss, get(status, "VmHWM") * 1024);
+        }
+        peakRss = Math.max(peakRss, rss);
+    }
+
+    /**
+     * Handle a tracked process that is gone (reaped)
+     * @param pid Process id
+     * @param parents Parents of the alive processes
+     */
+    private void exited(Integer pid, Map<Integer, Integer> parents) {
+        Integer parent = parentOf.remove(pid);
+        long[] values = counters.get(pid);
+        if (values == null || parent == null || !tracked.contains(parent) || !parents.containsKey(parent)) {
+            // counted with the last sample
+            return;
+        }
+        // CPU time is part of the children times of the parent now
+        values[0] = 0;
+        values[1] = 0;
+        values[6] = 0;
+        values[7] = 0;
+    }
+
+    /**
+     * Get the parents of the process tree of this JVM and of the tracked processes
+     * @return Parent by process id
+     */
+    private Map<Integer, Integer> getDescendants() {
+        Map<Integer, Integer> parents = new HashMap<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.add(SELF);
+        // tracked processes may have been moved to another parent
+        for (Integer pid : tracked) {
+            String[] stat = readStat(pid);
+            if (stat != null) {
+                parents.put(pid, Integer.valueOf(stat[1]));
+                pending.add(pid);
+            }
+        }
+
+        Set<Integer> visited = new HashSet<>();
+        while (!pending.isEmpty()) {
+            Integer pid = pending.poll();
+            if (!visited.add(pid)) {
+                continue;
+            }
+            for (Integer child : readChildren(pid)) {
+                parents.put(child, pid);
+                pending.add(child);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Get the parents of all processes
+     * @return Parent by process id or null if /proc is not readable
+     */
+    private static Map<Integer, Integer> getAll() {
+        String[] names = PROC.list();
+        if (names == null) {
+            return null;
+        }
+        Map<Integer, Integer> parents = new HashMap<>();
+        for (String name : names) {
+            if (!isPid(name)) {
+                continue;
+            }
+            String[] stat = readStat(Integer.parseInt(name));
+            if (stat != null) {
+                parents.put(Integer.valueOf(name), Integer.valueOf(stat[1]));
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Read the children of all threads of a process
+     * @param pid Process id
+     * @return Child process ids
+     */
+    private static Set<Integer> readChildren(int pid) {
+        Set<Integer> children = new HashSet<>();
+        String[] tasks = new File(PROC, pid + "/task").list();
+        if (tasks == null) {
+            return children;
+        }
+        for (String task : tasks) {
+            try {
+                String list = FileUtils.readFileToString(new File(PROC, pid + "/task/" + task + "/children"), Charsets.UTF_8);
+                for (String child : list.trim().split("\\s+")) {
+                    if (isPid(child)) {
+                        children.add(Integer.valueOf(child));
+                    }
+                }
+            } catch (IOException e) {
+                // thread or process exited
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Check if a process is marked with the execution id
+     * @param pid Process id
+     * @return True if marked
+     */
+    private boolean isMarked(int pid) {
+        try {
+            String environ = FileUtils.readFileToString(new File(PROC, pid + "/environ"), Charsets.UTF_8);
+            return ("\0" + environ).contains("\0" + ENV_VAR + "=" + id + "\0");
+        } catch (IOException e) {
+            // process of other user or already exited
+            return false;
+        }
+    }
+
+    /**
+     * Read the stat fields of a process (starting with the state)
+     * @param pid Process id
+     * @return Fields or null if the process has exited
+     */
+    private static String[] readStat(int pid) {
+        try {
+            String stat = FileUtils.readFileToString(new File(PROC, pid + "/stat"), Charsets.UTF_8);
+            // name of the process may contain spaces
+            return stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a "key: value" file of a process
+     * @param file File to read
+     * @return Map with the numeric values
+     */
+    private static Map<String, Long> readValues(File file) {
+        Map<String, Long> values = new HashMap<>();
+        try {
+            for (String line : FileUtils.readLines(file, Charsets.UTF_8)) {
+                int pos = line.indexOf(':');
+                if (pos < 0) {
+                    continue;
+                }
+                String[] value = line.substring(pos + 1).trim().split("\\s+");
+                try {
+                    values.put(line.substring(0, pos).trim(), Long.parseLong(value[0]));
+                } catch (NumberFormatException e) {
+                    // not a counter
+                }
+            }
+        } catch (IOException e) {
+            // process exited or not readable
+        }
+        return values;
+    }
+
+    private static Integer getSelf() {
+        try {
+            return Integer.valueOf(new File(PROC, "self").getCanonicalFile().getName());
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long get(Map<String, Long> values, String key) {
+        Long value = values.get(key);
+        return value != null ? value : 0;
+    }
+
+    private static boolean isPid(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return !name.isEmpty();
+    }
+
+    /**
+     * Start sampling of an execution on a node
+     * @param channel Channel of the node
+     * @param id Execution id
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void start(VirtualChannel channel, String id) throws IOException, InterruptedException {
+        channel.call(new Start(id));
+    }
+
+    /**
+     * Stop sampling of an execution on a node
+     * @param channel Channel of the node
+     * @param id Execution id
+     * @return Resource usage or null if not supported on the node
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static ResourceUsage stop(VirtualChannel channel, String id) throws IOException, InterruptedException {
+        return channel.call(new Stop(id));
+    }
+
+    private static final class Start extends MasterToSlaveCallable<Void, IOException> {
+        private final String id;
+
+        Start(String id) {
+            this.id = id;
+        }
+
+        public Void call() {
+            startLocal(id);
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<ResourceUsage, IOException> {
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        public ResourceUsage call() {
+            ResourceSampler sampler = SAMPLERS.get(id);
+            return sampler != null ? sampler.finish() : null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
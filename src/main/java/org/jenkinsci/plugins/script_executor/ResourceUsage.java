@@ -0,0 +1,158 @@
+package org.jenkinsci.plugins.script_executor;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resource usage of the process tree of a script execution
+ */
+@ExportedBean(defaultVisibility = 2)
+public class ResourceUsage implements Serializable {
+    private long durationMillis;
+    private long userCpuMillis;
+    private long systemCpuMillis;
+    private long peakRssBytes;
+    private long readBytes;
+    private long writeBytes;
+    private long voluntaryContextSwitches;
+    private long involuntaryContextSwitches;
+    private int processes;
+
+    /**
+     * Number of aggregated executions
+     */
+    private int executions = 1;
+
+    /**
+     * Create an empty usage for aggregation
+     * @return Usage without executions
+     */
+    public static ResourceUsage empty() {
+        ResourceUsage usage = new ResourceUsage();
+        usage.executions = 0;
+        return usage;
+    }
+
+    @Exported
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    @Exported
+    public long getUserCpuMillis() {
+        return userCpuMillis;
+    }
+
+    @Exported
+    public long getSystemCpuMillis() {
+        return systemCpuMillis;
+    }
+
+    @Exported
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    @Exported
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    @Exported
+    public long getWriteBytes() {
+        return writeBytes;
+    }
+
+    @Exported
+    public long getVoluntaryContextSwitches() {
+        return voluntaryContextSwitches;
+    }
+
+    @Exported
+    public long getInvoluntaryContextSwitches() {
+        return involuntaryContextSwitches;
+    }
+
+    @Exported
+    public int getProcesses() {
+        return processes;
+    }
+
+    @Exported
+    public int getExecutions() {
+        return executions;
+    }
+
+    /**
+     * Add the counters of a single process
+     * @param userCpuMillis User CPU time
+     * @param systemCpuMillis System CPU time
+     * @param readBytes Bytes read from the block devices
+     * @param writeBytes Bytes written to the block devices
+     * @param voluntary Voluntary context switches
+     * @param involuntary Involuntary context switches
+     */
+    void addProcess(long userCpuMillis, long systemCpuMillis, long readBytes, long writeBytes,
+                    long voluntary, long involuntary) {
+        this.userCpuMillis += userCpuMillis;
+        this.systemCpuMillis += systemCpuMillis;
+        this.readBytes += readBytes;
+        this.writeBytes += writeBytes;
+        this.voluntaryContextSwitches += voluntary;
+        this.involuntaryContextSwitches += involuntary;
+        this.processes++;
+    }
+
+    /**
+     * Update the peak memory usage
+     * @param rssBytes Resident memory of the process tree
+     */
+    void updatePeakRss(long rssBytes) {
+        peakRssBytes = Math.max(peakRssBytes, rssBytes);
+    }
+
+    /**
+     * Add the usage of another execution (peak memory is the maximum)
+     * @param other Resource usage
+     */
+    public synchronized void add(ResourceUsage other) {
+        durationMillis += other.durationMillis;
+        userCpuMillis += other.userCpuMillis;
+        systemCpuMillis += other.systemCpuMillis;
+        peakRssBytes = Math.max(peakRssBytes, other.peakRssBytes);
+        readBytes += other.readBytes;
+        writeBytes += other.writeBytes;
+        voluntaryContextSwitches += other.voluntaryContextSwitches;
+        involuntaryContextSwitches += other.involuntaryContextSwitches;
+        processes += other.processes;
+        executions += other.executions;
+    }
+
+    /**
+     * Get the usage as map (pipeline step result)
+     * @return Map with the counters
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("durationMillis", durationMillis);
+        map.put("userCpuMillis", userCpuMillis);
+        map.put("systemCpuMillis", systemCpuMillis);
+        map.put("peakRssBytes", peakRssBytes);
+        map.put("readBytes", readBytes);
+        map.put("writeBytes", writeBytes);
+        map.put("voluntaryContextSwitches", voluntaryContextSwitches);
+        map.put("involuntaryContextSwitches", involuntaryContextSwitches);
+        map.put("processes", processes);
+        return map;
+    }
+
+    private static final long serialVersionUID = 1L;
+}
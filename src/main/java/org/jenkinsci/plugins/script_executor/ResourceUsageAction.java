@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resource usage of all universal script executions of a build
+ */
+@ExportedBean
+public class ResourceUsageAction implements RunAction2 {
+
+    /**
+     * Recorded executions
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Build of this action
+     */
+    private transient Run<?, ?> run;
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Script Resource Usage";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "universal-script-resources";
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Exported
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Add the resource usage of an execution
+     * @param runtime Name of the runtime
+     * @param usage Resource usage
+     */
+    public synchronized void add(String runtime, ResourceUsage usage) {
+        entries.add(new Entry(runtime, usage));
+    }
+
+    /**
+     * Record the resource usage of an execution for the build and the runtime statistics
+     * @param run Build
+     * @param runtime Name of the runtime
+     * @param usage Resource usage
+     */
+    public static void record(Run<?, ?> run, String runtime, ResourceUsage usage) {
+        ResourceUsageAction action;
+        synchronized (run) {
+            action = run.getAction(ResourceUsageAction.class);
+            if (action == null) {
+                action = new ResourceUsageAction();
+                run.addAction(action);
+            }
+        }
+        action.add(runtime, usage);
+        ResourceUsageStatistics.get().add(runtime, usage);
+    }
+
+    /**
+     * Resource usage of a single execution
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static class Entry {
+        private final String runtime;
+        private final ResourceUsage usage;
+
+        Entry(String runtime, ResourceUsage usage) {
+            this.runtime = runtime;
+            this.usage = usage;
+        }
+
+        @Exported
+        public String getRuntime() {
+            return runtime;
+        }
+
+        @Exported
+        public ResourceUsage getUsage() {
+            return usage;
+        }
+    }
+}
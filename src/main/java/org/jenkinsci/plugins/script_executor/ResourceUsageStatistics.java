@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resource usage of all executions aggregated by runtime
+ * (stored in $JENKINS_HOME)
+ *
+ * Added executions are written to the file with a delay, so the file is
+ * written at most once per save interval and not once per execution.
+ */
+public class ResourceUsageStatistics {
+
+    private static final Logger LOGGER = Logger.getLogger(ResourceUsageStatistics.class.getName());
+
+    /**
+     * Delay in seconds between the first unsaved change and the save
+     */
+    private static final long SAVE_DELAY = Math.max(1L,
+            Long.getLong(ResourceUsageStatistics.class.getName() + ".saveDelay", 60L));
+
+    private static ResourceUsageStatistics instance;
+
+    /**
+     * Aggregated usage by runtime name
+     */
+    private final Map<String, ResourceUsage> runtimes = new TreeMap<>();
+
+    /**
+     * True if a save is scheduled
+     */
+    private transient boolean saveScheduled;
+
+    /**
+     * Get the statistics (loaded on first access)
+     * @return Statistics
+     */
+    public static synchronized ResourceUsageStatistics get() {
+        if (instance == null) {
+            instance = new ResourceUsageStatistics();
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Write pending changes on shutdown
+     */
+    @Terminator
+    public static synchronized void flush() {
+        if (instance != null) {
+            synchronized (instance) {
+                if (instance.saveScheduled) {
+                    instance.save();
+                }
+            }
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(new File(Jenkins.getInstance().getRootDir(), ResourceUsageStatistics.class.getName() + ".xml"));
+    }
+
+    /**
+     * Get the aggregated usage by runtime
+     * @return Map of runtime name to usage
+     */
+    public synchronized Map<String, ResourceUsage> getRuntimes() {
+        return new TreeMap<>(runtimes);
+    }
+
+    /**
+     * Add the usage of an execution
+     * @param runtime Name of the runtime
+     * @param usage Resource usage
+     */
+    public synchronized void add(String runtime, ResourceUsage usage) {
+        ResourceUsage total = runtimes.get(runtime);
+        if (total == null) {
+            total = ResourceUsage.empty();
+            runtimes.put(runtime, total);
+        }
+        total.add(usage);
+
+        if (!saveScheduled) {
+            saveScheduled = true;
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            }, SAVE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Remove all statistics
+     */
+    public synchronized void clear() {
+        runtimes.clear();
+        save();
+    }
+
+    /**
+     * Write the statistics to the file
+     */
+    private synchronized void save() {
+        saveScheduled = false;
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save resource usage statistics", e);
+        }
+    }
+}
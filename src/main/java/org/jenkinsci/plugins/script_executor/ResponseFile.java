@@ -0,0 +1,194 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+import org.apache.commons.io.Charsets;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Response file that replaces a large argument list on the command line.
+ *
+ * If the arguments are longer than the threshold of the runtime, they are
+ * written to a temporary file (UTF-8, newline or NUL separated) on the node
+ * and the configured argument of the runtime (e.g. <code>@{file}</code>) is
+ * passed instead. The arguments are streamed to the file one by one. One
+ * instance belongs to one execution and removes its file in {@link #delete}.
+ */
+public final class ResponseFile {
+
+    /**
+     * Newline separated arguments
+     */
+    public static final String NEWLINE = "newline";
+
+    /**
+     * NUL separated arguments
+     */
+    public static final String NUL = "nul";
+
+    /**
+     * Placeholder of the file path in the argument
+     */
+    static final String FILE_PLACEHOLDER = "{file}";
+
+    /**
+     * Default length of the argument list above which the response file is used
+     */
+    static final int DEFAULT_THRESHOLD = 32768;
+
+    /**
+     * Argument with the placeholder of the file path
+     */
+    private final String argument;
+
+    /**
+     * True if the arguments are separated by NUL
+     */
+    private final boolean nulSeparated;
+
+    /**
+     * Length of the argument list in characters above which the file is used
+     */
+    private final int threshold;
+
+    /**
+     * Written file (null if not used)
+     */
+    private FilePath file;
+
+    private ResponseFile(String argument, boolean nulSeparated, int threshold) {
+        this.argument = argument;
+        this.nulSeparated = nulSeparated;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the response file of a runtime
+     * @param installation Runtime installation
+     * @return Response file or null if disabled for the runtime
+     */
+    public static ResponseFile of(RuntimeInstallation installation) {
+        if (installation == null || installation.getResponseFileArgument() == null) {
+            return null;
+        }
+        int threshold = installation.getResponseFileThreshold();
+        return new ResponseFile(installation.getResponseFileArgument(),
+                NUL.equals(installation.getResponseFileSeparator()),
+                threshold > 0 ? threshold : DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Check the argument of a response file
+     * @param value Argument
+     * @return Validation result
+     */
+    public static FormValidation check(String value) {
+        value = Util.fixEmptyAndTrim(value);
+        if (value != null && !value.contains(FILE_PLACEHOLDER)) {
+            return FormValidation.error("Argument has to contain the placeholder " + FILE_PLACEHOLDER);
+        }
+        return FormValidation.ok();
+    }
+
+    /**
+     * Check if the arguments are longer than the threshold
+     * @param args Arguments
+     * @return True if the response file is required
+     */
+    boolean isRequired(List<String> args) {
+        long length = 0;
+        for (String arg : args) {
+            // one separator per argument
+            length += arg.length() + 1;
+            if (length > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the arguments to a response file if they exceed the threshold
+     * @param dir Directory of the file on the node
+     * @param args Arguments
+     * @param listener Build listener
+     * @return Arguments that replace the given ones
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<String> spill(FilePath dir, List<String> args, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (!isRequired(args)) {
+            return args;
+        }
+        if (!nulSeparated) {
+            for (String arg : args) {
+                if (arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0) {
+                    listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Argument with a line break can not be "
+                            + "written to a newline separated response file, use the NUL separator.");
+                    throw new ExecutionFailureException("Invalid response file argument");
+                }
+            }
+        }
+
+        dir.mkdirs();
+        file = dir.createTempFile("args", ".rsp");
+        char separator = nulSeparated ? '\0' : '\n';
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(file.write(), Charsets.UTF_8))) {
+            for (String arg : args) {
+                writer.write(arg);
+                writer.write(separator);
+            }
+        }
+
+        listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] " + args.size()
+                + " arguments written to response file " + file.getRemote());
+        return Collections.singletonList(argument.replace(FILE_PLACEHOLDER, file.getRemote()));
+    }
+
+    /**
+     * Write the arguments to a response file on the local machine if they exceed the threshold
+     * @param dir Directory of the file
+     * @param args Arguments
+     * @param listener Build listener
+     * @return Arguments that replace the given ones
+     * @throws IOException
+     */
+    public List<String> spill(File dir, List<String> args, TaskListener listener) throws IOException {
+        try {
+            return spill(new FilePath(dir), args, listener);
+        } catch (InterruptedException e) {
+            // not possible for local files
+            Thread.currentThread().interrupt();
+            throw new IOException("Writing of the response file interrupted", e);
+        }
+    }
+
+    /**
+     * Remove the response file
+     * @param listener Build listener
+     */
+    public void delete(TaskListener listener) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.delete();
+        } catch (IOException e) {
+            listener.error("Unable to delete response file " + file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listener.error("Unable to delete response file " + file);
+        }
+        file = null;
+    }
+}
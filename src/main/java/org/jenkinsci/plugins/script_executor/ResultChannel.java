@@ -0,0 +1,156 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structured result channel from a script to the build.
+ *
+ * The script writes JSON records (one object or array per line) to the file
+ * given by the environment variable {@link #ENV_VAR}. The records are parsed
+ * on the node and returned as plain lists and maps. At most the size limit
+ * is read from the file, a record that crosses the limit is skipped.
+ *
+ * The file is read once the script has exited. The records are parsed while
+ * reading, so only the limit is buffered, but they are not streamed to the
+ * build while the script runs.
+ */
+public final class ResultChannel {
+
+    /**
+     * Environment variable with the path to the result file
+     */
+    public static final String ENV_VAR = "UNIV_RESULT_FILE";
+
+    /**
+     * Default size limit of the result file in KiB
+     */
+    public static final int DEFAULT_SIZE_LIMIT = 1024;
+
+    private ResultChannel() {
+    }
+
+    /**
+     * Read the records of a result file
+     * @param file Result file
+     * @param sizeLimit Maximum number of bytes to read (UTF-8 encoded, including line breaks)
+     * @param listener Listener for warnings
+     * @return List of records
+     * @throws IOException
+     */
+    public static List<Object> read(File file, long sizeLimit, TaskListener listener) throws IOException {
+        ArrayList<Object> records = new ArrayList<>();
+        if (!file.isFile()) {
+            return records;
+        }
+
+        long size = 0;
+        int invalid = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            // lines are read byte by byte -> never more than the limit is buffered
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (true) {
+                int b = in.read();
+                if (b >= 0 && ++size > sizeLimit) {
+                    listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Result size limit of "
+                            + sizeLimit + " bytes reached, remaining records are skipped");
+                    break;
+                }
+                if (b >= 0 && b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+
+                String text = line.toString("UTF-8");
+                line.reset();
+                if (!text.trim().isEmpty()) {
+                    try {
+                        records.add(toPlain(JSONSerializer.toJSON(text)));
+                    } catch (JSONException e) {
+                        invalid++;
+                    }
+                }
+                if (b < 0) {
+                    break;
+                }
+            }
+        }
+
+        if (invalid > 0) {
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Skipped " + invalid + " invalid result records");
+        }
+        return records;
+    }
+
+    /**
+     * Convert a JSON value to plain lists and maps
+     * @param value JSON value
+     * @return Plain value
+     */
+    private static Object toPlain(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            if (object.isNullObject()) {
+                return null;
+            }
+
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Object key : object.keySet()) {
+                map.put(key.toString(), toPlain(object.get(key)));
+            }
+            return map;
+
+        } else if (value instanceof JSONArray) {
+            List<Object> list = new ArrayList<>();
+            for (Object item : (JSONArray) value) {
+                list.add(toPlain(item));
+            }
+            return list;
+
+        } else if (value instanceof JSONNull) {
+            return null;
+
+        } else if (value instanceof JSON) {
+            throw new JSONException("Unsupported JSON value");
+        }
+        return value;
+    }
+
+    /**
+     * Read the result file on the node
+     */
+    public static final class Reader extends MasterToSlaveFileCallable<List<Object>> {
+        private final long sizeLimit;
+        private final TaskListener listener;
+
+        public Reader(long sizeLimit, TaskListener listener) {
+            this.sizeLimit = sizeLimit;
+            this.listener = listener;
+        }
+
+        @Override
+        public List<Object> invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            return read(f, sizeLimit, listener);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
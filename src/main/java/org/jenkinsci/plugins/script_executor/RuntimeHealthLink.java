@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Management page and REST endpoint of the runtime health report.
+ * The report is created in the background, requests get the last report.
+ */
+@Extension
+public class RuntimeHealthLink extends ManagementLink {
+
+    private static final Logger LOGGER = Logger.getLogger(RuntimeHealthLink.class.getName());
+
+    /**
+     * Time in milliseconds a report is cached
+     */
+    private static final long CACHE_TIME = Long.getLong(RuntimeHealthLink.class.getName() + ".cacheTime", 300000L);
+
+    /**
+     * Last created report
+     */
+    private transient volatile RuntimeHealthReport report;
+
+    /**
+     * Running creation of a report
+     */
+    private transient Future<?> update;
+
+    @Override
+    public String getIconFileName() {
+        return "monitor.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Universal Script Runtime Health";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Check the runtime installations of the universal script executor on all online nodes.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "universal-script-health";
+    }
+
+    /**
+     * Get the last health report (a new one is created in the background if it is outdated)
+     * @return Health report or null if the first report is not created yet
+     */
+    public RuntimeHealthReport getReport() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        RuntimeHealthReport current = report;
+        if (current == null || current.getAge() > CACHE_TIME) {
+            update();
+        }
+        return current;
+    }
+
+    /**
+     * Check if a report is created
+     * @return True if a report is created in the background
+     */
+    public synchronized boolean isUpdating() {
+        return update != null && !update.isDone();
+    }
+
+    /**
+     * Create a new report in the background (if not already running)
+     */
+    private synchronized void update() {
+        if (isUpdating()) {
+            return;
+        }
+        update = Timer.get().submit(new Runnable() {
+            public void run() {
+                try {
+                    report = RuntimeHealthReport.create();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to create the runtime health report", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * REST endpoint of the health report
+     * @return Api
+     */
+    public Api getApi() {
+        RuntimeHealthReport current = getReport();
+        if (current == null) {
+            throw HttpResponses.error(503, "Runtime health report is created, retry later");
+        }
+        return new Api(current);
+    }
+
+    /**
+     * Get the resource usage aggregated by runtime
+     * @return Map of runtime name to usage
+     */
+    public Map<String, ResourceUsage> getResourceUsage() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return ResourceUsageStatistics.get().getRuntimes();
+    }
+
+    /**
+     * Reset the resource usage statistics
+     * @return Redirect to the report
+     */
+    @RequirePOST
+    public HttpResponse doClearResourceUsage() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        ResourceUsageStatistics.get().clear();
+        return HttpResponses.redirectToDot();
+    }
+
+    /**
+     * Create a new report in the background (the last report is shown until it is done)
+     * @return Redirect to the report
+     */
+    @RequirePOST
+    public HttpResponse doRefresh() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        update();
+        return HttpResponses.redirectToDot();
+    }
+}
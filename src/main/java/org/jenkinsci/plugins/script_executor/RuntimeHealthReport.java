@@ -0,0 +1,173 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Health report of all runtime installations on all online nodes
+ */
+@ExportedBean
+public class RuntimeHealthReport {
+
+    /**
+     * Maximum number of nodes probed concurrently
+     */
+    private static final int CONCURRENCY = Math.max(1,
+            Integer.getInteger(RuntimeHealthReport.class.getName() + ".concurrency", 8));
+
+    /**
+     * Timeout of a single probe in seconds
+     */
+    private static final long PROBE_TIMEOUT = Long.getLong(RuntimeHealthReport.class.getName() + ".probeTimeout", 30L);
+
+    /**
+     * Additional time in seconds to get the result of a probe that timed out on the node
+     */
+    private static final long RESULT_TIMEOUT = 10L;
+
+    /**
+     * Time of the report creation
+     */
+    private final long timestamp = System.currentTimeMillis();
+
+    /**
+     * Probe results
+     */
+    private final List<RuntimeProbe.Result> results;
+
+    private RuntimeHealthReport(List<RuntimeProbe.Result> results) {
+        this.results = results;
+    }
+
+    @Exported
+    public List<RuntimeProbe.Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    @Exported
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Date getDate() {
+        return new Date(timestamp);
+    }
+
+    /**
+     * Get the age of the report
+     * @return Age in milliseconds
+     */
+    public long getAge() {
+        return System.currentTimeMillis() - timestamp;
+    }
+
+    /**
+     * Probe all runtime installations on all online nodes
+     * @return Health report
+     * @throws InterruptedException
+     */
+    public static RuntimeHealthReport create() throws InterruptedException {
+        final List<RuntimeInstallation> installations = RuntimeWarmUp.getInstallations();
+
+        List<Node> nodes = new ArrayList<>();
+        Jenkins jenkins = Jenkins.getInstance();
+        nodes.add(jenkins);
+        nodes.addAll(jenkins.getNodes());
+
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY,
+                new NamingThreadFactory(new DaemonThreadFactory(), "RuntimeHealthReport"));
+        try {
+            // fork -> one task per node
+            List<Future<List<RuntimeProbe.Result>>> futures = new ArrayList<>();
+            List<String> nodeNames = new ArrayList<>();
+            for (final Node node : nodes) {
+                Computer computer = node.toComputer();
+                if (computer == null || computer.isOffline() || computer.getChannel() == null) {
+                    continue;
+                }
+                final VirtualChannel channel = computer.getChannel();
+                nodeNames.add(node.getDisplayName());
+
+                futures.add(executor.submit(new Callable<List<RuntimeProbe.Result>>() {
+                    public List<RuntimeProbe.Result> call() throws Exception {
+                        return probe(node, channel, installations, true);
+                    }
+                }));
+            }
+
+            // join
+            List<RuntimeProbe.Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.addAll(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(RuntimeProbe.Result.failed(String.valueOf(e.getCause()))
+                            .withNames(nodeNames.get(i), null));
+                }
+            }
+            return new RuntimeHealthReport(results);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Probe all runtime installations on a node
+     * @param node Node
+     * @param channel Channel of the node
+     * @param installations Runtime installations
+     * @param measureLatency True if the startup latency is measured
+     * @return Probe results
+     * @throws Exception
+     */
+    static List<RuntimeProbe.Result> probe(Node node, VirtualChannel channel, List<RuntimeInstallation> installations,
+                                           boolean measureLatency) throws Exception {
+        boolean isUnix = node.createLauncher(TaskListener.NULL).isUnix();
+        String nodeName = node.getDisplayName();
+
+        List<RuntimeProbe.Result> results = new ArrayList<>();
+        for (RuntimeInstallation installation : installations) {
+            RuntimeProbe.Result result;
+            Future<RuntimeProbe.Result> future = null;
+            try {
+                RuntimeInstallation runtime = installation.forNode(node, TaskListener.NULL);
+                // the node terminates the probe on timeout, the additional time is for the result
+                future = channel.callAsync(new RuntimeProbe(runtime, isUnix, measureLatency,
+                        TimeUnit.SECONDS.toMillis(PROBE_TIMEOUT)));
+                result = future.get(PROBE_TIMEOUT + RESULT_TIMEOUT, TimeUnit.SECONDS);
+
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                result = RuntimeProbe.Result.failed("Probe timed out after " + PROBE_TIMEOUT + " s");
+            } catch (ExecutionException e) {
+                result = RuntimeProbe.Result.failed(String.valueOf(e.getCause()));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                result = RuntimeProbe.Result.failed(e.toString());
+            }
+            results.add(result.withNames(nodeName, installation.getName()));
+        }
+        return results;
+    }
+}
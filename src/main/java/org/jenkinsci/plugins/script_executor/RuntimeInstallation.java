@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.script_executor;
 
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Util;
 import hudson.model.EnvironmentSpecific;
 import hudson.model.TaskListener;
@@ -12,16 +13,24 @@ import hudson.tools.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.security.MasterToSlaveCallable;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 /**
  * Installation of a runtime
@@ -59,6 +68,46 @@ public class RuntimeInstallation
      */
     private String envVarNix;
 
+    /**
+     * Command to compile the script before execution (based on home)
+     */
+    private String compileCommand;
+
+    /**
+     * Command to execute a compiled script (based on home)
+     */
+    private String runCompiledCommand;
+
+    /**
+     * Command to warm up the runtime if a node comes online (based on home)
+     */
+    private String warmUpCommand;
+
+    /**
+     * Command to print the runtime version (based on home)
+     */
+    private String versionCommand;
+
+    /**
+     * Scheduling policy of the executions (key=value pairs)
+     */
+    private String schedulingPolicy;
+
+    /**
+     * Argument that replaces large argument lists (e.g. @{file}, empty = disabled)
+     */
+    private String responseFileArgument;
+
+    /**
+     * Separator of the arguments in response files (newline or nul)
+     */
+    private String responseFileSeparator;
+
+    /**
+     * Length of the argument list in characters above which a response file is used (0 = default)
+     */
+    private int responseFileThreshold = 0;
+
     /**
      * Create runtime installation
      * @param name Name of the installation
@@ -131,6 +180,118 @@ public class RuntimeInstallation
         return envVarNix;
     }
 
+    /**
+     * Get the command to compile the script
+     * @return Command to compile the script
+     */
+    public String getCompileCommand() {
+        return compileCommand;
+    }
+
+    @DataBoundSetter
+    public void setCompileCommand(String compileCommand) {
+        this.compileCommand = Util.fixEmptyAndTrim(compileCommand);
+    }
+
+    /**
+     * Get the command to execute a compiled script
+     * @return Command to execute a compiled script
+     */
+    public String getRunCompiledCommand() {
+        return runCompiledCommand;
+    }
+
+    @DataBoundSetter
+    public void setRunCompiledCommand(String runCompiledCommand) {
+        this.runCompiledCommand = Util.fixEmptyAndTrim(runCompiledCommand);
+    }
+
+    /**
+     * Get the command to warm up the runtime
+     * @return Command to warm up the runtime
+     */
+    public String getWarmUpCommand() {
+        return warmUpCommand;
+    }
+
+    @DataBoundSetter
+    public void setWarmUpCommand(String warmUpCommand) {
+        this.warmUpCommand = Util.fixEmptyAndTrim(warmUpCommand);
+    }
+
+    /**
+     * Get the command to print the runtime version
+     * @return Command to print the runtime version
+     */
+    public String getVersionCommand() {
+        return versionCommand;
+    }
+
+    @DataBoundSetter
+    public void setVersionCommand(String versionCommand) {
+        this.versionCommand = Util.fixEmptyAndTrim(versionCommand);
+    }
+
+    /**
+     * Get the scheduling policy of the executions
+     * @return Scheduling policy as key=value pairs
+     */
+    public String getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    @DataBoundSetter
+    public void setSchedulingPolicy(String schedulingPolicy) {
+        this.schedulingPolicy = Util.fixEmptyAndTrim(schedulingPolicy);
+    }
+
+    /**
+     * Get the argument that replaces large argument lists
+     * @return Argument with the placeholder {file} or null if disabled
+     */
+    public String getResponseFileArgument() {
+        return responseFileArgument;
+    }
+
+    @DataBoundSetter
+    public void setResponseFileArgument(String responseFileArgument) {
+        this.responseFileArgument = Util.fixEmptyAndTrim(responseFileArgument);
+    }
+
+    /**
+     * Get the separator of the arguments in response files
+     * @return Separator (newline or nul)
+     */
+    public String getResponseFileSeparator() {
+        return responseFileSeparator;
+    }
+
+    @DataBoundSetter
+    public void setResponseFileSeparator(String responseFileSeparator) {
+        this.responseFileSeparator = Util.fixEmptyAndTrim(responseFileSeparator);
+    }
+
+    /**
+     * Get the length of the argument list above which a response file is used
+     * @return Length in characters (0 = default)
+     */
+    public int getResponseFileThreshold() {
+        return responseFileThreshold;
+    }
+
+    @DataBoundSetter
+    public void setResponseFileThreshold(int responseFileThreshold) {
+        this.responseFileThreshold = Math.max(responseFileThreshold, 0);
+    }
+
+    /**
+     * Check if scripts of this runtime are compiled before execution
+     * @return True if compile and run command are configured
+     */
+    public boolean hasCompilePhase() {
+        return compileCommand != null && runCompiledCommand != null;
+    }
+
     /**
      * Get the environment variables
      * @param isUnix True if on linux
@@ -189,28 +350,34 @@ public class RuntimeInstallation
     public String getExecutable(VirtualChannel channel, final boolean isOnUnix) throws IOException, InterruptedException {
         return channel.call(new MasterToSlaveCallable<String, IOException>() {
             public String call() throws IOException {
-                // replace macros in home path
-                String home = Util.replaceMacro(getHome(), EnvVars.masterEnvVars);
-
-                // check if on unix
-                File exe;
-                if (isOnUnix) {
-                    exe = new File(getMountPointHome(home), getNixExecutor());
-                } else {
-                    exe = new File(home, getWinExecutor());
-                }
-
-                // check if executor exist
-                if (exe.exists()) {
-                    return exe.getPath();
-                }
-                return null;
+                return getLocalExecutable(isOnUnix);
             }
 
             private static final long serialVersionUID = 1L;
         });
     }
 
+    /**
+     * Gets the executable path of this runtime on the local machine
+     * @param isOnUnix True if run on unix
+     * @return Path to executable or null
+     */
+    String getLocalExecutable(boolean isOnUnix) {
+        // check if on unix
+        File exe;
+        if (isOnUnix) {
+            exe = new File(getLocalHome(true), getNixExecutor());
+        } else {
+            exe = new File(getLocalHome(false), getWinExecutor());
+        }
+
+        // check if executor exist
+        if (exe.exists()) {
+            return exe.getPath();
+        }
+        return null;
+    }
+
     /**
      * Gets the home path of this runtime
      * @param channel Channel of node
@@ -222,21 +389,30 @@ public class RuntimeInstallation
     public String getLocalHome(VirtualChannel channel, final boolean isOnUnix) throws IOException, InterruptedException {
         return channel.call(new MasterToSlaveCallable<String, IOException>() {
             public String call() throws IOException {
-                // replace macros in home path
-                String home = Util.replaceMacro(getHome(), EnvVars.masterEnvVars);
-
-                // check if on unix
-                if (isOnUnix) {
-                    return getMountPointHome(home);
-                } else {
-                    return home;
-                }
+                return getLocalHome(isOnUnix);
             }
 
             private static final long serialVersionUID = 1L;
         });
     }
 
+    /**
+     * Gets the home path of this runtime on the local machine
+     * @param isOnUnix True if run on unix
+     * @return Path to home
+     */
+    String getLocalHome(boolean isOnUnix) {
+        // replace macros in home path
+        String home = Util.replaceMacro(getHome(), EnvVars.masterEnvVars);
+
+        // check if on unix
+        if (isOnUnix) {
+            return getMountPointHome(home);
+        } else {
+            return home;
+        }
+    }
+
     /**
      * Convert network share home path to a mount point on linux slaves
      * @param home Network share
@@ -245,45 +421,222 @@ public class RuntimeInstallation
     private String getMountPointHome(String home) {
         // only smb shares
         if (home.startsWith("//")) {
+            // check cached translation of this machine
+            MountPoint cached = MOUNT_POINTS.get(home);
+            if (cached != null && cached.isValid()) {
+                return cached.localHome;
+            }
 
-            try {
-                // get mount list
-                ProcessBuilder builder = new ProcessBuilder("mount");
-                builder.redirectErrorStream(true);
-                Process process = builder.start();
+            String localHome = resolveMountPoint(home);
+            MOUNT_POINTS.put(home, new MountPoint(localHome, !localHome.equals(home)));
+            return localHome;
 
-                // wait for execution
-                if (process.waitFor() != 0) {
-                    return home;
-                }
+        } else {
+            return home;
+        }
+    }
 
-                // go through mount list
-                Scanner scanner = new Scanner(process.getInputStream());
-                while (scanner.hasNextLine()) {
-                    String line = scanner.nextLine();
+    /**
+     * Convert network share home path to a mount point with the mount list
+     * @param home Network share
+     * @return Local path to mount point
+     */
+    private static String resolveMountPoint(String home) {
+        try {
+            // get mount list
+            ProcessBuilder builder = new ProcessBuilder("mount");
+            builder.redirectErrorStream(true);
+            Process process = SpawnHelper.start(builder);
+
+            // wait for execution
+            if (process.waitFor() != 0) {
+                return home;
+            }
 
-                    // split mount line
-                    //  split[0] -> network name
-                    //  split[1] -> local mount point
-                    String[] split = line.split("( on | type )");
+            // go through mount list
+            Scanner scanner = new Scanner(process.getInputStream());
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine();
 
-                    // check if home starts with actual mount point
-                    if (split.length >= 2 && home.startsWith(split[0])) {
-                        // replace network path with local mount point
-                        return home.replace(split[0], split[1]);
-                    }
-                }
-                return home;
+                // split mount line
+                //  split[0] -> network name
+                //  split[1] -> local mount point
+                String[] split = line.split("( on | type )");
 
-            } catch (InterruptedException | IOException e) {
-                e.printStackTrace();
-                return home;
+                // check if home starts with actual mount point
+                if (split.length >= 2 && home.startsWith(split[0])) {
+                    // replace network path with local mount point
+                    return home.replace(split[0], split[1]);
+                }
             }
-        } else {
             return home;
+
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
+            return home;
+        }
+    }
+
+    /**
+     * Cached mount point translations of this machine (agent side)
+     */
+    private static final Map<String, MountPoint> MOUNT_POINTS = new ConcurrentHashMap<>();
+
+    /**
+     * Time in milliseconds a mount point translation is cached
+     * (filled by the warm up when the node comes online, so it lasts for hours)
+     */
+    private static final long MOUNT_POINT_CACHE_TIME =
+            Long.getLong(RuntimeInstallation.class.getName() + ".mountPointCacheTime", TimeUnit.HOURS.toMillis(12));
+
+    /**
+     * Time in milliseconds a share without mount point is cached (the share may be mounted later)
+     */
+    private static final long MISSING_MOUNT_POINT_CACHE_TIME =
+            Long.getLong(RuntimeInstallation.class.getName() + ".missingMountPointCacheTime", 60000L);
+
+    /**
+     * Time in seconds the warm up command may run before its process tree is terminated
+     */
+    private static final long WARM_UP_TIMEOUT =
+            Long.getLong(RuntimeInstallation.class.getName() + ".warmUpTimeout", 300L);
+
+    /**
+     * Cached mount point translation
+     */
+    private static final class MountPoint {
+        private final String localHome;
+        private final long timestamp = System.currentTimeMillis();
+        private final long cacheTime;
+
+        MountPoint(String localHome, boolean found) {
+            this.localHome = localHome;
+            this.cacheTime = found ? MOUNT_POINT_CACHE_TIME : MISSING_MOUNT_POINT_CACHE_TIME;
+        }
+
+        boolean isValid() {
+            return System.currentTimeMillis() - timestamp < cacheTime;
         }
     }
 
+    /**
+     * Compile the script on the node (if not already cached) and get the command line to run it
+     * @param channel Channel of node
+     * @param isOnUnix True if run on unix
+     * @param script Script to compile
+     * @param envVars Environment variables for the compiler
+     * @param listener Build listener for the compiler output
+     * @return Command line to run the compiled script
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public List<String> getCompiledCommand(VirtualChannel channel, final boolean isOnUnix, FilePath script,
+                                           final Map<String, String> envVars, final TaskListener listener)
+            throws IOException, InterruptedException {
+        final String scriptPath = script.getRemote();
+        return channel.call(new MasterToSlaveCallable<List<String>, IOException>() {
+            public List<String> call() throws IOException {
+                return compileLocal(new File(scriptPath), isOnUnix, envVars, listener);
+            }
+
+            private static final long serialVersionUID = 1L;
+        });
+    }
+
+    /**
+     * Compile the script on the local machine and get the command line to run it
+     * @param script Script to compile
+     * @param isOnUnix True if run on unix
+     * @param envVars Environment variables for the compiler
+     * @param listener Build listener for the compiler output
+     * @return Command line to run the compiled script
+     * @throws IOException
+     */
+    List<String> compileLocal(File script, boolean isOnUnix, Map<String, String> envVars,
+                              TaskListener listener) throws IOException {
+        String home = getLocalHome(isOnUnix);
+
+        File compiled;
+        try {
+            compiled = CompileCache.compile(
+                    parseCommand(home, compileCommand), script, envVars, listener);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Compilation interrupted");
+        }
+
+        Map<String, String> variables = new HashMap<>();
+        variables.put("SCRIPT", script.getPath());
+        variables.put("COMPILED", compiled.getPath());
+
+        ArrayList<String> cmd = new ArrayList<>();
+        for (String arg : parseCommand(home, runCompiledCommand)) {
+            cmd.add(Util.replaceMacro(arg, variables));
+        }
+        return cmd;
+    }
+
+    /**
+     * Run the warm up command on the node
+     * (the process tree is terminated if the command exceeds the warm up timeout)
+     * @param channel Channel of node
+     * @param isOnUnix True if run on unix
+     * @return Exit code of the warm up command
+     * @throws IOException if the command failed or timed out
+     * @throws InterruptedException
+     */
+    public int warmUp(VirtualChannel channel, final boolean isOnUnix) throws IOException, InterruptedException {
+        return channel.call(new MasterToSlaveCallable<Integer, IOException>() {
+            public Integer call() throws IOException {
+                String home = getLocalHome(isOnUnix);
+
+                // prepare environment variables
+                Map<String, String> envVars = new HashMap<>(EnvVars.masterEnvVars);
+                envVars.put("RUNTIME_HOME", home);
+                envVars.putAll(getEnvVarMap(envVars, isOnUnix));
+
+                ProcessBuilder builder = new ProcessBuilder(parseCommand(home, warmUpCommand));
+                builder.environment().putAll(envVars);
+                builder.redirectErrorStream(true);
+                Process process = SpawnHelper.start(builder);
+                ProcessWatchdog watchdog = ProcessWatchdog.watch(process,
+                        TimeUnit.SECONDS.toMillis(WARM_UP_TIMEOUT), 5000, TaskListener.NULL);
+                try {
+                    // output is not needed
+                    process.getOutputStream().close();
+                    IOUtils.copy(process.getInputStream(), new NullOutputStream());
+                    int exitCode = process.waitFor();
+                    if (watchdog.cancel()) {
+                        throw new IOException("Warm up command timed out after " + WARM_UP_TIMEOUT + " s");
+                    }
+                    return exitCode;
+
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Warm up interrupted");
+                } finally {
+                    watchdog.cancel();
+                    process.destroy();
+                }
+            }
+
+            private static final long serialVersionUID = 1L;
+        });
+    }
+
+    /**
+     * Parse a command relative to the home path
+     * @param home Home path of the runtime
+     * @param command Command relative to home
+     * @return Command line
+     */
+    static List<String> parseCommand(String home, String command) {
+        CommandLine cmdLine = CommandLine.parse(home + "/" + command);
+
+        ArrayList<String> cmd = new ArrayList<>();
+        cmd.add(cmdLine.getExecutable());
+        cmd.addAll(Arrays.asList(cmdLine.getArguments()));
+        return cmd;
+    }
+
     /**
      * Get the command line for the syntax check
      * @return Command line
@@ -318,9 +671,9 @@ public class RuntimeInstallation
      * @return RuntimeInstallation
      */
     public RuntimeInstallation forEnvironment(EnvVars environment) {
-        return new RuntimeInstallation(getName(), environment.expand(getHome()),
+        return copyOptions(new RuntimeInstallation(getName(), environment.expand(getHome()),
                 getWinExecutor(), getNixExecutor(), getCheckCommand(), getEnvVar(),
-                getEnvVarWin(), getEnvVarNix(), getProperties().toList());
+                getEnvVarWin(), getEnvVarNix(), getProperties().toList()));
     }
 
     /**
@@ -330,9 +683,26 @@ public class RuntimeInstallation
      * @return RuntimeInstallation
      */
     public RuntimeInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
-        return new RuntimeInstallation(getName(), translateFor(node, log),
+        return copyOptions(new RuntimeInstallation(getName(), translateFor(node, log),
                 getWinExecutor(), getNixExecutor(), getCheckCommand(), getEnvVar(),
-                getEnvVarWin(), getEnvVarNix(), getProperties().toList());
+                getEnvVarWin(), getEnvVarNix(), getProperties().toList()));
+    }
+
+    /**
+     * Copy the optional settings of this installation to the given one
+     * @param installation Installation to update
+     * @return Updated installation
+     */
+    protected RuntimeInstallation copyOptions(RuntimeInstallation installation) {
+        installation.compileCommand = compileCommand;
+        installation.runCompiledCommand = runCompiledCommand;
+        installation.warmUpCommand = warmUpCommand;
+        installation.versionCommand = versionCommand;
+        installation.schedulingPolicy = schedulingPolicy;
+        installation.responseFileArgument = responseFileArgument;
+        installation.responseFileSeparator = responseFileSeparator;
+        installation.responseFileThreshold = responseFileThreshold;
+        return installation;
     }
 
     /**
@@ -359,6 +729,22 @@ public class RuntimeInstallation
         public void setInstallations(RuntimeInstallation... installations) {
             super.setInstallations(installations);
             save();
+            RuntimeLabelFinder.scheduleRefresh();
+        }
+
+        public FormValidation doCheckSchedulingPolicy(@QueryParameter String value) {
+            return SchedulingPolicy.check(value);
+        }
+
+        public FormValidation doCheckResponseFileArgument(@QueryParameter String value) {
+            return ResponseFile.check(value);
+        }
+
+        public ListBoxModel doFillResponseFileSeparatorItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Newline", ResponseFile.NEWLINE);
+            items.add("NUL character", ResponseFile.NUL);
+            return items;
         }
 
     }
@@ -0,0 +1,194 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import hudson.model.labels.LabelFinder;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Labels <code>runtime:&lt;name&gt;</code> of the runtimes that are usable on a node.
+ *
+ * The labels are never computed while the labels of a node are requested.
+ * Nodes are probed if they come online and periodically, and the results are
+ * cached, so builds with a label expression like <code>runtime:python3</code>
+ * only land on nodes with this runtime.
+ */
+@Extension
+public class RuntimeLabelFinder extends LabelFinder {
+
+    private static final Logger LOGGER = Logger.getLogger(RuntimeLabelFinder.class.getName());
+
+    /**
+     * Prefix of the runtime labels
+     */
+    public static final String PREFIX = "runtime:";
+
+    /**
+     * True if the runtime labels are disabled
+     */
+    private static final boolean DISABLED = Boolean.getBoolean(RuntimeLabelFinder.class.getName() + ".disabled");
+
+    /**
+     * Refresh period of the labels in minutes
+     */
+    private static final long REFRESH_PERIOD = Long.getLong(RuntimeLabelFinder.class.getName() + ".refreshPeriod", 15L);
+
+    /**
+     * Runtime labels by node name
+     */
+    private static final ConcurrentMap<String, Set<LabelAtom>> LABELS = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public Collection<LabelAtom> findLabels(@Nonnull Node node) {
+        Set<LabelAtom> labels = LABELS.get(node.getNodeName());
+        return labels != null ? labels : Collections.<LabelAtom>emptySet();
+    }
+
+    /**
+     * Probe the runtimes of a node and update its labels
+     * @param node Node
+     * @throws InterruptedException
+     */
+    static void refresh(Node node) throws InterruptedException {
+        Computer computer = node.toComputer();
+        VirtualChannel channel = computer != null ? computer.getChannel() : null;
+        if (channel == null || computer.isOffline()) {
+            return;
+        }
+
+        Set<LabelAtom> labels = new HashSet<>();
+        try {
+            for (RuntimeProbe.Result result : RuntimeHealthReport.probe(
+                    node, channel, RuntimeWarmUp.getInstallations(), false)) {
+                if (result.isHealthy()) {
+                    labels.add(LabelAtom.get(PREFIX + result.getRuntime()));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // keep the labels of the last successful probe
+            LOGGER.log(Level.WARNING, "Failed to probe runtimes of " + node.getNodeName(), e);
+            return;
+        }
+
+        Set<LabelAtom> previous = LABELS.put(node.getNodeName(), Collections.unmodifiableSet(labels));
+        if (!labels.equals(previous)) {
+            // labels changed -> recompute the nodes of the labels and retry the queue
+            Set<LabelAtom> changed = new HashSet<>(labels);
+            if (previous != null) {
+                changed.addAll(previous);
+            }
+            for (Label label : changed) {
+                label.reset();
+            }
+            Jenkins.getInstance().getQueue().scheduleMaintenance();
+            LOGGER.log(Level.FINE, "Runtime labels of {0}: {1}", new Object[] {node.getNodeName(), labels});
+        }
+    }
+
+    /**
+     * Probe all nodes and drop the labels of removed nodes
+     * @throws InterruptedException
+     */
+    static void refreshAll() throws InterruptedException {
+        Jenkins jenkins = Jenkins.getInstance();
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(jenkins);
+        nodes.addAll(jenkins.getNodes());
+
+        Set<String> names = new HashSet<>();
+        for (Node node : nodes) {
+            names.add(node.getNodeName());
+            refresh(node);
+        }
+        LABELS.keySet().retainAll(names);
+    }
+
+    /**
+     * Probe all nodes in the background (e.g. after the runtimes were configured)
+     */
+    static void scheduleRefresh() {
+        if (DISABLED) {
+            return;
+        }
+        Timer.get().submit(new Runnable() {
+            public void run() {
+                try {
+                    refreshAll();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * Probe the runtimes of nodes that come online
+     */
+    @Extension
+    public static class OnlineListener extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            final Node node = c.getNode();
+            if (DISABLED || node == null) {
+                return;
+            }
+
+            Timer.get().submit(new Runnable() {
+                public void run() {
+                    try {
+                        refresh(node);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Periodic refresh of the runtime labels (e.g. after a runtime was installed or changed)
+     */
+    @Extension
+    public static class PeriodicRefresh extends AsyncPeriodicWork {
+
+        public PeriodicRefresh() {
+            super("Runtime label refresh");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(Math.max(1, REFRESH_PERIOD));
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws InterruptedException {
+            if (!DISABLED) {
+                refreshAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probe of a runtime installation on a node.
+ *
+ * Checks the executable, resolves the local home, gets the version output
+ * and measures the cold and warm startup latency of an empty script.
+ * The process tree of a command that exceeds the timeout is terminated on
+ * the node, as cancelling the remote call does not stop the command.
+ */
+public class RuntimeProbe extends MasterToSlaveCallable<RuntimeProbe.Result, IOException> {
+
+    /**
+     * Runtime installation (already translated for the node)
+     */
+    private final RuntimeInstallation installation;
+    /**
+     * True if run on unix
+     */
+    private final boolean isUnix;
+    /**
+     * True if the startup latency is measured
+     */
+    private final boolean measureLatency;
+    /**
+     * Timeout of the whole probe in milliseconds
+     */
+    private final long timeout;
+
+    /**
+     * Create a runtime probe
+     * @param installation Runtime installation
+     * @param isUnix True if run on unix
+     * @param measureLatency True if the startup latency is measured
+     * @param timeout Timeout of the probe in milliseconds
+     */
+    public RuntimeProbe(RuntimeInstallation installation, boolean isUnix, boolean measureLatency, long timeout) {
+        this.installation = installation;
+        this.isUnix = isUnix;
+        this.measureLatency = measureLatency;
+        this.timeout = timeout;
+    }
+
+    public Result call() throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        Result result = new Result();
+        result.home = installation.getLocalHome(isUnix);
+        result.executable = installation.getLocalExecutable(isUnix);
+
+        // prepare environment variables
+        Map<String, String> envVars = new HashMap<>(EnvVars.masterEnvVars);
+        envVars.put("RUNTIME_HOME", result.home);
+        envVars.putAll(installation.getEnvVarMap(envVars, isUnix));
+
+        try {
+            if (installation.getVersionCommand() != null) {
+                String version = run(RuntimeInstallation.parseCommand(
+                        result.home, installation.getVersionCommand()), envVars, deadline).trim();
+                result.version = version.length() > 200 ? version.substring(0, 200) : version;
+            }
+
+            if (measureLatency && result.executable != null) {
+                File script = File.createTempFile("probe", ".use");
+                try {
+                    List<String> cmd = new ArrayList<>();
+                    cmd.add(result.executable);
+                    cmd.add(script.getPath());
+
+                    long start = System.nanoTime();
+                    run(cmd, envVars, deadline);
+                    long cold = System.nanoTime();
+                    run(cmd, envVars, deadline);
+                    long warm = System.nanoTime();
+
+                    result.coldStartMillis = TimeUnit.NANOSECONDS.toMillis(cold - start);
+                    result.warmStartMillis = TimeUnit.NANOSECONDS.toMillis(warm - cold);
+                } finally {
+                    if (!script.delete()) {
+                        script.deleteOnExit();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Probe interrupted");
+        }
+        return result;
+    }
+
+    /**
+     * Run a command and get the output
+     * @param cmd Command line
+     * @param envVars Environment variables
+     * @param deadline End of the probe (milliseconds since epoch)
+     * @return Output of the command
+     * @throws IOException if the command failed or timed out
+     * @throws InterruptedException
+     */
+    private String run(List<String> cmd, Map<String, String> envVars, long deadline)
+            throws IOException, InterruptedException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new IOException("Probe timed out after " + timeout + " ms");
+        }
+
+        ProcessBuilder builder = new ProcessBuilder(cmd);
+        builder.environment().putAll(envVars);
+        builder.redirectErrorStream(true);
+        Process process = SpawnHelper.start(builder);
+        ProcessWatchdog watchdog = ProcessWatchdog.watch(process, remaining, 0, TaskListener.NULL);
+        try {
+            process.getOutputStream().close();
+            String output = IOUtils.toString(process.getInputStream(), Charset.defaultCharset().name());
+            process.waitFor();
+            if (watchdog.cancel()) {
+                throw new IOException("Probe timed out after " + timeout + " ms");
+            }
+            return output;
+        } finally {
+            watchdog.cancel();
+            process.destroy();
+        }
+    }
+
+    /**
+     * Result of a runtime probe
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static class Result implements Serializable {
+        private String node;
+        private String runtime;
+        private String home;
+        private String executable;
+        private String version;
+        private long coldStartMillis = -1;
+        private long warmStartMillis = -1;
+        private String error;
+
+        /**
+         * Create a failed result
+         * @param error Error message
+         * @return Result
+         */
+        public static Result failed(String error) {
+            Result result = new Result();
+            result.error = error;
+            return result;
+        }
+
+        /**
+         * Set the names of node and runtime
+         * @param node Name of the node
+         * @param runtime Name of the runtime
+         * @return This result
+         */
+        public Result withNames(String node, String runtime) {
+            this.node = node;
+            this.runtime = runtime;
+            return this;
+        }
+
+        @Exported
+        public String getNode() {
+            return node;
+        }
+
+        @Exported
+        public String getRuntime() {
+            return runtime;
+        }
+
+        @Exported
+        public String getHome() {
+            return home;
+        }
+
+        @Exported
+        public String getExecutable() {
+            return executable;
+        }
+
+        @Exported
+        public boolean isExecutablePresent() {
+            return executable != null;
+        }
+
+        @Exported
+        public String getVersion() {
+            return version;
+        }
+
+        @Exported
+        public long getColdStartMillis() {
+            return coldStartMillis;
+        }
+
+        @Exported
+        public long getWarmStartMillis() {
+            return warmStartMillis;
+        }
+
+        @Exported
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Check if the runtime is usable on the node
+         * @return True if healthy
+         */
+        @Exported
+        public boolean isHealthy() {
+            return error == null && executable != null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,377 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.Charsets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived runtime process on a node that executes several scripts.
+ *
+ * The session process reads requests from its standard input and keeps the
+ * interpreter state between them. Each request is a line
+ * <code>UNIV-SCRIPT &lt;length&gt; &lt;nonce&gt;</code> followed by the script
+ * (UTF-8, length in bytes). The process writes the output of the script and
+ * then <code>UNIV-STATUS &lt;nonce&gt; &lt;exit code&gt;</code> and a line
+ * break. The nonce is new for each request, so output of the script is never
+ * taken as status. The session is closed by closing the standard input.
+ *
+ * Session processes are registered in the {@link ProcessRegistry} of the node
+ * and terminated if the channel to the controller is closed.
+ */
+public final class RuntimeSession implements Serializable {
+
+    /**
+     * Request marker sent to the session process
+     */
+    public static final String SCRIPT_MARKER = "UNIV-SCRIPT ";
+
+    /**
+     * Status marker written by the session process
+     */
+    public static final String STATUS_MARKER = "UNIV-STATUS ";
+
+    /**
+     * Time in milliseconds the session process gets to exit after its input is closed
+     */
+    private static final long GRACE_PERIOD = Long.getLong(RuntimeSession.class.getName() + ".gracePeriod", 5000);
+
+    /**
+     * Time in seconds a script gets to report its status before the session is terminated
+     */
+    private static final long TIMEOUT = Long.getLong(RuntimeSession.class.getName() + ".timeout", 3600);
+
+    /**
+     * Running session processes by id (agent side)
+     */
+    private static final ConcurrentMap<String, Local> SESSIONS = new ConcurrentHashMap<>();
+
+    /**
+     * Channel with the listener that terminates the sessions (agent side)
+     */
+    private static Channel watchedChannel;
+
+    /**
+     * Id of the session
+     */
+    private final String id;
+
+    /**
+     * Name of the runtime
+     */
+    private final String runtimeName;
+
+    private RuntimeSession(String id, String runtimeName) {
+        this.id = id;
+        this.runtimeName = runtimeName;
+    }
+
+    public String getRuntimeName() {
+        return runtimeName;
+    }
+
+    /**
+     * Start a session process on a node
+     * @param runtimeName Name of the runtime
+     * @param cmd Command line of the session process
+     * @param envVars Environment variables of the process
+     * @param workspace Working directory of the process
+     * @return Session
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static RuntimeSession start(String runtimeName, List<String> cmd, Map<String, String> envVars,
+                                       FilePath workspace) throws IOException, InterruptedException {
+        RuntimeSession session = new RuntimeSession(UUID.randomUUID().toString(), runtimeName);
+        workspace.mkdirs();
+        workspace.act(new Start(session.id, cmd, envVars, workspace.getRemote()));
+        return session;
+    }
+
+    /**
+     * Execute a script in the session
+     * @param workspace Workspace on the node of the session
+     * @param script Script content
+     * @param listener Listener for the output of the script
+     * @return Exit code of the script
+     * @throws IOException if the session process is not running or exited
+     * @throws InterruptedException
+     */
+    public int execute(FilePath workspace, byte[] script, TaskListener listener)
+            throws IOException, InterruptedException {
+        try {
+            return workspace.act(new Execute(id, script, listener));
+        } catch (InterruptedException e) {
+            // the state of the protocol is unknown -> the session can not be used anymore
+            stop(workspace.getChannel(), listener);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the session process
+     * @param channel Channel of the node
+     * @param listener Listener for the report
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void stop(VirtualChannel channel, TaskListener listener) throws IOException, InterruptedException {
+        if (channel != null) {
+            channel.call(new Stop(id, listener));
+        }
+    }
+
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Terminate the sessions of the node if the channel to the controller is closed
+     */
+    private static synchronized void watchChannel() {
+        Channel channel = Channel.current();
+        if (channel == null || channel == watchedChannel) {
+            return;
+        }
+        watchedChannel = channel;
+        channel.addListener(new Channel.Listener() {
+            @Override
+            public void onClosed(Channel channel, IOException cause) {
+                for (String id : SESSIONS.keySet()) {
+                    Local session = SESSIONS.remove(id);
+                    if (session != null) {
+                        session.terminate(TaskListener.NULL);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Session process on the local machine
+     */
+    private static final class Local {
+        private final String id;
+        private final Process process;
+        private final OutputStream in;
+        private final InputStream out;
+
+        Local(String id, Process process) {
+            this.id = id;
+            this.process = process;
+            this.in = new BufferedOutputStream(process.getOutputStream());
+            this.out = new BufferedInputStream(process.getInputStream());
+        }
+
+        /**
+         * Send a script and forward the output until the status of the request
+         * @param script Script content
+         * @param listener Target of the output
+         * @return Exit code of the script
+         * @throws IOException if the session failed or did not report the status in time
+         */
+        synchronized int execute(byte[] script, TaskListener listener) throws IOException {
+            String nonce = UUID.randomUUID().toString();
+            String marker = STATUS_MARKER + nonce + " ";
+            in.write((SCRIPT_MARKER + script.length + " " + nonce + "\n").getBytes(Charsets.UTF_8));
+            in.write(script);
+            in.flush();
+
+            // terminate the session if the status is not reported in time
+            ProcessWatchdog watchdog = ProcessWatchdog.watch(process, TimeUnit.SECONDS.toMillis(TIMEOUT),
+                    GRACE_PERIOD, listener);
+            boolean timedOut;
+
+            PrintStream logger = listener.getLogger();
+            try {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                int b;
+                while ((b = out.read()) >= 0) {
+                    line.write(b);
+                    if (b != '\n') {
+                        continue;
+                    }
+
+                    // the status may follow output without line break
+                    String text = line.toString("UTF-8");
+                    int pos = text.indexOf(marker);
+                    if (pos >= 0) {
+                        if (pos > 0) {
+                            logger.println(text.substring(0, pos));
+                        }
+                        try {
+                            return Integer.parseInt(text.substring(pos + marker.length()).trim());
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid status line of runtime session: " + text.substring(pos).trim());
+                        }
+                    }
+                    line.writeTo(logger);
+                    line.reset();
+                }
+                line.writeTo(logger);
+                logger.flush();
+            } finally {
+                timedOut = watchdog.cancel();
+            }
+            if (timedOut) {
+                throw new IOException("Runtime session did not report the status in " + TIMEOUT + " seconds");
+            }
+            throw new IOException("Runtime session process exited without status");
+        }
+
+        /**
+         * Terminate the process tree of the session
+         * @param listener Listener for the report
+         */
+        void terminate(TaskListener listener) {
+            ProcessRegistry.unregister(id);
+            if (!isAlive(process)) {
+                return;
+            }
+            try {
+                ProcessRegistry.terminate(process, GRACE_PERIOD, listener);
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Start a session process on the node
+     */
+    private static final class Start extends MasterToSlaveCallable<Void, IOException> {
+        private final String id;
+        private final List<String> cmd;
+        private final Map<String, String> envVars;
+        private final String pwd;
+
+        Start(String id, List<String> cmd, Map<String, String> envVars, String pwd) {
+            this.id = id;
+            this.cmd = cmd;
+            this.envVars = new HashMap<>(envVars);
+            this.pwd = pwd;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            ProcessBuilder builder = new ProcessBuilder(cmd);
+            builder.environment().putAll(envVars);
+            builder.directory(new File(pwd));
+            builder.redirectErrorStream(true);
+            Process process = builder.start();
+            ProcessRegistry.register(id, process);
+            SESSIONS.put(id, new Local(id, process));
+            watchChannel();
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Execute a script in a session process on the node
+     */
+    private static final class Execute extends MasterToSlaveCallable<Integer, IOException> {
+        private final String id;
+        private final byte[] script;
+        private final TaskListener listener;
+
+        Execute(String id, byte[] script, TaskListener listener) {
+            this.id = id;
+            this.script = script;
+            this.listener = listener;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            Local session = SESSIONS.get(id);
+            if (session == null) {
+                throw new IOException("Runtime session " + id + " is not running");
+            }
+            try {
+                return session.execute(script, listener);
+            } catch (IOException e) {
+                // broken session -> remove it
+                if (SESSIONS.remove(id, session)) {
+                    session.terminate(listener);
+                }
+                throw e;
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Stop a session process on the node
+     */
+    private static final class Stop extends MasterToSlaveCallable<Void, IOException> {
+        private final String id;
+        private final TaskListener listener;
+
+        Stop(String id, TaskListener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            Local session = SESSIONS.remove(id);
+            if (session == null) {
+                return null;
+            }
+
+            try {
+                // closed input -> the session process should exit on its own
+                try {
+                    session.in.close();
+                } catch (IOException e) {
+                    // process already exited
+                }
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_PERIOD);
+                while (isAlive(session.process) && System.nanoTime() < deadline) {
+                    Thread.sleep(100);
+                }
+                if (isAlive(session.process)) {
+                    ProcessRegistry.terminate(session.process, GRACE_PERIOD, listener);
+                }
+            } catch (InterruptedException e) {
+                session.process.destroy();
+                throw new InterruptedIOException("Termination of runtime session interrupted");
+            } finally {
+                ProcessRegistry.unregister(id);
+            }
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.tools.ToolDescriptor;
+import hudson.tools.ToolInstallation;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warm up of all runtime installations if a node comes online.
+ *
+ * The runtime is translated for the node, the executable is checked (which
+ * fills the mount point cache of the node) and the optional warm up command
+ * is executed.
+ */
+@Extension
+public class RuntimeWarmUp extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(RuntimeWarmUp.class.getName());
+
+    /**
+     * True if the warm up is disabled
+     */
+    private static final boolean DISABLED = Boolean.getBoolean(RuntimeWarmUp.class.getName() + ".disabled");
+
+    /**
+     * Maximum number of concurrent warm ups
+     */
+    private static final int CONCURRENCY = Math.max(1,
+            Integer.getInteger(RuntimeWarmUp.class.getName() + ".concurrency", 4));
+
+    /**
+     * Executor for the warm ups
+     */
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(CONCURRENCY,
+            new NamingThreadFactory(new DaemonThreadFactory(), "RuntimeWarmUp"));
+
+    @Override
+    public void onOnline(Computer c, final TaskListener listener) {
+        if (DISABLED) {
+            return;
+        }
+
+        final Node node = c.getNode();
+        final VirtualChannel channel = c.getChannel();
+        if (node == null || channel == null) {
+            return;
+        }
+
+        for (final RuntimeInstallation installation : getInstallations()) {
+            EXECUTOR.submit(new Runnable() {
+                public void run() {
+                    warmUp(installation, node, channel, listener);
+                }
+            });
+        }
+    }
+
+    /**
+     * Warm up a runtime installation on a node
+     * @param installation Runtime installation
+     * @param node Node
+     * @param channel Channel of the node
+     * @param listener Listener of the node
+     */
+    private static void warmUp(RuntimeInstallation installation, Node node, VirtualChannel channel,
+                               TaskListener listener) {
+        long start = System.nanoTime();
+        try {
+            boolean isUnix = node.createLauncher(listener).isUnix();
+
+            // resolve the runtime for the node
+            RuntimeInstallation runtime = installation.forNode(node, listener);
+            long resolved = System.nanoTime();
+
+            // check the executable
+            if (runtime.getExecutable(channel, isUnix) == null) {
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime executable of "
+                        + runtime.getName() + " is missing on this node");
+                return;
+            }
+            long checked = System.nanoTime();
+
+            // run warm up command
+            int exitCode = 0;
+            if (runtime.getWarmUpCommand() != null) {
+                exitCode = runtime.warmUp(channel, isUnix);
+            }
+            long finished = System.nanoTime();
+
+            listener.getLogger().println(String.format(
+                    "[UNIVERSAL SCRIPT EXECUTOR] Warm up of %s finished in %d ms (resolve %d ms, check %d ms, command %d ms%s)",
+                    runtime.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(finished - start),
+                    TimeUnit.NANOSECONDS.toMillis(resolved - start),
+                    TimeUnit.NANOSECONDS.toMillis(checked - resolved),
+                    TimeUnit.NANOSECONDS.toMillis(finished - checked),
+                    exitCode != 0 ? ", exit code " + exitCode : ""));
+
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Warm up of " + installation.getName() + " on "
+                    + node.getNodeName() + " failed", e);
+        }
+    }
+
+    /**
+     * Get all runtime installations with an executable (script engines run in the agent JVM)
+     * @return List of runtime installations
+     */
+    static List<RuntimeInstallation> getInstallations() {
+        List<RuntimeInstallation> installations = new ArrayList<>();
+        for (ToolDescriptor<?> desc : ToolInstallation.all()) {
+            for (ToolInstallation inst : desc.getInstallations()) {
+                if (inst instanceof RuntimeInstallation && !(inst instanceof ScriptEngineRuntimeInstallation)) {
+                    installations.add((RuntimeInstallation) inst);
+                }
+            }
+        }
+        return installations;
+    }
+}
@@ -0,0 +1,360 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import hudson.util.FormValidation;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.lang.SystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Scheduling policy of a script execution on Linux nodes.
+ *
+ * The policy is configured as whitespace separated <code>key=value</code>
+ * pairs, e.g. <code>cpus=auto:2 nice=10 ionice=idle</code>, where the
+ * settings of a step override the settings of the runtime. It is applied by
+ * prefixing the command line with taskset, nice and ionice and a small shell
+ * wrapper that moves the process into its own cgroup v2 group of the
+ * execution below the group of the runtime in the slice. The group of the
+ * execution gets the limits and is removed after the execution.
+ *
+ * <ul>
+ *     <li><code>cpus</code> - CPU list (<code>0-3,6</code>) or <code>auto[:N]</code>
+ *     to partition the cores across concurrent executions</li>
+ *     <li><code>nice</code> - nice level (-20 to 19)</li>
+ *     <li><code>ionice</code> - IO class (<code>realtime</code>, <code>best-effort</code>, <code>idle</code>)</li>
+ *     <li><code>ionice.level</code> - IO priority of the class (0 to 7)</li>
+ *     <li><code>cgroup</code> - cgroup v2 slice below /sys/fs/cgroup</li>
+ *     <li><code>cpu.max</code> - CPU limit of an execution in cores (e.g. 1.5)</li>
+ *     <li><code>memory.max</code> - memory limit of an execution (e.g. 2G)</li>
+ * </ul>
+ */
+public class SchedulingPolicy implements Serializable {
+
+    private static final Logger LOGGER = Logger.getLogger(SchedulingPolicy.class.getName());
+
+    /**
+     * Value of cpus for the automatic core partition
+     */
+    static final String AUTO = "auto";
+
+    private static final List<String> KEYS = Arrays.asList(
+            "cpus", "nice", "ionice", "ionice.level", "cgroup", "cpu.max", "memory.max");
+
+    private static final Pattern CPU_LIST = Pattern.compile("\\d+(-\\d+)?(,\\d+(-\\d+)?)*");
+    private static final Pattern AUTO_CPUS = Pattern.compile("auto(:\\d+)?");
+    private static final Pattern SLICE = Pattern.compile("[A-Za-z0-9_.@-]+(/[A-Za-z0-9_.@-]+)*");
+    private static final Pattern MEMORY = Pattern.compile("max|\\d+[KMGT]?");
+
+    /**
+     * Root of the cgroup v2 hierarchy
+     */
+    private static final String CGROUP_ROOT = "/sys/fs/cgroup";
+
+    /**
+     * Shell wrapper to join the cgroup of the execution (arguments: directory, cpu.max, memory.max, command)
+     */
+    private static final String CGROUP_WRAPPER =
+            "d=$0 c=$1 m=$2; shift 2; p=${d%/*}; "
+            + "{ mkdir -p \"$d\"; echo '+cpu +memory' > \"${p%/*}/cgroup.subtree_control\"; "
+            + "echo '+cpu +memory' > \"$p/cgroup.subtree_control\"; } 2>/dev/null; "
+            + "if [ \"$c\" != - ]; then { echo \"$c\" > \"$d/cpu.max\"; } 2>/dev/null"
+            + " || echo \"[UNIVERSAL SCRIPT EXECUTOR] Failed to set $d/cpu.max\" >&2; fi; "
+            + "if [ \"$m\" != - ]; then { echo \"$m\" > \"$d/memory.max\"; } 2>/dev/null"
+            + " || echo \"[UNIVERSAL SCRIPT EXECUTOR] Failed to set $d/memory.max\" >&2; fi; "
+            + "{ echo $$ > \"$d/cgroup.procs\"; } 2>/dev/null"
+            + " || echo \"[UNIVERSAL SCRIPT EXECUTOR] Failed to join cgroup $d\" >&2; "
+            + "exec \"$@\"";
+
+    /**
+     * Settings of the policy
+     */
+    private final Map<String, String> settings;
+
+    private SchedulingPolicy(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Parse a scheduling policy
+     * @param policy Policy as key=value pairs (null or empty for none)
+     * @return Scheduling policy
+     * @throws IllegalArgumentException if the policy is invalid
+     */
+    public static SchedulingPolicy parse(String policy) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        policy = Util.fixEmptyAndTrim(policy);
+        if (policy != null) {
+            for (String pair : policy.split("\\s+")) {
+                int index = pair.indexOf('=');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("Expected key=value: " + pair);
+                }
+                String key = pair.substring(0, index).toLowerCase(Locale.ENGLISH);
+                String value = pair.substring(index + 1);
+                validate(key, value);
+                settings.put(key, value);
+            }
+        }
+        return new SchedulingPolicy(settings);
+    }
+
+    /**
+     * Check a scheduling policy in the configuration form
+     * @param policy Policy as key=value pairs
+     * @return Form validation
+     */
+    public static FormValidation check(String policy) {
+        try {
+            parse(policy);
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
+    private static void validate(String key, String value) {
+        boolean valid;
+        switch (key) {
+            case "cpus":
+                valid = CPU_LIST.matcher(value).matches() || AUTO_CPUS.matcher(value).matches();
+                break;
+            case "nice":
+                valid = isInt(value, -20, 19);
+                break;
+            case "ionice":
+                valid = getIoniceClass(value) != null;
+                break;
+            case "ionice.level":
+                valid = isInt(value, 0, 7);
+                break;
+            case "cgroup":
+                valid = SLICE.matcher(value).matches() && !value.contains("..");
+                break;
+            case "cpu.max":
+                valid = value.equals("max") || getCpuQuota(value) > 0;
+                break;
+            case "memory.max":
+                valid = MEMORY.matcher(value).matches();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown setting " + key + ", expected one of " + KEYS);
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    private static boolean isInt(String value, int min, int max) {
+        try {
+            int i = Integer.parseInt(value);
+            return i >= min && i <= max;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String getIoniceClass(String value) {
+        switch (value.toLowerCase(Locale.ENGLISH)) {
+            case "1":
+            case "realtime":
+                return "1";
+            case "2":
+            case "best-effort":
+                return "2";
+            case "3":
+            case "idle":
+                return "3";
+            default:
+                return null;
+        }
+    }
+
+    private static long getCpuQuota(String cores) {
+        try {
+            return (long) (Double.parseDouble(cores) * 100000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the policy of an execution
+     * @param runtimePolicy Policy of the runtime
+     * @param stepPolicy Policy of the step (overrides the runtime settings)
+     * @return Scheduling policy or null if empty
+     * @throws IllegalArgumentException if a policy is invalid
+     */
+    public static SchedulingPolicy of(String runtimePolicy, String stepPolicy) {
+        Map<String, String> settings = new LinkedHashMap<>(parse(runtimePolicy).settings);
+        settings.putAll(parse(stepPolicy).settings);
+        return settings.isEmpty() ? null : new SchedulingPolicy(settings);
+    }
+
+    /**
+     * Check if the cores are partitioned automatically
+     * @return True if cpus is auto
+     */
+    public boolean isAutoCpus() {
+        String cpus = settings.get("cpus");
+        return cpus != null && cpus.startsWith(AUTO);
+    }
+
+    /**
+     * Get the number of cores of the automatic partition
+     * @return Number of cores or 0 for an equal share per executor
+     */
+    public int getAutoCores() {
+        String cpus = settings.get("cpus");
+        int index = cpus != null ? cpus.indexOf(':') : -1;
+        return index > 0 ? Integer.parseInt(cpus.substring(index + 1)) : 0;
+    }
+
+    /**
+     * Get the cgroup of an execution
+     * @param runtimeName Name of the runtime (group below the slice)
+     * @param executionId Id of the execution (group below the runtime)
+     * @return Path of the cgroup or null if no slice is configured
+     */
+    public String getCgroup(String runtimeName, String executionId) {
+        String slice = settings.get("cgroup");
+        if (slice == null) {
+            return null;
+        }
+        return CGROUP_ROOT + "/" + slice + "/" + runtimeName.replaceAll("[^A-Za-z0-9_.-]", "_") + "/" + executionId;
+    }
+
+    /**
+     * Prefix the command line with the policy
+     * @param command Command line
+     * @param cpus Allocated CPU list for the automatic partition or null
+     * @param cgroup Cgroup of the execution (see {@link #getCgroup}) or null
+     * @return Command line with the policy applied
+     */
+    public List<String> apply(List<String> command, String cpus, String cgroup) {
+        List<String> cmd = new ArrayList<>();
+
+        if (cgroup != null) {
+            String cpuMax = settings.get("cpu.max");
+            String memoryMax = settings.get("memory.max");
+            cmd.add("sh");
+            cmd.add("-c");
+            cmd.add(CGROUP_WRAPPER);
+            cmd.add(cgroup);
+            cmd.add(cpuMax == null ? "-" : cpuMax.equals("max") ? "max 100000" : getCpuQuota(cpuMax) + " 100000");
+            cmd.add(memoryMax == null ? "-" : memoryMax);
+        }
+
+        if (!isAutoCpus() && settings.containsKey("cpus")) {
+            cpus = settings.get("cpus");
+        }
+        if (cpus != null) {
+            cmd.addAll(Arrays.asList("taskset", "-c", cpus));
+        }
+
+        String nice = settings.get("nice");
+        if (nice != null) {
+            cmd.addAll(Arrays.asList("nice", "-n", nice));
+        }
+
+        String ionice = settings.get("ionice");
+        if (ionice != null) {
+            String ioClass = getIoniceClass(ionice);
+            cmd.addAll(Arrays.asList("ionice", "-c", ioClass));
+            String level = settings.get("ionice.level");
+            if (level != null && !"3".equals(ioClass)) {
+                cmd.addAll(Arrays.asList("-n", level));
+            }
+        }
+
+        cmd.addAll(command);
+        return cmd;
+    }
+
+    /**
+     * Check if scheduling policies are supported on a node (taskset, ionice and cgroup v2 are Linux only)
+     * @param channel Channel of the node
+     * @return True if the node runs Linux
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static boolean isSupported(VirtualChannel channel) throws IOException, InterruptedException {
+        return channel != null && channel.call(new IsLinux());
+    }
+
+    /**
+     * Remove the cgroup of an execution on a node
+     * @param channel Channel of the node
+     * @param cgroup Path of the cgroup
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void removeCgroup(VirtualChannel channel, String cgroup) throws IOException, InterruptedException {
+        if (channel != null) {
+            channel.call(new RemoveCgroup(cgroup));
+        }
+    }
+
+    /**
+     * Remove the cgroup of an execution on the local machine
+     * (fails silently if processes of the execution are still running)
+     * @param cgroup Path of the cgroup
+     */
+    static void removeCgroupLocal(String cgroup) {
+        File dir = new File(cgroup);
+        if (dir.isDirectory() && !dir.delete()) {
+            LOGGER.log(Level.FINE, "Unable to remove cgroup {0}", cgroup);
+        }
+    }
+
+    private static final class IsLinux extends MasterToSlaveCallable<Boolean, IOException> {
+        @Override
+        public Boolean call() {
+            return SystemUtils.IS_OS_LINUX;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class RemoveCgroup extends MasterToSlaveCallable<Void, IOException> {
+        private final String cgroup;
+
+        RemoveCgroup(String cgroup) {
+            this.cgroup = cgroup;
+        }
+
+        @Override
+        public Void call() {
+            removeCgroupLocal(cgroup);
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,288 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.Charsets;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution of a script by a JSR-223 script engine in the JVM of the node.
+ *
+ * Compiled scripts are cached by engine and content hash. Each execution
+ * gets its own script context with the bindings <code>env</code> (map of
+ * the environment variables) and <code>workspace</code> (path), and its
+ * output is written to the build log. The script runs in its own thread
+ * that is interrupted if the timeout or the CPU time limit is exceeded.
+ *
+ * Threads are never forcibly stopped, as this may leave the remoting streams
+ * and the shared compiled script in a broken state. A script that ignores
+ * the interrupt keeps running in the background until it finishes; the
+ * execution returns, its output is discarded and its compiled script is
+ * no longer shared.
+ */
+public final class ScriptEngineExecution extends MasterToSlaveCallable<Integer, IOException> {
+
+    /**
+     * Exit code of a script that exceeded a limit
+     */
+    public static final int LIMIT_EXCEEDED = 124;
+
+    /**
+     * Time in milliseconds a script gets to react on the interrupt before it is abandoned
+     */
+    private static final long GRACE_PERIOD = 1000;
+
+    /**
+     * Compiled scripts by engine and content hash
+     */
+    private static final ConcurrentMap<String, SoftReference<CompiledScript>> COMPILED = new ConcurrentHashMap<>();
+
+    private final String engineName;
+    private final String script;
+    private final String hash;
+    private final Map<String, String> envVars;
+    private final String workspace;
+    private final TaskListener listener;
+    private final long timeout;
+    private final long cpuTimeLimit;
+
+    /**
+     * Create an execution
+     * @param engineName Name of the script engine
+     * @param script Script content
+     * @param envVars Environment variables (binding <code>env</code>)
+     * @param workspace Workspace path (binding <code>workspace</code>)
+     * @param listener Listener for the output
+     * @param timeout Timeout in seconds (0 = none)
+     * @param cpuTimeLimit CPU time limit in seconds (0 = none)
+     */
+    public ScriptEngineExecution(String engineName, String script, Map<String, String> envVars, String workspace,
+                                 TaskListener listener, long timeout, long cpuTimeLimit) {
+        this.engineName = engineName;
+        this.script = script;
+        this.hash = ScriptStore.hash(script);
+        this.envVars = new HashMap<>(envVars);
+        this.workspace = workspace;
+        this.listener = listener;
+        this.timeout = timeout;
+        this.cpuTimeLimit = cpuTimeLimit;
+    }
+
+    /**
+     * Get a script engine by name
+     * @param engineName Name of the engine
+     * @return Script engine
+     * @throws IOException if the engine is not available
+     */
+    static ScriptEngine getEngine(String engineName) throws IOException {
+        ScriptEngine engine = new ScriptEngineManager(ScriptEngineExecution.class.getClassLoader())
+                .getEngineByName(engineName);
+        if (engine == null) {
+            throw new IOException("Script engine " + engineName + " is not available on this node");
+        }
+        return engine;
+    }
+
+    @Override
+    public Integer call() throws IOException {
+        final CompiledScript compiled;
+        try {
+            compiled = compile();
+        } catch (ScriptException e) {
+            listener.error("[UNIVERSAL SCRIPT EXECUTOR - ERROR] " + e.getMessage());
+            return 1;
+        }
+        final ScriptEngine engine = compiled != null ? compiled.getEngine() : getEngine(engineName);
+
+        // isolated context of the execution
+        DetachableWriter target = new DetachableWriter(new OutputStreamWriter(listener.getLogger(), Charsets.UTF_8));
+        PrintWriter out = new PrintWriter(target, true);
+        final ScriptContext context = new SimpleScriptContext();
+        context.setBindings(new SimpleBindings(), ScriptContext.ENGINE_SCOPE);
+        context.setAttribute("env", Collections.unmodifiableMap(envVars), ScriptContext.ENGINE_SCOPE);
+        context.setAttribute("workspace", workspace, ScriptContext.ENGINE_SCOPE);
+        context.setWriter(out);
+        context.setErrorWriter(out);
+
+        final Object[] result = new Object[1];
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread("Script engine " + engineName + " " + hash.substring(0, 12)) {
+            @Override
+            public void run() {
+                try {
+                    if (compiled == null) {
+                        result[0] = engine.eval(script, context);
+                    } else if (engine.getFactory().getParameter("THREADING") == null) {
+                        // engine is not thread safe -> one execution of the compiled script at a time
+                        synchronized (compiled) {
+                            result[0] = compiled.eval(context);
+                        }
+                    } else {
+                        result[0] = compiled.eval(context);
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            String exceeded = await(thread);
+            out.flush();
+            if (exceeded != null) {
+                listener.error("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Script exceeded the " + exceeded);
+                if (!stop(thread, compiled, target)) {
+                    listener.error("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Script does not react on the interrupt "
+                            + "and keeps running in the background until it finishes");
+                }
+                return LIMIT_EXCEEDED;
+            }
+        } catch (InterruptedException e) {
+            stop(thread, compiled, target);
+            throw new InterruptedIOException("Script engine execution interrupted");
+        }
+
+        if (failure[0] != null) {
+            listener.error("[UNIVERSAL SCRIPT EXECUTOR - ERROR] " + failure[0].getMessage());
+            return 1;
+        }
+        return result[0] instanceof Number ? ((Number) result[0]).intValue() : 0;
+    }
+
+    /**
+     * Get the compiled script from the cache or compile it
+     * @return Compiled script or null if the engine is not able to compile
+     * @throws IOException if the engine is not available
+     * @throws ScriptException if the script is invalid
+     */
+    private CompiledScript compile() throws IOException, ScriptException {
+        String key = engineName + ":" + hash;
+        SoftReference<CompiledScript> ref = COMPILED.get(key);
+        CompiledScript compiled = ref != null ? ref.get() : null;
+        if (compiled != null) {
+            return compiled;
+        }
+
+        ScriptEngine engine = getEngine(engineName);
+        if (!(engine instanceof Compilable)) {
+            return null;
+        }
+        compiled = ((Compilable) engine).compile(script);
+        COMPILED.put(key, new SoftReference<>(compiled));
+        return compiled;
+    }
+
+    /**
+     * Wait for the script thread and enforce the limits
+     * @param thread Script thread
+     * @return Description of the exceeded limit or null
+     * @throws InterruptedException
+     */
+    private String await(Thread thread) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = cpuTimeLimit > 0 && threads.isThreadCpuTimeSupported();
+        long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout) : Long.MAX_VALUE;
+
+        while (thread.isAlive()) {
+            thread.join(cpuTime ? 50 : Math.max(1, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            if (!thread.isAlive()) {
+                break;
+            }
+            if (System.nanoTime() >= deadline) {
+                return "timeout of " + timeout + " s";
+            }
+            if (cpuTime && threads.getThreadCpuTime(thread.getId()) > TimeUnit.SECONDS.toNanos(cpuTimeLimit)) {
+                return "CPU time limit of " + cpuTimeLimit + " s";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Interrupt the script thread and abandon it if it does not react
+     * @param thread Script thread
+     * @param compiled Compiled script of the thread or null
+     * @param output Output of the script
+     * @return True if the thread exited
+     */
+    private boolean stop(Thread thread, CompiledScript compiled, DetachableWriter output) {
+        thread.interrupt();
+        try {
+            thread.join(GRACE_PERIOD);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!thread.isAlive()) {
+            return true;
+        }
+
+        // the thread may hold the monitor of the compiled script -> compile again for later executions
+        output.detach();
+        if (compiled != null) {
+            COMPILED.remove(engineName + ":" + hash);
+        }
+        return false;
+    }
+
+    /**
+     * Writer that drops the output after the script was abandoned
+     */
+    private static final class DetachableWriter extends Writer {
+        private volatile Writer target;
+
+        DetachableWriter(Writer target) {
+            this.target = target;
+        }
+
+        void detach() {
+            target = null;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            Writer writer = target;
+            if (writer != null) {
+                writer.write(buffer, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            Writer writer = target;
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.tools.ToolDescriptor;
+import hudson.tools.ToolProperty;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runtime that executes scripts with a JSR-223 script engine in the JVM of
+ * the node instead of starting a process (see {@link ScriptEngineExecution}).
+ */
+public class ScriptEngineRuntimeInstallation extends RuntimeInstallation {
+
+    /**
+     * Name of the script engine (e.g. javascript)
+     */
+    private final String engineName;
+
+    /**
+     * Timeout of an execution in seconds (0 = none)
+     */
+    private int timeout = 0;
+
+    /**
+     * CPU time limit of an execution in seconds (0 = none)
+     */
+    private int cpuTimeLimit = 0;
+
+    /**
+     * Create script engine runtime
+     * @param name Name of the installation
+     * @param engineName Name of the script engine
+     * @param properties Tool installation properties
+     */
+    @DataBoundConstructor
+    public ScriptEngineRuntimeInstallation(String name, String engineName,
+                                           List<? extends ToolProperty<?>> properties) {
+        super(name, "", "", "", "", "", "", "", properties);
+        this.engineName = Util.fixEmptyAndTrim(engineName);
+    }
+
+    public String getEngineName() {
+        return engineName;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = Math.max(timeout, 0);
+    }
+
+    public int getCpuTimeLimit() {
+        return cpuTimeLimit;
+    }
+
+    @DataBoundSetter
+    public void setCpuTimeLimit(int cpuTimeLimit) {
+        this.cpuTimeLimit = Math.max(cpuTimeLimit, 0);
+    }
+
+    @Override
+    public String getExecutable(VirtualChannel channel, boolean isOnUnix) throws IOException {
+        throw new IOException("Runtime " + getName() + " is executed by a script engine and has no executable");
+    }
+
+    @Override
+    public ScriptEngineRuntimeInstallation forEnvironment(EnvVars environment) {
+        return copy();
+    }
+
+    @Override
+    public ScriptEngineRuntimeInstallation forNode(Node node, TaskListener log) {
+        return copy();
+    }
+
+    private ScriptEngineRuntimeInstallation copy() {
+        ScriptEngineRuntimeInstallation installation =
+                new ScriptEngineRuntimeInstallation(getName(), engineName, getProperties().toList());
+        installation.timeout = timeout;
+        installation.cpuTimeLimit = cpuTimeLimit;
+        return installation;
+    }
+
+    /**
+     * Tool description for script engine runtimes
+     */
+    @Extension
+    public static class DescriptorImpl extends ToolDescriptor<ScriptEngineRuntimeInstallation> {
+
+        public DescriptorImpl() {
+            load();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Universal Script Executor (JSR-223 script engine)";
+        }
+
+        @Override
+        public void setInstallations(ScriptEngineRuntimeInstallation... installations) {
+            super.setInstallations(installations);
+            save();
+        }
+
+        public FormValidation doCheckEngineName(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.error("Script engine is required");
+            }
+
+            // engines of the controller (nodes may provide other engines)
+            List<String> names = new ArrayList<>();
+            for (ScriptEngineFactory factory : new ScriptEngineManager(getClass().getClassLoader()).getEngineFactories()) {
+                if (factory.getNames().contains(value.trim())) {
+                    return FormValidation.ok(factory.getEngineName() + " " + factory.getEngineVersion());
+                }
+                names.addAll(factory.getNames());
+            }
+            return FormValidation.warning("Script engine is not available on the controller, known engines: " + names);
+        }
+    }
+}
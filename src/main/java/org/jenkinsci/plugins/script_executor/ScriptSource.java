@@ -6,8 +6,15 @@ import hudson.FilePath;
 import hudson.model.*;
 import jenkins.model.Jenkins;
 
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
 
 /**
  * Base interface for script sources.
@@ -33,6 +40,95 @@ public abstract class ScriptSource implements Describable<ScriptSource> {
      */
     public abstract InputStream getScriptStream(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException;
 
+    /**
+     * Get the script for an execution plan which is executed on the node in a single call.
+     * The default implementation creates the script file on the node and refers to it.
+     *
+     * @param projectWorkspace Project workspace to create tmp file
+     * @param build            - needed to obtain environment variables
+     * @param listener         - build listener needed by Environment
+     * @return Script of the execution plan
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ExecutionPlan.Script getPlanScript(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+        return ExecutionPlan.Script.reference(getScriptFile(projectWorkspace, build, listener).getRemote());
+    }
+
+    /**
+     * Get the script file with expanded <code>${VAR}</code> macros.
+     * The default implementation expands the script stream while it is written to the node.
+     *
+     * @param projectWorkspace Project workspace to create tmp file
+     * @param build            - needed to obtain environment variables
+     * @param listener         - build listener needed by Environment
+     * @param variables        Values of the macros
+     * @return Path to the temporary script file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public FilePath getExpandedScriptFile(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener,
+                                          Map<String, String> variables) throws IOException, InterruptedException {
+        return writeTemplate(projectWorkspace, getTemplate(projectWorkspace, build, listener), variables);
+    }
+
+    /**
+     * Get the parsed template of the script.
+     * The default implementation loads the script stream and caches the template by its hash.
+     *
+     * @param projectWorkspace Project workspace
+     * @param build            - needed to obtain environment variables
+     * @param listener         - build listener needed by Environment
+     * @return Parsed template
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    ScriptTemplate getTemplate(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener)
+            throws IOException, InterruptedException {
+        String content;
+        try (InputStream in = getScriptStream(projectWorkspace, build, listener)) {
+            content = IOUtils.toString(in, Charsets.UTF_8);
+        }
+        return ScriptTemplate.get(ScriptStore.hash(content), content);
+    }
+
+    /**
+     * Get the script with expanded <code>${VAR}</code> macros for an execution plan.
+     * The default implementation creates the expanded script file on the node and refers to it.
+     *
+     * @param projectWorkspace Project workspace to create tmp file
+     * @param build            - needed to obtain environment variables
+     * @param listener         - build listener needed by Environment
+     * @param variables        Values of the macros
+     * @return Script of the execution plan
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ExecutionPlan.Script getExpandedPlanScript(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener,
+                                                      Map<String, String> variables) throws IOException, InterruptedException {
+        return ExecutionPlan.Script.temporaryReference(
+                getExpandedScriptFile(projectWorkspace, build, listener, variables).getRemote());
+    }
+
+    /**
+     * Write an expanded template to a temporary file in the workspace (streamed to the node)
+     * @param projectWorkspace Project workspace
+     * @param template Parsed template
+     * @param variables Values of the macros
+     * @return Path to the temporary script file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    static FilePath writeTemplate(FilePath projectWorkspace, ScriptTemplate template,
+                                  Map<String, String> variables) throws IOException, InterruptedException {
+        projectWorkspace.mkdirs();
+        FilePath file = projectWorkspace.createTempFile("jenkins", ".use");
+        try (Writer out = new OutputStreamWriter(new BufferedOutputStream(file.write()), Charsets.UTF_8)) {
+            template.expand(variables, out);
+        }
+        return file;
+    }
+
     /**
      * In the end, every script is a file...
      *
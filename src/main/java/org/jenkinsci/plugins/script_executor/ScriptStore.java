@@ -0,0 +1,228 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractItem;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Store of inline scripts on the controller.
+ *
+ * Scripts are stored once by the SHA-256 of their content under
+ * $JENKINS_HOME/universal-script-store, so jobs only have to keep the hash.
+ * Loaded scripts are shared between all jobs and held by soft references.
+ * Scripts that are not referenced by the configuration of any item are
+ * removed by a daily garbage collection once they are older than a day.
+ */
+public final class ScriptStore {
+
+    /**
+     * Pattern of a valid script hash
+     */
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    /**
+     * Loaded scripts by hash
+     */
+    private static final ConcurrentMap<String, SoftReference<String>> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Minimum age in hours of an unreferenced script before it is removed
+     * (a new script is stored before the configuration is saved)
+     */
+    private static final long MIN_AGE = Long.getLong(ScriptStore.class.getName() + ".minAge", 24L);
+
+    private ScriptStore() {
+    }
+
+    /**
+     * Get the root directory of the store
+     * @return Store directory
+     */
+    static File getRoot() {
+        return new File(Jenkins.getInstance().getRootDir(), "universal-script-store");
+    }
+
+    /**
+     * Get the hash of a script
+     * @param content Script content
+     * @return SHA-256 of the script as hex string
+     */
+    public static String hash(String content) {
+        MessageDigest digest = CompileCache.getDigest();
+        return Util.toHexString(digest.digest(content.getBytes(Charsets.UTF_8)));
+    }
+
+    /**
+     * Add a script to the store
+     * @param content Script content
+     * @return Hash of the script
+     * @throws IOException
+     */
+    public static String put(String content) throws IOException {
+        String hash = hash(content);
+        File file = getFile(hash);
+
+        if (!file.isFile()) {
+            File root = getRoot();
+            if (!root.isDirectory() && !root.mkdirs()) {
+                throw new IOException("Failed to create script store " + root);
+            }
+
+            // write to temporary file -> readers never see a partial script
+            File tmp = File.createTempFile(hash, ".tmp", root);
+            try {
+                FileUtils.writeStringToFile(tmp, content, Charsets.UTF_8);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                if (tmp.exists() && !tmp.delete()) {
+                    tmp.deleteOnExit();
+                }
+            }
+        }
+        return intern(hash, content);
+    }
+
+    /**
+     * Get a script from the store
+     * @param hash Hash of the script
+     * @return Script content
+     * @throws IOException if the script is not in the store
+     */
+    public static String get(String hash) throws IOException {
+        SoftReference<String> ref = CACHE.get(hash);
+        String content = ref != null ? ref.get() : null;
+        if (content != null) {
+            return content;
+        }
+
+        File file = getFile(hash);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("Script " + hash + " is missing in the script store " + getRoot());
+        }
+        content = FileUtils.readFileToString(file, Charsets.UTF_8);
+        intern(hash, content);
+        return getShared(hash, content);
+    }
+
+    /**
+     * Get the file of a script
+     * @param hash Hash of the script
+     * @return Script file
+     * @throws IOException if the hash is invalid
+     */
+    private static File getFile(String hash) throws IOException {
+        if (hash == null || !HASH.matcher(hash).matches()) {
+            throw new IOException("Invalid script hash " + hash);
+        }
+        return new File(getRoot(), hash + ".use");
+    }
+
+    /**
+     * Add a loaded script to the cache
+     * @param hash Hash of the script
+     * @param content Script content
+     * @return Hash of the script
+     */
+    private static String intern(String hash, String content) {
+        SoftReference<String> ref = CACHE.get(hash);
+        if (ref == null || ref.get() == null) {
+            CACHE.put(hash, new SoftReference<>(content));
+        }
+        return hash;
+    }
+
+    /**
+     * Remove the scripts that are not referenced by the configuration of any item.
+     * The configuration files are searched for the hashes, so scripts of
+     * builders nested in other steps are kept as well.
+     * @return Number of removed scripts
+     * @throws IOException
+     */
+    static int collectGarbage() throws IOException {
+        File[] files = getRoot().listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        Set<String> referenced = new HashSet<>();
+        Pattern reference = Pattern.compile("\\b[0-9a-f]{64}\\b");
+        for (AbstractItem item : Jenkins.getInstance().getAllItems(AbstractItem.class)) {
+            File config = item.getConfigFile().getFile();
+            if (!config.isFile()) {
+                continue;
+            }
+            Matcher matcher = reference.matcher(FileUtils.readFileToString(config, Charsets.UTF_8));
+            while (matcher.find()) {
+                referenced.add(matcher.group());
+            }
+        }
+
+        int removed = 0;
+        long minModified = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(MIN_AGE);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".use") || file.lastModified() > minModified) {
+                continue;
+            }
+            String hash = name.substring(0, name.length() - ".use".length());
+            if (HASH.matcher(hash).matches() && !referenced.contains(hash) && file.delete()) {
+                CACHE.remove(hash);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Daily removal of unreferenced scripts
+     */
+    @Extension
+    public static class GarbageCollector extends AsyncPeriodicWork {
+
+        public GarbageCollector() {
+            super("Universal script store garbage collection");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.DAYS.toMillis(1);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException {
+            listener.getLogger().println("Removed " + collectGarbage() + " unreferenced scripts");
+        }
+    }
+
+    /**
+     * Get the shared instance of a script
+     * @param hash Hash of the script
+     * @param content Script content as fallback
+     * @return Script content
+     */
+    private static String getShared(String hash, String content) {
+        SoftReference<String> ref = CACHE.get(hash);
+        String shared = ref != null ? ref.get() : null;
+        return shared != null ? shared : content;
+    }
+}
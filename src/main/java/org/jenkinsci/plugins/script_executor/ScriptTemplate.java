@@ -0,0 +1,208 @@
+package org.jenkinsci.plugins.script_executor;
+
+import org.apache.commons.io.Charsets;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Script content with <code>${VAR}</code> macros.
+ *
+ * The content is parsed once into a list of segments (offsets into the
+ * content and variable names) that is cached by the hash of the content.
+ * Callers that know the hash look up the cache before they load the content,
+ * entries of collected templates are removed with the next access.
+ * Expanding writes the segments in a single pass to a writer, so the
+ * expanded script is never held in memory. <code>$${VAR}</code> is written
+ * as <code>${VAR}</code> and undefined variables are kept as they are.
+ */
+public final class ScriptTemplate {
+
+    /**
+     * Parsed templates by content hash
+     */
+    private static final Map<String, Entry> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Collected templates of the cache
+     */
+    private static final ReferenceQueue<ScriptTemplate> COLLECTED = new ReferenceQueue<>();
+
+    /**
+     * Template content
+     */
+    private final String content;
+    /**
+     * Start and end offsets of the segments in the content
+     */
+    private final int[] bounds;
+    /**
+     * Variable name of each segment (null for a literal segment)
+     */
+    private final String[] variables;
+
+    private ScriptTemplate(String content, int[] bounds, String[] variables) {
+        this.content = content;
+        this.bounds = bounds;
+        this.variables = variables;
+    }
+
+    /**
+     * Get the cached template of a script
+     * @param hash Hash of the content
+     * @return Parsed template or null if not cached
+     */
+    public static ScriptTemplate getCached(String hash) {
+        expunge();
+        Entry entry = CACHE.get(hash);
+        return entry != null ? entry.get() : null;
+    }
+
+    /**
+     * Get the parsed template of a script (cached by hash)
+     * @param hash Hash of the content
+     * @param content Script content
+     * @return Parsed template
+     */
+    public static ScriptTemplate get(String hash, String content) {
+        ScriptTemplate template = getCached(hash);
+        if (template == null) {
+            template = parse(content);
+            CACHE.put(hash, new Entry(hash, template));
+        }
+        return template;
+    }
+
+    /**
+     * Get the parsed template of a script (cached by hash, decoded only if not cached)
+     * @param hash Hash of the content
+     * @param content Script content (UTF-8)
+     * @return Parsed template
+     */
+    public static ScriptTemplate get(String hash, byte[] content) {
+        ScriptTemplate template = getCached(hash);
+        return template != null ? template : get(hash, new String(content, Charsets.UTF_8));
+    }
+
+    /**
+     * Remove the entries of collected templates
+     */
+    private static void expunge() {
+        Reference<? extends ScriptTemplate> ref;
+        while ((ref = COLLECTED.poll()) != null) {
+            Entry entry = (Entry) ref;
+            CACHE.remove(entry.hash, entry);
+        }
+    }
+
+    /**
+     * Cache entry that knows its key
+     */
+    private static final class Entry extends SoftReference<ScriptTemplate> {
+        private final String hash;
+
+        Entry(String hash, ScriptTemplate template) {
+            super(template, COLLECTED);
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Parse the content of a script
+     * @param content Script content
+     * @return Parsed template
+     */
+    static ScriptTemplate parse(String content) {
+        List<Integer> bounds = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+
+        int literal = 0;
+        int i = content.indexOf('$');
+        while (i >= 0) {
+            if (content.startsWith("$${", i)) {
+                // escaped macro -> keep "${"
+                addSegment(bounds, variables, literal, i, null);
+                literal = i + 1;
+                i = content.indexOf('$', i + 3);
+                continue;
+            }
+
+            int end = content.startsWith("${", i) ? content.indexOf('}', i + 2) : -1;
+            if (end > i + 2 && isName(content, i + 2, end)) {
+                addSegment(bounds, variables, literal, i, null);
+                addSegment(bounds, variables, i, end + 1, content.substring(i + 2, end));
+                literal = end + 1;
+                i = content.indexOf('$', end + 1);
+            } else {
+                i = content.indexOf('$', i + 1);
+            }
+        }
+        addSegment(bounds, variables, literal, content.length(), null);
+
+        int[] boundArray = new int[bounds.size()];
+        for (int j = 0; j < boundArray.length; j++) {
+            boundArray[j] = bounds.get(j);
+        }
+        return new ScriptTemplate(content, boundArray, variables.toArray(new String[variables.size()]));
+    }
+
+    private static void addSegment(List<Integer> bounds, List<String> variables, int start, int end, String variable) {
+        if (start < end) {
+            bounds.add(start);
+            bounds.add(end);
+            variables.add(variable);
+        }
+    }
+
+    private static boolean isName(String content, int start, int end) {
+        if (!Character.isJavaIdentifierStart(content.charAt(start))) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            char c = content.charAt(i);
+            if (!Character.isJavaIdentifierPart(c) && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of macros in the template
+     * @return Number of macros
+     */
+    public int getMacroCount() {
+        int count = 0;
+        for (String variable : variables) {
+            if (variable != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the expanded template
+     * @param values Values of the variables
+     * @param out Target writer
+     * @throws IOException
+     */
+    public void expand(Map<String, String> values, Writer out) throws IOException {
+        for (int i = 0; i < variables.length; i++) {
+            String value = variables[i] != null ? values.get(variables[i]) : null;
+            if (value != null) {
+                out.write(value);
+            } else {
+                out.write(content, bounds[2 * i], bounds[2 * i + 1] - bounds[2 * i]);
+            }
+        }
+        out.flush();
+    }
+}
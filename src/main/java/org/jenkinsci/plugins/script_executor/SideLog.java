@@ -0,0 +1,446 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.TaskListener;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Side log for the output of a script execution.
+ *
+ * The full output is written on the node to a file of independent gzip
+ * blocks (the file is still a valid gzip file) and an index with the first
+ * line, offset, length and line count of each block. Only the first and last
+ * lines and the error lines go to the build log. A line range is read by
+ * decompressing only the blocks of the range. Lines are decoded as UTF-8 and
+ * lines longer than a block are split. An output filter applies to the lines
+ * shown in the build log and gets every line for its unfiltered copy.
+ */
+public class SideLog implements Serializable {
+
+    /**
+     * Artifact directory of the side logs
+     */
+    public static final String DIRECTORY = "universal-script-logs";
+
+    /**
+     * Default pattern of error lines
+     */
+    public static final String DEFAULT_ERROR_PATTERN = "(?i)\\b(error|exception|fatal|failed)\\b";
+
+    /**
+     * Number of lines at the start of the output in the build log
+     */
+    private static final int HEAD = Integer.getInteger(SideLog.class.getName() + ".head", 50);
+    /**
+     * Number of lines at the end of the output in the build log
+     */
+    private static final int TAIL = Integer.getInteger(SideLog.class.getName() + ".tail", 50);
+    /**
+     * Maximum number of error lines in the build log
+     */
+    private static final int MAX_ERRORS = Integer.getInteger(SideLog.class.getName() + ".maxErrors", 1000);
+
+    /**
+     * Maximum number of lines per block
+     */
+    private static final int BLOCK_LINES = 4096;
+    /**
+     * Maximum uncompressed size of a block
+     */
+    private static final int BLOCK_BYTES = 1024 * 1024;
+    /**
+     * Maximum length of a line in bytes (longer lines are split)
+     */
+    private static final int MAX_LINE = BLOCK_BYTES;
+    /**
+     * Name of the side log (base name of the files)
+     */
+    private final String name;
+    /**
+     * Pattern of error lines
+     */
+    private final String errorPattern;
+
+    /**
+     * Create a side log
+     * @param name Name of the side log
+     * @param errorPattern Pattern of the error lines
+     */
+    public SideLog(String name, String errorPattern) {
+        this.name = name;
+        this.errorPattern = errorPattern;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the name of the compressed log file
+     * @return File name
+     */
+    public String getLogFileName() {
+        return name + ".log.gz";
+    }
+
+    /**
+     * Get the name of the index file
+     * @return File name
+     */
+    public String getIndexFileName() {
+        return name + ".idx";
+    }
+
+    /**
+     * Read a range of lines
+     * @param log Compressed log
+     * @param index Index of the log
+     * @param from First line (0 based)
+     * @param count Maximum number of lines
+     * @return Lines of the range
+     * @throws IOException
+     */
+    public static List<String> read(Source log, InputStream index, long from, int count) throws IOException {
+        long to = from + count;
+
+        // find the blocks of the range (the blocks of a range are contiguous)
+        long firstLine = -1;
+        long start = -1;
+        long end = -1;
+        List<Long> lengths = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(index))) {
+            while (true) {
+                long blockFirstLine;
+                try {
+                    blockFirstLine = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long offset = in.readLong();
+                long length = in.readLong();
+                long blockLines = in.readLong();
+
+                if (blockFirstLine >= to) {
+                    break;
+                }
+                if (blockFirstLine + blockLines <= from) {
+                    continue;
+                }
+                if (start < 0) {
+                    firstLine = blockFirstLine;
+                    start = offset;
+                }
+                end = offset + length;
+                lengths.add(length);
+            }
+        }
+
+        List<String> lines = new ArrayList<>();
+        if (start < 0) {
+            return lines;
+        }
+
+        // read only the compressed blocks of the range
+        byte[] data = new byte[(int) (end - start)];
+        try (DataInputStream in = new DataInputStream(log.open())) {
+            IOUtils.skipFully(in, start);
+            in.readFully(data);
+        }
+
+        long line = firstLine;
+        int offset = 0;
+        for (long length : lengths) {
+            for (String text : decompress(data, offset, (int) length)) {
+                if (line >= from && line < to) {
+                    lines.add(text);
+                }
+                line++;
+            }
+            offset += length;
+        }
+        return lines;
+    }
+
+    /**
+     * Decompress a single block
+     * @param data Compressed data
+     * @param offset Offset of the block
+     * @param length Compressed length of the block
+     * @return Lines of the block
+     * @throws IOException
+     */
+    private static List<String> decompress(byte[] data, int offset, int length) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data, offset, length))) {
+            String text = IOUtils.toString(in, Charsets.UTF_8);
+            List<String> lines = new ArrayList<>();
+            int start = 0;
+            int end;
+            while ((end = text.indexOf('\n', start)) >= 0) {
+                lines.add(text.substring(start, end));
+                start = end + 1;
+            }
+            if (start < text.length()) {
+                lines.add(text.substring(start));
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Get the number of lines of a side log
+     * @param index Index of the log
+     * @return Number of lines
+     * @throws IOException
+     */
+    public static long countLines(InputStream index) throws IOException {
+        long lines = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(index))) {
+            while (true) {
+                long firstLine;
+                try {
+                    firstLine = in.readLong();
+                } catch (EOFException e) {
+                    return lines;
+                }
+                // skip offset and length
+                IOUtils.skipFully(in, 2 * 8);
+                lines = firstLine + in.readLong();
+            }
+        }
+    }
+
+    /**
+     * Source of a compressed log that can be opened multiple times
+     */
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Thread to copy the output of a process to the side log
+     */
+    final class Writer extends Thread {
+        private InputStream in;
+        private final File logFile;
+        private final File indexFile;
+        private final Pattern errors;
+        private final PrintStream logger;
+        private OutputFilter.Stream filter;
+
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        private final Deque<String> tail = new ArrayDeque<>();
+        private long line = 0;
+        private long blockFirstLine = 0;
+        private long offset = 0;
+        private int errorLines = 0;
+
+        /**
+         * Create the writer of the side log
+         * @param pwd Directory of the side log files
+         * @param listener Build listener
+         */
+        Writer(File pwd, TaskListener listener) {
+            super("Universal script side log " + name);
+            this.logFile = new File(pwd, getLogFileName());
+            this.indexFile = new File(pwd, getIndexFileName());
+            this.errors = Pattern.compile(errorPattern);
+            this.logger = listener.getLogger();
+            setDaemon(true);
+        }
+
+        /**
+         * Set the output of the process (before the thread is started)
+         * @param in Output of the process
+         */
+        void setInput(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Set the output filter of the build log (before the thread is started)
+         * @param filter Output filter or null
+         */
+        void setFilter(OutputFilter.Stream filter) {
+            this.filter = filter;
+        }
+
+        /**
+         * Get the number of written lines
+         * @return Number of lines
+         */
+        long getLines() {
+            return line;
+        }
+
+        @Override
+        public void run() {
+            try (OutputStream log = new FileOutputStream(logFile);
+                 DataOutputStream index = new DataOutputStream(new FileOutputStream(indexFile));
+                 InputStream input = in) {
+
+                ByteArrayOutputStream current = new ByteArrayOutputStream();
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    int start = 0;
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            current.write(buffer, start, i + 1 - start);
+                            addLine(current.toByteArray(), log, index);
+                            current.reset();
+                            start = i + 1;
+                        } else if (current.size() + i + 1 - start >= MAX_LINE) {
+                            current.write(buffer, start, i + 1 - start);
+                            splitLine(current, log, index);
+                            start = i + 1;
+                        }
+                    }
+                    current.write(buffer, start, read - start);
+                }
+                if (current.size() > 0) {
+                    current.write('\n');
+                    addLine(current.toByteArray(), log, index);
+                }
+                flushBlock(log, index);
+
+                // summary in the build log
+                if (line > HEAD + tail.size()) {
+                    logger.println("[UNIVERSAL SCRIPT EXECUTOR] ... " + (line - HEAD - tail.size())
+                            + " lines in side log " + name + " ...");
+                }
+                for (String text : tail) {
+                    forward("", text);
+                }
+                logger.println("[UNIVERSAL SCRIPT EXECUTOR] " + line + " lines of output written to side log " + name);
+
+            } catch (IOException e) {
+                logger.println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Failed to write side log: " + e);
+            }
+        }
+
+        /**
+         * Add the content of a line that reached the maximum length as own line
+         * (an incomplete UTF-8 sequence at the end is kept for the next line)
+         * @param current Content of the line
+         * @param log Compressed log
+         * @param index Index of the log
+         * @throws IOException
+         */
+        private void splitLine(ByteArrayOutputStream current, OutputStream log, DataOutputStream index)
+                throws IOException {
+            byte[] data = current.toByteArray();
+            int cut = data.length;
+            int lead = cut - 1;
+            while (lead > 0 && lead > cut - 4 && (data[lead] & 0xC0) == 0x80) {
+                lead--;
+            }
+            int length = (data[lead] & 0xE0) == 0xC0 ? 2 : (data[lead] & 0xF0) == 0xE0 ? 3
+                    : (data[lead] & 0xF8) == 0xF0 ? 4 : 1;
+            if (lead > 0 && lead + length > cut) {
+                cut = lead;
+            }
+
+            byte[] text = new byte[cut + 1];
+            System.arraycopy(data, 0, text, 0, cut);
+            text[cut] = '\n';
+            addLine(text, log, index);
+            current.reset();
+            current.write(data, cut, data.length - cut);
+        }
+
+        private void addLine(byte[] data, OutputStream log, DataOutputStream index) throws IOException {
+            String text = new String(data, 0, data[data.length - 1] == '\n' ? data.length - 1 : data.length,
+                    Charsets.UTF_8);
+
+            if (filter != null) {
+                filter.copy(data, data.length);
+            }
+
+            if (line < HEAD) {
+                forward("", text);
+            } else if (TAIL > 0) {
+                // error lines are reported when they leave the tail (the tail is printed at the end)
+                if (tail.size() >= TAIL) {
+                    reportError(line - TAIL, tail.removeFirst());
+                }
+                tail.addLast(text);
+            } else {
+                reportError(line, text);
+            }
+
+            block.write(data);
+            line++;
+            if (line - blockFirstLine >= BLOCK_LINES || block.size() >= BLOCK_BYTES) {
+                flushBlock(log, index);
+            }
+        }
+
+        /**
+         * Print a line to the build log if it is an error line
+         * @param number Line number (0 based)
+         * @param text Line
+         */
+        private void reportError(long number, String text) {
+            if (errorLines < MAX_ERRORS && errors.matcher(text).find()) {
+                forward("[line " + (number + 1) + "] ", text);
+                errorLines++;
+            }
+        }
+
+        /**
+         * Print a line to the build log if it passes the output filter
+         * @param prefix Prefix of the line
+         * @param text Line
+         */
+        private void forward(String prefix, String text) {
+            if (filter == null || filter.accept(text)) {
+                logger.println(prefix + text);
+            }
+        }
+
+        private void flushBlock(OutputStream log, DataOutputStream index) throws IOException {
+            if (line == blockFirstLine) {
+                return;
+            }
+
+            // each block is an independent gzip member
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                block.writeTo(gzip);
+            }
+            compressed.writeTo(log);
+
+            index.writeLong(blockFirstLine);
+            index.writeLong(offset);
+            index.writeLong(compressed.size());
+            index.writeLong(line - blockFirstLine);
+
+            offset += compressed.size();
+            blockFirstLine = line;
+            block.reset();
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,215 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.BuildListenerAdapter;
+import jenkins.model.RunAction2;
+import jenkins.util.VirtualFile;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Side logs of the universal script executions of a build
+ * (random access view of line ranges)
+ */
+public class SideLogAction implements RunAction2 {
+
+    /**
+     * Maximum number of lines per request
+     */
+    private static final int MAX_LINES = 10000;
+
+    /**
+     * Archived side logs
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Build of this action
+     */
+    private transient Run<?, ?> run;
+
+    @Override
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Script Side Logs";
+    }
+
+    @Override
+    public String getUrlName() {
+        return SideLog.DIRECTORY;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Add an archived side log
+     * @param entry Side log
+     */
+    synchronized void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    /**
+     * Get an archived side log
+     * @param name Name of the side log
+     * @return Side log or null if not found
+     */
+    public synchronized Entry getEntry(String name) {
+        for (Entry entry : entries) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Show a range of lines of a side log
+     * @param name Name of the side log
+     * @param from First line (1 based)
+     * @param count Number of lines
+     * @param rsp Response
+     * @throws IOException
+     */
+    public void doView(@QueryParameter String name, @QueryParameter long from, @QueryParameter int count,
+                       StaplerResponse rsp) throws IOException {
+        run.checkPermission(Run.ARTIFACTS);
+
+        Entry entry = getEntry(name);
+        if (entry == null) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+        from = Math.max(from, 1);
+        count = count <= 0 ? 1000 : Math.min(count, MAX_LINES);
+
+        VirtualFile root = run.getArtifactManager().root();
+        final VirtualFile log = root.child(SideLog.DIRECTORY + "/" + name + ".log.gz");
+        VirtualFile index = root.child(SideLog.DIRECTORY + "/" + name + ".idx");
+
+        List<String> lines;
+        try (InputStream in = index.open()) {
+            lines = SideLog.read(new SideLog.Source() {
+                @Override
+                public InputStream open() throws IOException {
+                    return log.open();
+                }
+            }, in, from - 1, count);
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        long line = from;
+        for (String text : lines) {
+            writer.print(line++);
+            writer.print('\t');
+            writer.println(text);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Archive the side log of an execution and add it to the build
+     * @param run Build
+     * @param pwd Directory of the side log files
+     * @param launcher Launcher
+     * @param listener Build listener
+     * @param sideLog Side log
+     * @param runtime Name of the runtime
+     * @param lines Number of lines (-1 if the execution failed, files are only removed)
+     */
+    public static void archive(Run<?, ?> run, FilePath pwd, Launcher launcher, TaskListener listener,
+                               SideLog sideLog, String runtime, long lines) {
+        FilePath logFile = pwd.child(sideLog.getLogFileName());
+        FilePath indexFile = pwd.child(sideLog.getIndexFileName());
+        try {
+            if (lines < 0) {
+                return;
+            }
+            Map<String, String> artifacts = new HashMap<>();
+            artifacts.put(SideLog.DIRECTORY + "/" + sideLog.getLogFileName(), logFile.getName());
+            artifacts.put(SideLog.DIRECTORY + "/" + sideLog.getIndexFileName(), indexFile.getName());
+            run.getArtifactManager().archive(pwd, launcher, BuildListenerAdapter.wrap(listener), artifacts);
+
+            SideLogAction action;
+            synchronized (run) {
+                action = run.getAction(SideLogAction.class);
+                if (action == null) {
+                    action = new SideLogAction();
+                    run.addAction(action);
+                }
+            }
+            action.add(new Entry(sideLog.getName(), runtime, lines));
+
+        } catch (IOException | InterruptedException e) {
+            listener.error("[UNIVERSAL SCRIPT EXECUTOR] Failed to archive side log: " + e);
+
+        } finally {
+            try {
+                logFile.delete();
+                indexFile.delete();
+            } catch (IOException | InterruptedException e) {
+                listener.error("Unable to delete side log " + logFile);
+            }
+        }
+    }
+
+    /**
+     * Archived side log of a single execution
+     */
+    public static class Entry {
+        private final String name;
+        private final String runtime;
+        private final long lines;
+
+        Entry(String name, String runtime, long lines) {
+            this.name = name;
+            this.runtime = runtime;
+            this.lines = lines;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getRuntime() {
+            return runtime;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+    }
+}
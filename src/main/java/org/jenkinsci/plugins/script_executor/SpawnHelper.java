@@ -0,0 +1,543 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Functions;
+import hudson.util.ProcessTree;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Small resident shell on unix nodes that starts the processes of the plugin.
+ *
+ * Forking a JVM with a large heap is expensive, so the helper is forked once
+ * and each launch is sent to it as a request line on its input. The helper
+ * creates a FIFO for the output, starts the command in the background and
+ * reports its process id and exit code on its output. The started process
+ * is returned as {@link Process}, so callers read the output and wait for
+ * the exit code as usual. The environment of the command is written to a
+ * private file that the shell of the command reads and deletes, so it does
+ * not show up in the command lines of the node.
+ *
+ * The helper is enabled on a node with the system property
+ * <code>org.jenkinsci.plugins.script_executor.SpawnHelper.enabled=true</code>
+ * of its JVM. Launches fall back to {@link ProcessBuilder#start()} if the
+ * helper is disabled or did certainly not start the command (helper not
+ * startable or exited, request not sent, FIFO not created). Once the request
+ * was sent, other failures are reported to the caller and the command is
+ * terminated as soon as its process id is known.
+ */
+public final class SpawnHelper {
+
+    private static final Logger LOGGER = Logger.getLogger(SpawnHelper.class.getName());
+
+    /**
+     * True if launches are sent to the helper
+     */
+    private static final boolean ENABLED = Boolean.getBoolean(SpawnHelper.class.getName() + ".enabled");
+
+    /**
+     * Shell of the helper
+     */
+    private static final String SHELL = System.getProperty(SpawnHelper.class.getName() + ".shell", "/bin/sh");
+
+    /**
+     * Request loop of the helper (requests are single lines, $nl is a line break)
+     */
+    private static final String SCRIPT =
+            "exec 2>/dev/null; nl='\n'; while IFS= read -r request; do eval \"$request\"; done";
+
+    /**
+     * Time in milliseconds to wait for the reader of an output FIFO
+     */
+    private static final long UNBLOCK_TIMEOUT = 1000;
+
+    /**
+     * Time in seconds to wait for the process id of a launch
+     */
+    private static final long START_TIMEOUT = Math.max(1L,
+            Long.getLong(SpawnHelper.class.getName() + ".startTimeout", 30L));
+
+    /**
+     * Variables set by the shell itself, removed if not in the environment of the command
+     */
+    private static final String[] SHELL_VARIABLES = {"PWD", "OLDPWD", "SHLVL", "_"};
+
+    /**
+     * Names of variables that can be set by the shell
+     */
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    /**
+     * Running helper of this JVM
+     */
+    private static SpawnHelper instance;
+
+    private final Process process;
+    private final Writer requests;
+    private final File directory;
+    /**
+     * Environment inherited by the helper
+     */
+    private final Map<String, String> environment;
+    private final ConcurrentMap<String, HelperProcess> running = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private volatile boolean alive = true;
+
+    private SpawnHelper() throws IOException {
+        directory = Files.createTempDirectory("univ-spawn").toFile();
+        directory.deleteOnExit();
+
+        ProcessBuilder builder = new ProcessBuilder(SHELL, "-c", SCRIPT);
+        environment = new HashMap<>(builder.environment());
+        process = builder.start();
+        process.getErrorStream().close();
+        requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), Charset.defaultCharset()));
+
+        Thread reader = new Thread("Universal script spawn helper") {
+            @Override
+            public void run() {
+                readResponses();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Start a process, with the helper if it is enabled.
+     * Processes started by the helper read their input from the redirected
+     * file or /dev/null, so this is only used for processes that do not get
+     * input from the caller.
+     * @param builder Process builder (error stream has to be redirected to the output)
+     * @return Started process
+     * @throws IOException
+     * @throws InterruptedIOException if interrupted while waiting for the helper
+     */
+    public static Process start(ProcessBuilder builder) throws IOException {
+        if (!isSupported(builder)) {
+            return builder.start();
+        }
+
+        try {
+            return get().launch(builder);
+        } catch (NotStartedException e) {
+            LOGGER.log(Level.FINE, "Spawn helper failed, starting the process directly", e);
+            return builder.start();
+        }
+    }
+
+    /**
+     * Get the process tree entry of a process
+     * @param process Process started by {@link #start}
+     * @return Process tree entry or null if it exited
+     */
+    static ProcessTree.OSProcess getOSProcess(Process process) {
+        if (process instanceof HelperProcess) {
+            int pid = ((HelperProcess) process).getPid();
+            return pid > 0 ? ProcessTree.get().get(pid) : null;
+        }
+        return ProcessTree.get().get(process);
+    }
+
+    /**
+     * Check if the helper is able to start the process
+     * @param builder Process builder
+     * @return True if the process can be started by the helper
+     */
+    private static boolean isSupported(ProcessBuilder builder) {
+        if (!ENABLED || Functions.isWindows() || !builder.redirectErrorStream()) {
+            return false;
+        }
+        ProcessBuilder.Redirect input = builder.redirectInput();
+        return builder.redirectOutput().type() == ProcessBuilder.Redirect.Type.PIPE
+                && (input.type() == ProcessBuilder.Redirect.Type.PIPE || input.type() == ProcessBuilder.Redirect.Type.READ);
+    }
+
+    /**
+     * Get the running helper or start a new one
+     * @return Helper
+     * @throws IOException
+     */
+    private static synchronized SpawnHelper get() throws IOException {
+        if (instance == null || !instance.alive) {
+            try {
+                instance = new SpawnHelper();
+            } catch (IOException e) {
+                throw new NotStartedException("Unable to start the spawn helper", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Quote a value for the shell (line breaks are replaced by $nl)
+     * @param value Value
+     * @return Quoted value
+     */
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\\''").replace("\n", "'\"$nl\"'") + "'";
+    }
+
+    /**
+     * Write the environment of a command to a file readable only by the owner.
+     * The file removes itself when it is sourced.
+     * @param file File
+     * @param env Environment of the command
+     * @throws NotStartedException if the file was not written
+     */
+    private void writeEnvironment(File file, Map<String, String> env) throws IOException {
+        StringBuilder script = new StringBuilder("rm -f ").append(quote(file.getPath())).append('\n');
+        Set<String> unset = new TreeSet<>(environment.keySet());
+        Collections.addAll(unset, SHELL_VARIABLES);
+        unset.removeAll(env.keySet());
+        for (String name : unset) {
+            // the shell does not pass other names to its children
+            if (NAME.matcher(name).matches()) {
+                script.append("command unset ").append(name).append(" 2>/dev/null\n");
+            }
+        }
+        for (Map.Entry<String, String> var : env.entrySet()) {
+            if (!NAME.matcher(var.getKey()).matches()) {
+                throw new NotStartedException("Environment variable " + var.getKey() + " can not be set by the spawn helper", null);
+            }
+            script.append("command export ").append(var.getKey()).append("='")
+                    .append(var.getValue().replace("'", "'\\''")).append("'\n");
+        }
+
+        try {
+            Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            Files.write(file.toPath(), script.toString().getBytes(Charset.defaultCharset()));
+        } catch (IOException | UnsupportedOperationException e) {
+            if (file.exists() && !file.delete()) {
+                LOGGER.log(Level.FINE, "Unable to delete environment file {0}", file);
+            }
+            throw new NotStartedException("Unable to write the environment for the spawn helper", e);
+        }
+    }
+
+    /**
+     * Send a launch request and wait for the process id
+     * @param builder Process builder
+     * @return Started process
+     * @throws NotStartedException if the command was certainly not started
+     * @throws IOException if the state of the command is unknown (it is terminated)
+     */
+    private Process launch(ProcessBuilder builder) throws IOException {
+        String id = Long.toString(ids.incrementAndGet());
+        File fifo = new File(directory, id);
+        File input = builder.redirectInput().type() == ProcessBuilder.Redirect.Type.READ
+                ? builder.redirectInput().file() : new File("/dev/null");
+
+        File env = new File(directory, id + ".env");
+        writeEnvironment(env, builder.environment());
+
+        // { mkfifo F || { rm E; exit; }; ( . E; cd D && exec CMD ) >F 2>&1 <IN & echo pid; wait; echo exit; } &
+        StringBuilder request = new StringBuilder("{ mkfifo -m 600 ").append(quote(fifo.getPath()))
+                .append(" || { rm -f ").append(quote(env.getPath())).append("; echo '").append(id)
+                .append(" error mkfifo failed'; exit; }; ( . ").append(quote(env.getPath())).append("; ");
+        if (builder.directory() != null) {
+            request.append("cd ").append(quote(builder.directory().getPath())).append(" && ");
+        }
+        request.append("exec");
+        List<String> command = builder.command();
+        for (String arg : command) {
+            request.append(' ').append(quote(arg));
+        }
+        request.append(" ) >").append(quote(fifo.getPath())).append(" 2>&1 <").append(quote(input.getPath()))
+                .append(" & echo \"").append(id).append(" pid $!\"; wait $!; echo \"")
+                .append(id).append(" exit $?\"; } &");
+
+        HelperProcess started = new HelperProcess(this, id, fifo);
+        running.put(id, started);
+        try {
+            send(request.toString());
+        } catch (IOException e) {
+            running.remove(id);
+            if (!env.delete()) {
+                LOGGER.log(Level.FINE, "Unable to delete environment file {0}", env);
+            }
+            throw new NotStartedException("Unable to send the request to the spawn helper", e);
+        }
+
+        try {
+            started.open();
+        } catch (NotStartedException e) {
+            running.remove(id);
+            throw e;
+        } catch (IOException e) {
+            // the command may run -> terminate it, the FIFO is removed when it exited
+            started.abandon();
+            throw e;
+        }
+        return started;
+    }
+
+    /**
+     * Send a request line to the helper
+     * @param request Request
+     * @throws IOException if the helper exited
+     */
+    private void send(String request) throws IOException {
+        synchronized (requests) {
+            requests.write(request);
+            requests.write('\n');
+            requests.flush();
+        }
+    }
+
+    /**
+     * Dispatch the responses of the helper until it exits
+     */
+    private void readResponses() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // <id> <pid|exit|error> <value>
+                String[] split = line.split(" ", 3);
+                HelperProcess started = split.length == 3 ? running.get(split[0]) : null;
+                if (started == null) {
+                    continue;
+                }
+
+                try {
+                    if ("pid".equals(split[1])) {
+                        started.started(Integer.parseInt(split[2]));
+                    } else if ("exit".equals(split[1])) {
+                        running.remove(split[0]);
+                        started.exited(Integer.parseInt(split[2]));
+                    } else {
+                        running.remove(split[0]);
+                        started.failed(split[2]);
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.log(Level.WARNING, "Invalid response of spawn helper: {0}", line);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Spawn helper output closed", e);
+        } finally {
+            alive = false;
+            process.destroy();
+            for (HelperProcess started : running.values()) {
+                started.failed("spawn helper exited");
+            }
+            running.clear();
+        }
+    }
+
+    /**
+     * Failure of a launch that certainly did not start the command
+     */
+    private static final class NotStartedException extends IOException {
+        NotStartedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Process started by the helper
+     */
+    static final class HelperProcess extends Process {
+        private final SpawnHelper helper;
+        private final String id;
+        private final File fifo;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch exited = new CountDownLatch(1);
+
+        private volatile int pid = -1;
+        private volatile int exitCode = -1;
+        private volatile String error;
+        private volatile boolean abandoned;
+        private InputStream output;
+        private boolean opening;
+        private boolean opened;
+        private boolean finished;
+
+        HelperProcess(SpawnHelper helper, String id, File fifo) {
+            this.helper = helper;
+            this.id = id;
+            this.fifo = fifo;
+        }
+
+        int getPid() {
+            return pid;
+        }
+
+        /**
+         * Wait for the start and open the output FIFO
+         * @throws NotStartedException if the helper did not start the process
+         * @throws IOException if the start was not confirmed in time
+         */
+        void open() throws IOException {
+            try {
+                if (!started.await(START_TIMEOUT, TimeUnit.SECONDS)) {
+                    throw new IOException("Spawn helper did not start the process in " + START_TIMEOUT + " seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for the spawn helper");
+                interrupted.initCause(e);
+                throw interrupted;
+            }
+            if (pid < 0) {
+                throw new NotStartedException("Spawn helper failed: " + error, null);
+            }
+
+            synchronized (this) {
+                if (finished) {
+                    // exited before the output was opened -> nothing was written
+                    output = new ByteArrayInputStream(new byte[0]);
+                    return;
+                }
+                opening = true;
+            }
+            // blocks until the process opened the FIFO
+            FileInputStream in = new FileInputStream(fifo);
+            synchronized (this) {
+                opened = true;
+                output = in;
+            }
+            if (!fifo.delete()) {
+                LOGGER.log(Level.FINE, "Unable to delete FIFO {0}", fifo);
+            }
+        }
+
+        void started(int pid) {
+            this.pid = pid;
+            started.countDown();
+            if (abandoned) {
+                destroy();
+            }
+        }
+
+        /**
+         * Terminate a process that is not returned to the caller
+         */
+        void abandon() {
+            abandoned = true;
+            if (pid > 0) {
+                destroy();
+            }
+        }
+
+        void exited(int exitCode) {
+            this.exitCode = exitCode;
+            finish();
+        }
+
+        void failed(String error) {
+            this.error = error;
+            finish();
+        }
+
+        /**
+         * Mark the process as finished and release a reader blocked on the FIFO
+         */
+        private void finish() {
+            boolean unblock;
+            synchronized (this) {
+                finished = true;
+                unblock = opening && !opened;
+            }
+            started.countDown();
+            exited.countDown();
+
+            // open the FIFO as writer (never blocks) -> the reader gets EOF
+            long deadline = System.currentTimeMillis() + UNBLOCK_TIMEOUT;
+            while (unblock && fifo.exists() && System.currentTimeMillis() < deadline) {
+                try {
+                    new RandomAccessFile(fifo, "rw").close();
+                    Thread.sleep(10);
+                } catch (IOException e) {
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                synchronized (this) {
+                    unblock = !opened;
+                }
+            }
+
+            // the shell of the process exited -> the FIFO is not opened for writing anymore
+            if (fifo.exists() && !fifo.delete()) {
+                LOGGER.log(Level.FINE, "Unable to delete FIFO {0}", fifo);
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            // the input is connected to a file or /dev/null
+            return new NullOutputStream();
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() {
+            return output;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            // error output is merged into the output
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            exited.await();
+            return exitCode;
+        }
+
+        @Override
+        public int exitValue() {
+            if (exited.getCount() > 0) {
+                throw new IllegalThreadStateException("Process " + pid + " is running");
+            }
+            return exitCode;
+        }
+
+        @Override
+        public void destroy() {
+            if (exited.getCount() == 0 || pid < 0) {
+                return;
+            }
+            try {
+                helper.send("kill " + pid + " 2>/dev/null");
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to send termination of process " + pid + " (" + id + ")", e);
+            }
+        }
+    }
+}
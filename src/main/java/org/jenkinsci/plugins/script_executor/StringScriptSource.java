@@ -9,13 +9,17 @@ import hudson.util.FormValidation;
 import java.io.*;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import net.sf.json.JSONObject;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 
 /**
  * Runtime script specified by command string.
@@ -24,16 +28,81 @@ import org.kohsuke.stapler.QueryParameter;
  */
 public class StringScriptSource extends ScriptSource {
 
+    private static final Logger LOGGER = Logger.getLogger(StringScriptSource.class.getName());
+
+    /**
+     * Script content that is not yet in the script store (null after interning)
+     */
     private String command;
 
+    /**
+     * Hash of the script in the script store
+     */
+    private String hash;
+
+    /**
+     * Script content of a configuration that was loaded without hash. The
+     * configuration file does not refer to the store entry until it is saved,
+     * so the entry may be collected and is written again from this content.
+     */
+    private transient String migrated;
+
+    /**
+     * Precomputed hash code
+     */
+    private transient int hashCode;
+
     @DataBoundConstructor
     public StringScriptSource(String command) {
         this.command = command;
+        this.hash = command != null ? ScriptStore.hash(command) : null;
+        this.hashCode = hash != null ? hash.hashCode() : 0;
+    }
+
+    /**
+     * Move the script content to the script store (existing configurations are migrated on load)
+     * @return This script source
+     */
+    protected Object readResolve() {
+        if (command != null) {
+            try {
+                hash = ScriptStore.put(command);
+                migrated = ScriptStore.get(hash);
+                command = null;
+            } catch (IOException e) {
+                // keep the content in the configuration
+                LOGGER.log(Level.WARNING, "Failed to add script to the script store", e);
+                hash = ScriptStore.hash(command);
+            }
+        }
+        hashCode = hash != null ? hash.hashCode() : 0;
+        return this;
+    }
+
+    /**
+     * Get the script content
+     * @return Script content
+     * @throws IOException if the script is missing in the script store
+     */
+    private String loadCommand() throws IOException {
+        if (command != null || hash == null) {
+            return command;
+        }
+        try {
+            return ScriptStore.get(hash);
+        } catch (FileNotFoundException e) {
+            if (migrated == null) {
+                throw e;
+            }
+            // collected before the configuration was saved -> store it again
+            ScriptStore.put(migrated);
+            return migrated;
+        }
     }
 
     @Override
-    public InputStream getScriptStream(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) {
-        return new ByteArrayInputStream(command.getBytes(Charsets.UTF_8));
+    public InputStream getScriptStream(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException {
+        return new ByteArrayInputStream(loadCommand().getBytes(Charsets.UTF_8));
     }
 
     @Override
@@ -42,11 +111,52 @@ public class StringScriptSource extends ScriptSource {
                                   TaskListener listener)
             throws IOException, InterruptedException {
 
-        return projectWorkspace.createTextTempFile("jenkins", ".use", command, true);
+        return projectWorkspace.createTextTempFile("jenkins", ".use", loadCommand(), true);
     }
 
+    @Override
+    public ExecutionPlan.Script getPlanScript(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException {
+        return ExecutionPlan.Script.content(loadCommand().getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Get the parsed template (the script is only loaded if the template is not cached)
+     */
+    @Override
+    ScriptTemplate getTemplate(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException {
+        ScriptTemplate template = ScriptTemplate.getCached(hash);
+        return template != null ? template : ScriptTemplate.get(hash, loadCommand());
+    }
+
+    @Override
+    public ExecutionPlan.Script getExpandedPlanScript(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener,
+                                                      Map<String, String> variables) throws IOException {
+        // expanded on the node while the script file is written
+        return ExecutionPlan.Script.template(loadCommand().getBytes(Charsets.UTF_8), hash, variables);
+    }
+
+    /**
+     * Get the script content (e.g. for the configuration form)
+     * @return Script content
+     * @throws IllegalStateException if the script is missing in the script store
+     *         (an empty form would remove the script with the next save)
+     */
     public String getCommand() {
-        return command;
+        try {
+            return loadCommand();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load script from the script store", e);
+            throw new IllegalStateException("Script " + hash + " is missing in the script store " + ScriptStore.getRoot()
+                    + ", restore the file to edit the configuration", e);
+        }
+    }
+
+    /**
+     * Get the hash of the script in the script store
+     * @return SHA-256 of the script
+     */
+    public String getHash() {
+        return hash;
     }
 
     @Override
@@ -56,13 +166,13 @@ public class StringScriptSource extends ScriptSource {
 
         StringScriptSource that = (StringScriptSource) o;
 
-        return command != null ? command.equals(that.command) : that.command == null;
+        return hash != null ? hash.equals(that.hash) : that.hash == null;
 
     }
 
     @Override
     public int hashCode() {
-        return command != null ? command.hashCode() : 0;
+        return hashCode;
     }
 
     @Extension
@@ -73,6 +183,14 @@ public class StringScriptSource extends ScriptSource {
             return "Script command";
         }
 
+        /**
+         * Create the script source from the configuration form and move the script to the script store
+         */
+        @Override
+        public ScriptSource newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            return (ScriptSource) ((StringScriptSource) super.newInstance(req, formData)).readResolve();
+        }
+
         public FormValidation doCheckScript(@QueryParameter String command,
                                             @QueryParameter String runtimeName) {
 
@@ -137,7 +255,7 @@ public class StringScriptSource extends ScriptSource {
                 Map<String, String> environment = builder.environment();
                 environment.putAll(envVars);
                 builder.redirectErrorStream(true);
-                Process process = builder.start();
+                Process process = SpawnHelper.start(builder);
 
                 if (process.waitFor() != 0) {
                     String err = IOUtils.toString(process.getInputStream());
@@ -10,23 +10,30 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Builder;
 import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import hudson.util.VariableResolver;
 
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.util.*;
+import java.util.regex.PatternSyntaxException;
 
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.Nonnull;
@@ -53,11 +60,101 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
      */
     private String scriptParameters = "";
 
+    /**
+     * True if the script is executed on the node in a single remote call
+     */
+    private boolean agentSideExecution = false;
+
+    /**
+     * Workspace file connected to the input of the script
+     */
+    private String stdinFile = null;
+
+    /**
+     * True if only the difference to the node environment is sent
+     */
+    private boolean minimalEnvironment = false;
+
+    /**
+     * True if the resource usage of the execution is recorded
+     */
+    private boolean recordResourceUsage = false;
+
+    /**
+     * Format of the execution trace (empty = disabled)
+     */
+    private String traceFormat = "";
+
+    /**
+     * True if the output is written to a compressed side log
+     */
+    private boolean sideLog = false;
+
+    /**
+     * Pattern of the side log lines that are shown in the build log (empty = default)
+     */
+    private String sideLogErrorPattern = "";
+
+    /**
+     * Pattern of the output lines that are kept (null = all)
+     */
+    private String outputInclude = null;
+
+    /**
+     * Pattern of the output lines that are dropped (null = none)
+     */
+    private String outputExclude = null;
+
+    /**
+     * Maximum number of output lines per second (0 = unlimited)
+     */
+    private int outputRateLimit = 0;
+
+    /**
+     * Workspace file for the unfiltered output (null = disabled)
+     */
+    private String outputFile = null;
+
+    /**
+     * True if ${VAR} macros in the script content are expanded
+     */
+    private boolean expandScriptMacros = false;
+
+    /**
+     * Scheduling policy that overrides the settings of the runtime (null = runtime policy)
+     */
+    private String schedulingPolicy = null;
+
     /**
      * Custom step context
      */
     private transient StepContext customContext = null;
 
+    /**
+     * Size limit of the result channel in KiB (0 = disabled)
+     */
+    private transient int resultSizeLimit = 0;
+
+    /**
+     * Records of the result channel of the last execution
+     */
+    private transient List<Object> results = null;
+
+    /**
+     * Resource usage of the last execution
+     */
+    private transient ResourceUsage resourceUsage = null;
+
+    /**
+     * Handle to terminate the running execution
+     */
+    private transient ProcessControl processControl = null;
+
+    /**
+     * Runtime session that executes the script (null = new process)
+     */
+    private transient RuntimeSession runtimeSession = null;
+
     @DataBoundConstructor
     public UniversalScript(ScriptSource scriptSource, String runtimeName) {
         this.scriptSource = scriptSource;
@@ -68,6 +165,38 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
         this.customContext = context;
     }
 
+    /**
+     * Enable the result channel of the script
+     * @param resultSizeLimit Size limit of the result file in KiB (0 = disabled)
+     */
+    public void setResultSizeLimit(int resultSizeLimit) {
+        this.resultSizeLimit = resultSizeLimit;
+    }
+
+    /**
+     * Set the handle to terminate the running execution
+     * @param processControl Process control
+     */
+    public void setProcessControl(ProcessControl processControl) {
+        this.processControl = processControl;
+    }
+
+    /**
+     * Execute the script in a running runtime session instead of a new process
+     * @param runtimeSession Runtime session
+     */
+    public void setRuntimeSession(RuntimeSession runtimeSession) {
+        this.runtimeSession = runtimeSession;
+    }
+
+    /**
+     * Get the records of the result channel of the last execution
+     * @return List of records or null if the result channel is disabled
+     */
+    public List<Object> getResults() {
+        return results;
+    }
+
     @DataBoundSetter
     public void setRuntimeParameters(String runtimeParameters) {
         this.runtimeParameters = Util.fixNull(runtimeParameters);
@@ -78,100 +207,660 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
         this.scriptParameters = Util.fixNull(scriptParameters);
     }
 
+    @DataBoundSetter
+    public void setAgentSideExecution(boolean agentSideExecution) {
+        this.agentSideExecution = agentSideExecution;
+    }
+
+    @DataBoundSetter
+    public void setStdinFile(String stdinFile) {
+        this.stdinFile = Util.fixEmptyAndTrim(stdinFile);
+    }
+
+    @DataBoundSetter
+    public void setMinimalEnvironment(boolean minimalEnvironment) {
+        this.minimalEnvironment = minimalEnvironment;
+    }
+
+    @DataBoundSetter
+    public void setRecordResourceUsage(boolean recordResourceUsage) {
+        this.recordResourceUsage = recordResourceUsage;
+    }
+
+    /**
+     * Get the resource usage of the last execution
+     * @return Resource usage or null if not recorded
+     */
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+
+    @DataBoundSetter
+    public void setTraceFormat(String traceFormat) {
+        this.traceFormat = Util.fixNull(traceFormat);
+    }
+
+    @DataBoundSetter
+    public void setSideLog(boolean sideLog) {
+        this.sideLog = sideLog;
+    }
+
+    @DataBoundSetter
+    public void setSideLogErrorPattern(String sideLogErrorPattern) {
+        this.sideLogErrorPattern = Util.fixNull(sideLogErrorPattern).trim();
+    }
+
+    @DataBoundSetter
+    public void setOutputInclude(String outputInclude) {
+        this.outputInclude = Util.fixEmpty(outputInclude);
+    }
+
+    @DataBoundSetter
+    public void setOutputExclude(String outputExclude) {
+        this.outputExclude = Util.fixEmpty(outputExclude);
+    }
+
+    @DataBoundSetter
+    public void setOutputRateLimit(int outputRateLimit) {
+        this.outputRateLimit = Math.max(outputRateLimit, 0);
+    }
+
+    @DataBoundSetter
+    public void setOutputFile(String outputFile) {
+        this.outputFile = Util.fixEmptyAndTrim(outputFile);
+    }
+
+    @DataBoundSetter
+    public void setExpandScriptMacros(boolean expandScriptMacros) {
+        this.expandScriptMacros = expandScriptMacros;
+    }
+
+    @DataBoundSetter
+    public void setSchedulingPolicy(String schedulingPolicy) {
+        this.schedulingPolicy = Util.fixEmptyAndTrim(schedulingPolicy);
+    }
+
+    /**
+     * Check if the output is filtered on the node
+     * @return True if any filter option is set
+     */
+    private boolean isOutputFiltered() {
+        return outputInclude != null || outputExclude != null || outputRateLimit > 0 || outputFile != null;
+    }
+
     @Override
     public void perform(@Nonnull Run<?, ?> build, @Nonnull FilePath workspace,
                         @Nonnull Launcher launcher,
                         @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        // one trace per execution -> concurrent builds of a job share this builder
+        ExecutionTrace trace = ExecutionTrace.create(runtimeName, traceFormat);
+        try {
+            execute(build, workspace, launcher, listener, trace);
+        } finally {
+            trace.export(build, workspace, launcher, listener);
+        }
+    }
+
+    /**
+     * Execute the script with the launcher of the node
+     * @param build Build instance
+     * @param workspace Workspace of the build
+     * @param launcher Launcher of the node
+     * @param listener Build listener
+     * @param trace Trace of the execution
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void execute(Run<?, ?> build, FilePath workspace, Launcher launcher,
+                         TaskListener listener, ExecutionTrace trace) throws InterruptedException, IOException {
 
         // check if script is missing
         if (scriptSource == null) {
             throw new ExecutionFailureException("There is no script configured for this builder");
         }
 
+        // send the script to the process of the enclosing runtime session
+        if (runtimeSession != null) {
+            performInSession(build, workspace, listener, trace);
+            return;
+        }
+
+        // execute in the JVM of the node
+        RuntimeInstallation engineRuntime = getRuntime();
+        if (engineRuntime instanceof ScriptEngineRuntimeInstallation) {
+            performInEngine((ScriptEngineRuntimeInstallation) engineRuntime, build, workspace, listener, trace);
+            return;
+        }
+
+        // execute everything on the node in a single call
+        // (input file, side log and output filter are always handled on the node)
+        if (agentSideExecution || stdinFile != null || sideLog || isOutputFiltered()) {
+            performOnAgent(build, workspace, launcher, listener, trace);
+            return;
+        }
+
         // try to get script
         FilePath script;
+        FilePath resultFile = null;
+        ResponseFile responseFile = null;
+        String executionId = null;
+        String coreAllocation = null;
+        String cgroup = null;
+        ExecutionTrace.Span span = trace.span("script materialisation");
         try {
-            script = scriptSource.getScriptFile(workspace, build, listener);
+            script = expandScriptMacros
+                    ? scriptSource.getExpandedScriptFile(workspace, build, listener, getMacroValues(build, listener))
+                    : scriptSource.getScriptFile(workspace, build, listener);
         } catch (IOException e) {
             Util.displayIOException(e, listener);
             e.printStackTrace(listener.fatalError("Unable to produce a script file"));
             throw new ExecutionFailureException("Unable to produce a script file");
+        } finally {
+            span.close();
         }
 
         try {
+            // prepare environment variables
+            Map<String, String> envVars = build.getEnvironment(listener);
+
+            // get pipeline env vars
+            if (customContext != null) {
+                EnvVars vars = customContext.get(EnvVars.class);
+                if (vars != null) {
+                    envVars = vars;
+                }
+            }
+
+            span = trace.span("runtime lookup");
+            RuntimeInstallation installation = getRuntime();
+            span.close();
+            if(installation != null) {
+                Computer computer = Computer.currentComputer();
+                if (computer != null) {
+                    span = trace.span("node translation");
+                    installation = installation.forNode(computer.getNode(), listener);
+                    span.close();
+                }
+                span = trace.span("remote probes");
+                envVars.put("RUNTIME_HOME", installation.getLocalHome(script.getChannel(), launcher.isUnix()));
+
+                envVars.putAll(installation.getEnvVarMap(envVars, launcher.isUnix()));
+                span.close();
+                responseFile = ResponseFile.of(installation);
+            }
+
+            // prepare result channel
+            if (resultSizeLimit > 0) {
+                workspace.mkdirs();
+                resultFile = workspace.createTempFile("result", ".json");
+                envVars.put(ResultChannel.ENV_VAR, resultFile.getRemote());
+            }
+
+            // start sampling of the resource usage
+            if (recordResourceUsage) {
+                executionId = UUID.randomUUID().toString();
+                envVars.put(ResourceSampler.ENV_VAR, executionId);
+                ResourceSampler.start(workspace.getChannel(), executionId);
+            }
+
+            // mark the process tree for the termination on abort
+            if (processControl != null) {
+                envVars.put(ProcessRegistry.ENV_VAR, processControl.getId());
+            }
+
             // get the command line
-            List<String> cmd = buildCommandLine(build, listener, script, launcher.isUnix());
+            List<String> cmd = buildCommandLine(build, listener, script, envVars, launcher.isUnix(),
+                    workspace, responseFile, trace);
 
             // check if command creation has failed
             if (cmd == null) {
                 throw new ExecutionFailureException("Empty command");
             }
 
-            try {
-                // prepare environment variables
-                Map<String, String> envVars = build.getEnvironment(listener);
-
-                // get pipeline env vars
-                if (customContext != null) {
-                    EnvVars vars = customContext.get(EnvVars.class);
-                    if (vars != null) {
-                        envVars = vars;
-                    }
-                }
-
-                RuntimeInstallation installation = getRuntime();
-                if(installation != null) {
-                    Computer computer = Computer.currentComputer();
-                    if (computer != null) {
-                        installation = installation.forNode(computer.getNode(), listener);
-                    }
-                    envVars.put("RUNTIME_HOME", installation.getLocalHome(script.getChannel(), launcher.isUnix()));
-
-                    envVars.putAll(installation.getEnvVarMap(envVars, launcher.isUnix()));
+            // apply the scheduling policy of the runtime and the step
+            SchedulingPolicy policy = installation != null && launcher.isUnix()
+                    ? getSchedulingPolicy(installation, schedulingPolicy, workspace, listener) : null;
+            if (policy != null) {
+                String cpus = null;
+                if (policy.isAutoCpus()) {
+                    coreAllocation = UUID.randomUUID().toString();
+                    cpus = CoreAllocator.allocate(workspace.getChannel(), coreAllocation,
+                            policy.getAutoCores(), getExecutors(workspace));
                 }
+                cgroup = policy.getCgroup(installation.getName(), UUID.randomUUID().toString());
+                cmd = policy.apply(cmd, cpus, cgroup);
+            }
 
-                // add build variables to environment
-                //for(Map.Entry<String,String> e : build.getBuildVariables().entrySet()){
-                //    envVars.put(e.getKey(), e.getValue());
-                //}
+            // add build variables to environment
+            //for(Map.Entry<String,String> e : build.getBuildVariables().entrySet()){
+            //    envVars.put(e.getKey(), e.getValue());
+            //}
+
+            // ensure workspace directory exist
+            workspace.mkdirs();
+
+            // prepare the runtime for script execution
+            Launcher.ProcStarter procStarter = launcher.launch();
+            procStarter.cmds(cmd.toArray(new String[] {}));
+            procStarter.envs(getLaunchEnvironment(envVars, workspace));
+            procStarter.stdout(listener);
+            procStarter.pwd(workspace);
+
+            // execute the script
+            span = trace.span("process spawn");
+            Proc proc = procStarter.start();
+            span.close();
+            if (processControl != null) {
+                processControl.attach(proc, workspace.getChannel());
+            }
+            span = trace.span("run");
+            int exitCode = proc.join();
+            span.close();
+
+            // record the resource usage of the process tree
+            if (executionId != null) {
+                recordResourceUsage(build, ResourceSampler.stop(workspace.getChannel(), executionId));
+                executionId = null;
+            }
 
-                // ensure workspace directory exist
-                workspace.mkdirs();
+            // read records of result channel
+            if (resultFile != null) {
+                span = trace.span("result channel");
+                results = resultFile.act(new ResultChannel.Reader(resultSizeLimit * 1024L, listener));
+                span.close();
+            }
 
-                // prepare the runtime for script execution
-                Launcher.ProcStarter procStarter = launcher.launch();
-                procStarter.cmds(cmd.toArray(new String[] {}));
-                procStarter.envs(envVars);
-                procStarter.stdout(listener);
-                procStarter.pwd(workspace);
-
-                // execute the script
-                int exitCode = procStarter.join();
-                if (exitCode != 0) {
-                    throw new ExecutionFailureException("Execution failed", exitCode);
-                }
+            if (exitCode != 0) {
+                throw new ExecutionFailureException("Execution failed", exitCode);
+            }
 
-            } catch (ExecutionFailureException e) {
-                throw e; // do not handle ExecutionFailureException
+        } catch (ExecutionFailureException e) {
+            throw e; // do not handle ExecutionFailureException
 
-            } catch (IOException e) {
-                Util.displayIOException(e,listener);
-                e.printStackTrace( listener.fatalError("command execution failed") );
-                throw new ExecutionFailureException("Command execution failed");
-            }
+        } catch (IOException e) {
+            Util.displayIOException(e,listener);
+            e.printStackTrace( listener.fatalError("command execution failed") );
+            throw new ExecutionFailureException("Command execution failed");
 
         } finally {
             // try to remove temporary script files
+            span = trace.span("cleanup");
             try {
-                if(scriptSource instanceof StringScriptSource && script != null){
+                if((scriptSource instanceof StringScriptSource || expandScriptMacros) && script != null){
                 	script.delete();
                 }
+                if (resultFile != null) {
+                    resultFile.delete();
+                }
+                if (responseFile != null) {
+                    responseFile.delete(listener);
+                }
+                if (executionId != null) {
+                    ResourceSampler.stop(workspace.getChannel(), executionId);
+                }
+                if (coreAllocation != null) {
+                    CoreAllocator.release(workspace.getChannel(), coreAllocation);
+                }
+                if (cgroup != null) {
+                    SchedulingPolicy.removeCgroup(workspace.getChannel(), cgroup);
+                }
             } catch (IOException e) {
                 Util.displayIOException(e,listener);
                 e.printStackTrace( listener.fatalError("Unable to delete script file " + script) );
+            } finally {
+                span.close();
+            }
+        }
+    }
+    /**
+     * Execute the script in the process of the runtime session
+     * @param build Build instance
+     * @param workspace Workspace of the build
+     * @param listener Build listener
+     * @param trace Trace of the execution
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void performInSession(Run<?, ?> build, FilePath workspace,
+                                  TaskListener listener, ExecutionTrace trace) throws InterruptedException, IOException {
+        checkUnsupportedOptions("in a runtime session", listener);
+
+        byte[] script = loadScript(build, workspace, listener, trace).getBytes(Charsets.UTF_8);
+
+        int exitCode;
+        ExecutionTrace.Span span = trace.span("session execution");
+        try {
+            exitCode = runtimeSession.execute(workspace, script, listener);
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.fatalError("runtime session failed"));
+            throw new ExecutionFailureException("Runtime session failed");
+        } finally {
+            span.close();
+        }
+        if (exitCode != 0) {
+            throw new ExecutionFailureException("Execution failed", exitCode);
+        }
+    }
+
+    /**
+     * Execute the script with a script engine in the JVM of the node
+     * @param installation Script engine runtime
+     * @param build Build instance
+     * @param workspace Workspace of the build
+     * @param listener Build listener
+     * @param trace Trace of the execution
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void performInEngine(ScriptEngineRuntimeInstallation installation, Run<?, ?> build, FilePath workspace,
+                                 TaskListener listener, ExecutionTrace trace) throws InterruptedException, IOException {
+        checkUnsupportedOptions("by script engine runtimes", listener);
+
+        // the built-in node executes the script in the controller JVM (like the script console)
+        if (!workspace.isRemote()) {
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Script engine runtimes are not executed on the built-in node.");
+            throw new ExecutionFailureException("Script engine runtime on built-in node");
+        }
+
+        String script = loadScript(build, workspace, listener, trace);
+
+        Map<String, String> envVars = build.getEnvironment(listener);
+        if (customContext != null) {
+            EnvVars vars = customContext.get(EnvVars.class);
+            if (vars != null) {
+                envVars = vars;
             }
         }
+
+        int exitCode;
+        ExecutionTrace.Span span = trace.span("script engine execution");
+        try {
+            exitCode = workspace.act(new ScriptEngineExecution(installation.getEngineName(), script, envVars,
+                    workspace.getRemote(), listener, installation.getTimeout(), installation.getCpuTimeLimit()));
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.fatalError("script engine execution failed"));
+            throw new ExecutionFailureException("Script engine execution failed");
+        } finally {
+            span.close();
+        }
+        if (exitCode != 0) {
+            throw new ExecutionFailureException("Execution failed", exitCode);
+        }
+    }
+
+    /**
+     * Check the options that are not supported without an own runtime process.
+     * Options that only affect the output are ignored with a note, options
+     * that affect the input or the result of the script fail the execution.
+     * @param mode Execution mode (end of the messages)
+     * @param listener Build listener
+     * @throws ExecutionFailureException if an option is set that affects the result
+     */
+    private void checkUnsupportedOptions(String mode, TaskListener listener) throws ExecutionFailureException {
+        List<String> ignored = new ArrayList<>();
+        if (StringUtils.isNotBlank(runtimeParameters) || StringUtils.isNotBlank(scriptParameters)) {
+            ignored.add("parameters");
+        }
+        if (minimalEnvironment) {
+            ignored.add("minimal environment");
+        }
+        if (sideLog) {
+            ignored.add("side log");
+        }
+        if (isOutputFiltered()) {
+            ignored.add("output filters");
+        }
+        if (recordResourceUsage) {
+            ignored.add("resource usage recording");
+        }
+        if (schedulingPolicy != null) {
+            ignored.add("scheduling policy");
+        }
+        if (!ignored.isEmpty()) {
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] "
+                    + StringUtils.capitalize(StringUtils.join(ignored, ", ")) + " ignored " + mode);
+        }
+
+        if (stdinFile != null || resultSizeLimit > 0) {
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Standard input file and returned results "
+                    + "are not supported " + mode + ".");
+            throw new ExecutionFailureException("Unsupported option " + mode);
+        }
+    }
+
+    /**
+     * Load the script content (with expanded macros if enabled)
+     * @param build Build instance
+     * @param workspace Workspace of the build
+     * @param listener Build listener
+     * @param trace Trace of the execution
+     * @return Script content
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private String loadScript(Run<?, ?> build, FilePath workspace,
+                              TaskListener listener, ExecutionTrace trace) throws InterruptedException, IOException {
+        ExecutionTrace.Span span = trace.span("script materialisation");
+        try {
+            // the template is cached -> the script is only loaded if it is not parsed yet
+            if (expandScriptMacros) {
+                StringWriter out = new StringWriter();
+                scriptSource.getTemplate(workspace, build, listener).expand(getMacroValues(build, listener), out);
+                return out.toString();
+            }
+            try (InputStream in = scriptSource.getScriptStream(workspace, build, listener)) {
+                return IOUtils.toString(in, Charsets.UTF_8);
+            }
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.fatalError("Unable to load the script"));
+            throw new ExecutionFailureException("Unable to load the script");
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Execute the script with an execution plan on the node in a single remote call
+     * @param build Build instance
+     * @param workspace Workspace of the build
+     * @param launcher Launcher of the node
+     * @param listener Build listener
+     * @param trace Trace of the execution
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void performOnAgent(Run<?, ?> build, FilePath workspace, Launcher launcher,
+                                TaskListener listener, ExecutionTrace trace) throws InterruptedException, IOException {
+        ExecutionPlan.Script script;
+        ExecutionTrace.Span span = trace.span("script materialisation");
+        try {
+            script = expandScriptMacros
+                    ? scriptSource.getExpandedPlanScript(workspace, build, listener, getMacroValues(build, listener))
+                    : scriptSource.getPlanScript(workspace, build, listener);
+        } catch (IOException e) {
+            Util.displayIOException(e, listener);
+            e.printStackTrace(listener.fatalError("Unable to produce a script file"));
+            throw new ExecutionFailureException("Unable to produce a script file");
+        } finally {
+            span.close();
+        }
+
+        // prepare environment variables
+        EnvVars env = build.getEnvironment(listener);
+        Map<String, String> envVars = env;
+
+        // get pipeline env vars
+        if (customContext != null) {
+            EnvVars vars = customContext.get(EnvVars.class);
+            if (vars != null) {
+                envVars = vars;
+            }
+        }
+
+        // get the runtime installation
+        span = trace.span("runtime lookup");
+        RuntimeInstallation installation = getRuntime();
+        span.close();
+        if (installation == null) {
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime executable is NULL, please check your configuration.");
+            throw new ExecutionFailureException("Empty command");
+        }
+        Computer computer = Computer.currentComputer();
+        if (computer != null) {
+            span = trace.span("node translation");
+            installation = installation.forNode(computer.getNode(), listener);
+            span.close();
+        }
+        installation = installation.forEnvironment(env);
+
+        // expand parameters on the controller
+        VariableResolver<String> vr = getParameterResolver(build, env);
+
+        ExecutionPlan plan = new ExecutionPlan(installation, launcher.isUnix(), script,
+                expandParams(runtimeParameters, vr), expandParams(scriptParameters, vr),
+                getLaunchEnvironment(envVars, workspace), workspace.getRemote());
+        if (resultSizeLimit > 0) {
+            plan.setResultSizeLimit(resultSizeLimit * 1024L);
+        }
+        if (processControl != null) {
+            plan.setProcessId(processControl.getId());
+            processControl.attach(workspace.getChannel());
+        }
+        if (recordResourceUsage) {
+            plan.setExecutionId(UUID.randomUUID().toString());
+        }
+        if (stdinFile != null) {
+            plan.setStdinFile(workspace.child(Util.replaceMacro(stdinFile, vr)).getRemote());
+        }
+        plan.setTraced(trace.isEnabled());
+        SchedulingPolicy policy = getSchedulingPolicy(installation, schedulingPolicy, listener);
+        if (policy != null) {
+            plan.setSchedulingPolicy(policy, getExecutors(workspace));
+        }
+        if (isOutputFiltered()) {
+            try {
+                plan.setOutputFilter(new OutputFilter(outputInclude, outputExclude, outputRateLimit,
+                        outputFile != null ? workspace.child(Util.replaceMacro(outputFile, vr)).getRemote() : null));
+            } catch (PatternSyntaxException e) {
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Invalid output filter: " + e.getMessage());
+                throw new ExecutionFailureException("Invalid output filter");
+            }
+        }
+        SideLog log = null;
+        if (sideLog) {
+            log = new SideLog(UUID.randomUUID().toString(), sideLogErrorPattern.isEmpty() ?
+                    SideLog.DEFAULT_ERROR_PATTERN : sideLogErrorPattern);
+            plan.setSideLog(log);
+        }
+
+        ExecutionResult result = null;
+        span = trace.span("remote execution");
+        try {
+            result = plan.execute(workspace.getChannel(), listener);
+        } catch (ExecutionFailureException e) {
+            throw e; // do not handle ExecutionFailureException
+
+        } catch (IOException e) {
+            Util.displayIOException(e,listener);
+            e.printStackTrace( listener.fatalError("command execution failed") );
+            throw new ExecutionFailureException("Command execution failed");
+        } finally {
+            span.close();
+            if (log != null) {
+                SideLogAction.archive(build, workspace, launcher, listener, log, runtimeName,
+                        result != null ? result.getSideLogLines() : -1);
+            }
+        }
+        trace.addRemote(span, result.getTrace(), computer != null ? computer.getDisplayName() : "node");
+
+        results = result.getResults();
+        recordResourceUsage(build, result.getResourceUsage());
+        if (result.getExitCode() != 0) {
+            throw new ExecutionFailureException("Execution failed", result.getExitCode());
+        }
     }
+
+    /**
+     * Get the scheduling policy of an execution
+     * @param installation Runtime installation
+     * @param stepPolicy Policy of the step or null
+     * @param listener Build listener
+     * @return Scheduling policy or null if not configured
+     * @throws ExecutionFailureException if the policy is invalid
+     */
+    public static SchedulingPolicy getSchedulingPolicy(RuntimeInstallation installation, String stepPolicy,
+                                                       TaskListener listener) throws ExecutionFailureException {
+        try {
+            return SchedulingPolicy.of(installation.getSchedulingPolicy(), stepPolicy);
+        } catch (IllegalArgumentException e) {
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Invalid scheduling policy: " + e.getMessage());
+            throw new ExecutionFailureException("Invalid scheduling policy");
+        }
+    }
+
+    /**
+     * Get the scheduling policy of an execution on a node with the launcher of the node
+     * @param installation Runtime installation
+     * @param stepPolicy Policy of the step or null
+     * @param workspace Workspace on the node
+     * @param listener Build listener
+     * @return Scheduling policy or null if not configured or not supported by the node
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static SchedulingPolicy getSchedulingPolicy(RuntimeInstallation installation, String stepPolicy,
+                                                       FilePath workspace, TaskListener listener)
+            throws IOException, InterruptedException {
+        SchedulingPolicy policy = getSchedulingPolicy(installation, stepPolicy, listener);
+        if (policy != null && !SchedulingPolicy.isSupported(workspace.getChannel())) {
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Scheduling policy is ignored, it is only supported on Linux nodes");
+            return null;
+        }
+        return policy;
+    }
+
+    /**
+     * Get the number of executors of the node of a workspace
+     * (pipeline steps have no current computer)
+     * @param workspace Workspace on the node
+     * @return Number of executors
+     */
+    public static int getExecutors(FilePath workspace) {
+        Computer computer = workspace.toComputer();
+        if (computer == null) {
+            computer = Computer.currentComputer();
+        }
+        return computer != null ? Math.max(computer.getNumExecutors(), 1) : 1;
+    }
+
+    /**
+     * Record the resource usage of an execution
+     * @param build Build instance
+     * @param usage Resource usage or null if not available on the node
+     */
+    private void recordResourceUsage(Run<?, ?> build, ResourceUsage usage) {
+        resourceUsage = usage;
+        if (usage != null) {
+            ResourceUsageAction.record(build, runtimeName, usage);
+        }
+    }
+
+    /**
+     * Get the environment variables that are sent to the node
+     * @param envVars Full environment of the execution
+     * @param workspace Workspace on the node
+     * @return Environment variables or the difference to the node environment
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private Map<String, String> getLaunchEnvironment(Map<String, String> envVars, FilePath workspace)
+            throws IOException, InterruptedException {
+        return minimalEnvironment ? EnvironmentDelta.of(envVars, workspace.getChannel()) : envVars;
+    }
+
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
     }
@@ -255,6 +944,14 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
             return RuntimeInstallation.getAllInstallations();
         }
 
+        public ListBoxModel doFillTraceFormatItems() {
+            return ExecutionTrace.getFormatItems();
+        }
+
+        public FormValidation doCheckSchedulingPolicy(@QueryParameter String value) {
+            return SchedulingPolicy.check(value);
+        }
+
         @Initializer(before = InitMilestone.PLUGINS_STARTED)
         public static void addAliases() {
             Items.XSTREAM2.addCompatibilityAlias("org.jenkinsci.plugins.script_executor.Runtime", UniversalScript.class);
@@ -304,14 +1001,20 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
      * @param build Build instance
      * @param listener Build listener
      * @param script File path to the script
+     * @param envVars Environment variables of the execution
      * @param isOnUnix True if executed on linux
+     * @param workspace Workspace of the build (directory of the response file)
+     * @param responseFile Response file of the script arguments or null
+     * @param trace Trace of the execution
      * @return Command line for script execution
      * @throws IOException
      * @throws InterruptedException
      */
     private List<String> buildCommandLine(Run<?,?> build,
                                           TaskListener listener,
-                                          FilePath script, boolean isOnUnix)
+                                          FilePath script, Map<String, String> envVars,
+                                          boolean isOnUnix, FilePath workspace,
+                                          ResponseFile responseFile, ExecutionTrace trace)
             throws IOException, InterruptedException  {
 
         ArrayList<String> list = new ArrayList<>();
@@ -321,25 +1024,86 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
 
         // prepare runtime cmd -> null = invalid
         String cmd = null;
+        // command to run a compiled script
+        List<String> compiledCmd = null;
 
         // get the runtime installation
+        ExecutionTrace.Span span = trace.span("runtime lookup");
         RuntimeInstallation installation = getRuntime();
+        span.close();
         if(installation != null) {
             Computer computer = Computer.currentComputer();
             if (computer != null) {
+                span = trace.span("node translation");
                 installation = installation.forNode(computer.getNode(), listener);
+                span.close();
             }
             installation = installation.forEnvironment(env);
 
-            cmd = installation.getExecutable(script.getChannel(), isOnUnix);
+            span = trace.span("remote probes");
+            if (installation.hasCompilePhase()) {
+                compiledCmd = installation.getCompiledCommand(
+                        script.getChannel(), isOnUnix, script, envVars, listener);
+            } else {
+                cmd = installation.getExecutable(script.getChannel(), isOnUnix);
+            }
+            span.close();
         }
-        // check if runtime command is valid
-        if (null == cmd) {
-            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime executable is NULL, please check your configuration.");
-            return null;
+
+        if (compiledCmd != null) {
+            // the compiled script replaces the runtime executable and the script
+            list.addAll(compiledCmd);
+
+        } else {
+            // check if runtime command is valid
+            if (null == cmd) {
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime executable is NULL, please check your configuration.");
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Use the label " + RuntimeLabelFinder.PREFIX
+                        + runtimeName + " to run on nodes with this runtime.");
+                return null;
+            }
+            list.add(cmd);
         }
-        list.add(cmd);
 
+        // create variable resolver
+        VariableResolver<String> vr = getParameterResolver(build, env);
+
+        // add runtimeParameters
+        list.addAll(expandParams(runtimeParameters, vr));
+
+        // add script path
+        if (compiledCmd == null) {
+            list.add(script.getRemote());
+        }
+
+        // add script runtimeParameters (large lists are passed as response file)
+        List<String> scriptArguments = expandParams(scriptParameters, vr);
+        if (responseFile != null) {
+            scriptArguments = responseFile.spill(workspace, scriptArguments, listener);
+        }
+        list.addAll(scriptArguments);
+
+        return list;
+
+    }
+
+    /**
+     * Get the variable resolver for parameters
+     * @param build Build instance
+     * @param env Environment of the build
+     * @return Variable resolver
+     */
+    public static VariableResolver<String> getParameterResolver(Run<?,?> build, EnvVars env) {
+        return new VariableResolver.ByMap<>(getParameterVariables(build, env));
+    }
+
+    /**
+     * Get the variables for macros (environment and build parameters)
+     * @param build Build instance
+     * @param env Environment of the build
+     * @return Map of variable names to values
+     */
+    public static Map<String, String> getParameterVariables(Run<?,?> build, Map<String, String> env) {
         // build parameters map
         Map<String, String> parameterVariables = new HashMap<>(env);
 
@@ -352,31 +1116,45 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
                 }
             }
         }
-        // create variable resolver
-        VariableResolver<String> vr = new VariableResolver.ByMap<>(parameterVariables);
+        return parameterVariables;
+    }
 
-        // add runtimeParameters
-        if(StringUtils.isNotBlank(runtimeParameters)) {
-            String[] args = parseParams(runtimeParameters);
-            for(String arg : args) {
-                list.add(Util.replaceMacro(arg, vr));
+    /**
+     * Get the values of the script macros
+     * @param build Build instance
+     * @param listener Build listener
+     * @return Map of variable names to values
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private Map<String, String> getMacroValues(Run<?, ?> build, TaskListener listener)
+            throws IOException, InterruptedException {
+        Map<String, String> env = build.getEnvironment(listener);
+
+        // get pipeline env vars
+        if (customContext != null) {
+            EnvVars vars = customContext.get(EnvVars.class);
+            if (vars != null) {
+                env = vars;
             }
         }
+        return getParameterVariables(build, env);
+    }
 
-        // add script path
-        list.add(script.getRemote());
-
-        // add script runtimeParameters
-        if(StringUtils.isNotBlank(scriptParameters)) {
-            String[] params = parseParams(scriptParameters);
-            for(String param : params) {
-            	param = Util.replaceMacro(param, vr);
-                list.add(param);
+    /**
+     * Parse a parameters line and replace the macros
+     * @param line Line with parameters
+     * @param vr Variable resolver
+     * @return List with expanded parameters
+     */
+    public static List<String> expandParams(String line, VariableResolver<String> vr) {
+        ArrayList<String> list = new ArrayList<>();
+        if(StringUtils.isNotBlank(line)) {
+            for(String param : parseParams(line)) {
+                list.add(Util.replaceMacro(param, vr));
             }
         }
-
         return list;
-
     }
 
     /**
@@ -428,4 +1206,76 @@ public class UniversalScript extends Builder implements SimpleBuildStep {
         return scriptParameters;
     }
 
+    /**
+     * Check if the script is executed on the node in a single remote call
+     * @return True if executed on the node
+     */
+    public boolean isAgentSideExecution() {
+        return agentSideExecution;
+    }
+
+    /**
+     * Check if only the difference to the node environment is sent
+     * @return True if minimal environment is used
+     */
+    public boolean isMinimalEnvironment() {
+        return minimalEnvironment;
+    }
+
+    /**
+     * Check if the resource usage of the execution is recorded
+     * @return True if recorded
+     */
+    public boolean isRecordResourceUsage() {
+        return recordResourceUsage;
+    }
+
+    /**
+     * Get the format of the execution trace
+     * @return Trace format or empty if disabled
+     */
+    public String getTraceFormat() {
+        return traceFormat;
+    }
+
+    /**
+     * Get the workspace file connected to the input of the script
+     * @return Path to the file or null
+     */
+    public String getStdinFile() {
+        return stdinFile;
+    }
+
+    public boolean isSideLog() {
+        return sideLog;
+    }
+
+    public String getSideLogErrorPattern() {
+        return sideLogErrorPattern;
+    }
+
+    public String getOutputInclude() {
+        return outputInclude;
+    }
+
+    public String getOutputExclude() {
+        return outputExclude;
+    }
+
+    public int getOutputRateLimit() {
+        return outputRateLimit;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public boolean isExpandScriptMacros() {
+        return expandScriptMacros;
+    }
+
+    public String getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
 }
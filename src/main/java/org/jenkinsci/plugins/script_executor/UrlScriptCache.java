@@ -0,0 +1,321 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.Util;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of scripts downloaded by URL on the local machine (agent side).
+ *
+ * Each URL is stored as a script file and a properties file with the ETag,
+ * the Last-Modified date and the time of the last check. A fresh entry is
+ * used without a request. A stale entry within the stale-while-revalidate
+ * time is used as well and revalidated in the background, otherwise it is
+ * revalidated with a conditional request before it is used. Concurrent
+ * requests of the same URL share a single download.
+ */
+public final class UrlScriptCache {
+
+    private static final Logger LOGGER = Logger.getLogger(UrlScriptCache.class.getName());
+
+    /**
+     * Connect and read timeout of a download in milliseconds
+     */
+    private static final int TIMEOUT = Integer.getInteger(UrlScriptCache.class.getName() + ".timeout", 30000);
+
+    /**
+     * Running downloads by URL
+     */
+    private static final ConcurrentMap<String, FutureTask<Entry>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    /**
+     * Executor of the background revalidations
+     */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "UrlScriptCache"));
+
+    private UrlScriptCache() {
+    }
+
+    /**
+     * Get the cache directory
+     * @return Cache directory
+     */
+    static File getRoot() {
+        return new File(AgentCache.getRoot(), "url-scripts");
+    }
+
+    /**
+     * Get the cached script of a URL (downloaded or revalidated if required)
+     * @param url URL of the script
+     * @param maxAge Time in seconds an entry is used without a request
+     * @param staleWhileRevalidate Time in seconds after maxAge a stale entry is used while it is revalidated
+     * @return Cache entry
+     * @throws IOException if the script is not cached and the download failed
+     * @throws InterruptedException
+     */
+    static Entry get(final String url, long maxAge, long staleWhileRevalidate)
+            throws IOException, InterruptedException {
+        final String key = Util.toHexString(CompileCache.getDigest().digest(url.getBytes(Charsets.UTF_8)));
+        Entry entry = load(key);
+
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.checked;
+            if (age < maxAge * 1000) {
+                entry.status = "cached";
+                return entry;
+            }
+            if (age < (maxAge + staleWhileRevalidate) * 1000) {
+                // serve stale and revalidate in the background
+                final FutureTask<Entry> task = newTask(url, key);
+                if (IN_FLIGHT.putIfAbsent(key, task) == null) {
+                    EXECUTOR.submit(new Runnable() {
+                        public void run() {
+                            runTask(key, task);
+                        }
+                    });
+                }
+                entry.status = "stale, revalidating in background";
+                return entry;
+            }
+        }
+
+        // blocking download (shared with concurrent requests)
+        FutureTask<Entry> task = newTask(url, key);
+        FutureTask<Entry> running = IN_FLIGHT.putIfAbsent(key, task);
+        if (running == null) {
+            runTask(key, task);
+            running = task;
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (entry != null) {
+                // server not reachable -> use the last known version
+                entry.status = "stale, revalidation failed: " + e.getCause();
+                return entry;
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to download " + url, e.getCause());
+        }
+    }
+
+    private static FutureTask<Entry> newTask(final String url, final String key) {
+        return new FutureTask<>(new Callable<Entry>() {
+            public Entry call() throws IOException {
+                return fetch(url, key);
+            }
+        });
+    }
+
+    private static void runTask(String key, FutureTask<Entry> task) {
+        try {
+            task.run();
+        } finally {
+            IN_FLIGHT.remove(key, task);
+        }
+        try {
+            task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            LOGGER.log(Level.FINE, "Failed to revalidate script", e);
+        }
+    }
+
+    /**
+     * Load the metadata of a cache entry
+     * @param key Key of the URL
+     * @return Cache entry or null if not cached
+     */
+    private static Entry load(String key) {
+        File file = new File(getRoot(), key + ".use");
+        File meta = new File(getRoot(), key + ".properties");
+        if (!file.isFile() || !meta.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(meta)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Invalid cache entry " + meta, e);
+            return null;
+        }
+        Entry entry = new Entry(file.getAbsolutePath());
+        entry.etag = properties.getProperty("etag");
+        entry.lastModified = properties.getProperty("lastModified");
+        try {
+            entry.checked = Long.parseLong(properties.getProperty("checked", "0"));
+        } catch (NumberFormatException e) {
+            entry.checked = 0;
+        }
+        return entry;
+    }
+
+    /**
+     * Download or revalidate a script
+     * @param url URL of the script
+     * @param key Key of the URL
+     * @return Updated cache entry
+     * @throws IOException
+     */
+    private static Entry fetch(String url, String key) throws IOException {
+        File root = getRoot();
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Failed to create cache directory " + root);
+        }
+
+        Entry cached = load(key);
+        URLConnection urlConnection = new URL(url).openConnection();
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            throw new IOException("Not a HTTP URL: " + url);
+        }
+        HttpURLConnection connection = (HttpURLConnection) urlConnection;
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setUseCaches(false);
+        if (cached != null) {
+            if (cached.etag != null) {
+                connection.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        try {
+            int code = connection.getResponseCode();
+            Entry entry;
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                entry = cached;
+                entry.status = "revalidated";
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                entry = new Entry(new File(root, key + ".use").getAbsolutePath());
+                entry.etag = connection.getHeaderField("ETag");
+                entry.lastModified = connection.getHeaderField("Last-Modified");
+                entry.status = "downloaded";
+
+                // write to temporary file -> running scripts never see a partial file
+                File tmp = File.createTempFile(key, ".tmp", root);
+                try {
+                    try (InputStream in = connection.getInputStream();
+                         OutputStream out = new FileOutputStream(tmp)) {
+                        IOUtils.copy(in, out);
+                    }
+                    Files.move(tmp.toPath(), new File(entry.path).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+            } else {
+                throw new IOException("Failed to download " + url + ": HTTP " + code);
+            }
+
+            entry.checked = System.currentTimeMillis();
+            store(root, key, entry);
+            return entry;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void store(File root, String key, Entry entry) throws IOException {
+        Properties properties = new Properties();
+        if (entry.etag != null) {
+            properties.setProperty("etag", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            properties.setProperty("lastModified", entry.lastModified);
+        }
+        properties.setProperty("checked", Long.toString(entry.checked));
+
+        File tmp = File.createTempFile(key, ".tmp", root);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                properties.store(out, null);
+            }
+            Files.move(tmp.toPath(), new File(root, key + ".properties").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Cached script of a URL
+     */
+    static final class Entry implements Serializable {
+        /**
+         * Path of the script file
+         */
+        final String path;
+        /**
+         * Result of the lookup for the build log
+         */
+        String status;
+
+        transient String etag;
+        transient String lastModified;
+        transient long checked;
+
+        Entry(String path) {
+            this.path = path;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Get the cached script of a URL on a node
+     */
+    static final class Get extends MasterToSlaveCallable<Entry, IOException> {
+        private final String url;
+        private final long maxAge;
+        private final long staleWhileRevalidate;
+
+        Get(String url, long maxAge, long staleWhileRevalidate) {
+            this.url = url;
+            this.maxAge = maxAge;
+            this.staleWhileRevalidate = staleWhileRevalidate;
+        }
+
+        @Override
+        public Entry call() throws IOException {
+            try {
+                return get(url, maxAge, staleWhileRevalidate);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while downloading " + url, e);
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,128 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.*;
+import hudson.util.FormValidation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Runtime source based on a script that is downloaded by URL.
+ *
+ * The script is cached on the node and revalidated with conditional
+ * requests (see {@link UrlScriptCache}), so the cached file is executed
+ * directly and unchanged scripts are never transferred again.
+ */
+public class UrlScriptSource extends ScriptSource {
+
+    private final String url;
+
+    /**
+     * Time in seconds the cached script is used without a request
+     */
+    private int maxAge = DescriptorImpl.DEFAULT_MAX_AGE;
+
+    /**
+     * Time in seconds after maxAge the cached script is used while it is revalidated
+     */
+    private int staleWhileRevalidate = DescriptorImpl.DEFAULT_STALE_WHILE_REVALIDATE;
+
+    @DataBoundConstructor
+    public UrlScriptSource(String url) {
+        this.url = url;
+    }
+
+    @DataBoundSetter
+    public void setMaxAge(int maxAge) {
+        this.maxAge = Math.max(maxAge, 0);
+    }
+
+    @DataBoundSetter
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        this.staleWhileRevalidate = Math.max(staleWhileRevalidate, 0);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    @Override
+    public FilePath getScriptFile(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+        EnvVars env = build.getEnvironment(listener);
+        String expandedUrl = env.expand(url);
+
+        UrlScriptCache.Entry entry = projectWorkspace.act(
+                new UrlScriptCache.Get(expandedUrl, maxAge, staleWhileRevalidate));
+        listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Script " + expandedUrl + " (" + entry.status + ")");
+        return new FilePath(projectWorkspace.getChannel(), entry.path);
+    }
+
+    @Override
+    public InputStream getScriptStream(FilePath projectWorkspace, Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+        return getScriptFile(projectWorkspace, build, listener).read();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        UrlScriptSource that = (UrlScriptSource) o;
+
+        return maxAge == that.maxAge && staleWhileRevalidate == that.staleWhileRevalidate
+                && (url != null ? url.equals(that.url) : that.url == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return url != null ? url.hashCode() : 0;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ScriptSource> {
+
+        public static final int DEFAULT_MAX_AGE = 60;
+        public static final int DEFAULT_STALE_WHILE_REVALIDATE = 3600;
+
+        @Override
+        public String getDisplayName() {
+            return "Script URL";
+        }
+
+        public FormValidation doCheckUrl(@QueryParameter String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FormValidation.error("URL is required");
+            }
+            if (value.contains("$")) {
+                // expanded with the build environment
+                return FormValidation.ok();
+            }
+            try {
+                String protocol = new URL(value.trim()).getProtocol();
+                if (!protocol.equals("http") && !protocol.equals("https")) {
+                    return FormValidation.error("Only http and https URLs are supported");
+                }
+            } catch (MalformedURLException e) {
+                return FormValidation.error("Invalid URL: " + e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -5,13 +5,21 @@ import hudson.Launcher;
 import hudson.Util;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import jenkins.util.Timer;
 import org.jenkinsci.plugins.script_executor.ExecutionFailureException;
+import org.jenkinsci.plugins.script_executor.ProcessControl;
+import org.jenkinsci.plugins.script_executor.ResultChannel;
+import org.jenkinsci.plugins.script_executor.RuntimeSession;
 import org.jenkinsci.plugins.script_executor.ScriptSource;
 import org.jenkinsci.plugins.script_executor.UniversalScript;
 import org.jenkinsci.plugins.workflow.steps.*;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Base class for pipeline steps
@@ -39,6 +47,80 @@ public abstract class BaseScriptStep extends Step {
      */
     private boolean ignoreFailedExecution = false;
 
+    /**
+     * True if the records of the result channel should be returned
+     */
+    private boolean returnResults = false;
+    /**
+     * Size limit of the result channel in KiB
+     */
+    private int resultSizeLimit = ResultChannel.DEFAULT_SIZE_LIMIT;
+
+    /**
+     * True if the script is executed on the node in a single remote call
+     */
+    private boolean agentSideExecution = false;
+
+    /**
+     * Workspace file connected to the input of the script
+     */
+    private String stdinFile = "";
+
+    /**
+     * True if only the difference to the node environment is sent
+     */
+    private boolean minimalEnvironment = false;
+
+    /**
+     * True if the resource usage of the execution is recorded and returned
+     */
+    private boolean recordResourceUsage = false;
+
+    /**
+     * Format of the execution trace (empty = disabled)
+     */
+    private String traceFormat = "";
+
+    /**
+     * True if the output is written to a compressed side log
+     */
+    private boolean sideLog = false;
+
+    /**
+     * Pattern of the side log lines that are shown in the build log (empty = default)
+     */
+    private String sideLogErrorPattern = "";
+
+    /**
+     * Pattern of the output lines that are kept (empty = all)
+     */
+    private String outputInclude = "";
+
+    /**
+     * Pattern of the output lines that are dropped (empty = none)
+     */
+    private String outputExclude = "";
+
+    /**
+     * Maximum number of output lines per second (0 = unlimited)
+     */
+    private int outputRateLimit = 0;
+
+    /**
+     * Workspace file for the unfiltered output (empty = disabled)
+     */
+    private String outputFile = "";
+
+    /**
+     * True if ${VAR} macros in the script content are expanded
+     */
+    private boolean expandScriptMacros = false;
+
+    /**
+     * Scheduling policy that overrides the settings of the runtime
+     */
+    private String schedulingPolicy = "";
+
     BaseScriptStep(@Nonnull String runtimeName, @Nonnull ScriptSource scriptSource) {
         this.runtimeName = runtimeName;
         this.scriptSource = scriptSource;
@@ -81,13 +163,149 @@ public abstract class BaseScriptStep extends Step {
         this.ignoreFailedExecution = ignoreFailedExecution;
     }
 
+    public boolean isReturnResults() {
+        return returnResults;
+    }
+
+    @DataBoundSetter
+    public void setReturnResults(boolean returnResults) {
+        this.returnResults = returnResults;
+    }
+
+    public int getResultSizeLimit() {
+        return resultSizeLimit;
+    }
+
+    @DataBoundSetter
+    public void setResultSizeLimit(int resultSizeLimit) {
+        this.resultSizeLimit = resultSizeLimit > 0 ? resultSizeLimit : ResultChannel.DEFAULT_SIZE_LIMIT;
+    }
+
+    public boolean isAgentSideExecution() {
+        return agentSideExecution;
+    }
+
+    @DataBoundSetter
+    public void setAgentSideExecution(boolean agentSideExecution) {
+        this.agentSideExecution = agentSideExecution;
+    }
+
+    public String getStdinFile() {
+        return stdinFile;
+    }
+
+    @DataBoundSetter
+    public void setStdinFile(String stdinFile) {
+        this.stdinFile = Util.fixNull(stdinFile);
+    }
+
+    public boolean isMinimalEnvironment() {
+        return minimalEnvironment;
+    }
+
+    @DataBoundSetter
+    public void setMinimalEnvironment(boolean minimalEnvironment) {
+        this.minimalEnvironment = minimalEnvironment;
+    }
+
+    public boolean isRecordResourceUsage() {
+        return recordResourceUsage;
+    }
+
+    @DataBoundSetter
+    public void setRecordResourceUsage(boolean recordResourceUsage) {
+        this.recordResourceUsage = recordResourceUsage;
+    }
+
+    public String getTraceFormat() {
+        return traceFormat;
+    }
+
+    @DataBoundSetter
+    public void setTraceFormat(String traceFormat) {
+        this.traceFormat = Util.fixNull(traceFormat);
+    }
+
+    public boolean isSideLog() {
+        return sideLog;
+    }
+
+    @DataBoundSetter
+    public void setSideLog(boolean sideLog) {
+        this.sideLog = sideLog;
+    }
+
+    public String getSideLogErrorPattern() {
+        return sideLogErrorPattern;
+    }
+
+    @DataBoundSetter
+    public void setSideLogErrorPattern(String sideLogErrorPattern) {
+        this.sideLogErrorPattern = Util.fixNull(sideLogErrorPattern);
+    }
+
+    public String getOutputInclude() {
+        return outputInclude;
+    }
+
+    @DataBoundSetter
+    public void setOutputInclude(String outputInclude) {
+        this.outputInclude = Util.fixNull(outputInclude);
+    }
+
+    public String getOutputExclude() {
+        return outputExclude;
+    }
+
+    @DataBoundSetter
+    public void setOutputExclude(String outputExclude) {
+        this.outputExclude = Util.fixNull(outputExclude);
+    }
+
+    public int getOutputRateLimit() {
+        return outputRateLimit;
+    }
+
+    @DataBoundSetter
+    public void setOutputRateLimit(int outputRateLimit) {
+        this.outputRateLimit = Math.max(outputRateLimit, 0);
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    @DataBoundSetter
+    public void setOutputFile(String outputFile) {
+        this.outputFile = Util.fixNull(outputFile);
+    }
+
+    public boolean isExpandScriptMacros() {
+        return expandScriptMacros;
+    }
+
+    @DataBoundSetter
+    public void setExpandScriptMacros(boolean expandScriptMacros) {
+        this.expandScriptMacros = expandScriptMacros;
+    }
+
+    public String getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    @DataBoundSetter
+    public void setSchedulingPolicy(String schedulingPolicy) {
+        this.schedulingPolicy = Util.fixNull(schedulingPolicy);
+    }
+
     @Override
     public StepExecution start(StepContext context) throws Exception {
         return new Execution(this, context);
     }
 
-    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Integer> {
+    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Object> {
         private final transient BaseScriptStep step;
+        private final transient ProcessControl processControl = new ProcessControl();
 
         public Execution(BaseScriptStep step, StepContext context) {
             super(context);
@@ -95,7 +313,7 @@ public abstract class BaseScriptStep extends Step {
         }
 
         @Override
-        protected Integer run() throws Exception {
+        protected Object run() throws Exception {
             StepContext context = getContext();
 
             // get universal script instance
@@ -103,10 +321,35 @@ public abstract class BaseScriptStep extends Step {
 
             // set context
             script.setCustomContext(context);
+            script.setProcessControl(processControl);
 
             // set parameters
             script.setRuntimeParameters(step.getRuntimeParameters());
             script.setScriptParameters(step.getScriptParameters());
+            script.setAgentSideExecution(step.isAgentSideExecution());
+            script.setStdinFile(step.getStdinFile());
+            script.setMinimalEnvironment(step.isMinimalEnvironment());
+            script.setRecordResourceUsage(step.isRecordResourceUsage());
+            script.setTraceFormat(step.getTraceFormat());
+            script.setSideLog(step.isSideLog());
+            script.setSideLogErrorPattern(step.getSideLogErrorPattern());
+            script.setOutputInclude(step.getOutputInclude());
+            script.setOutputExclude(step.getOutputExclude());
+            script.setOutputRateLimit(step.getOutputRateLimit());
+            script.setOutputFile(step.getOutputFile());
+            script.setExpandScriptMacros(step.isExpandScriptMacros());
+            script.setSchedulingPolicy(step.getSchedulingPolicy());
+
+            // execute in the enclosing runtime session of the same runtime
+            RuntimeSession session = context.get(RuntimeSession.class);
+            if (session != null && session.getRuntimeName().equals(step.getRuntimeName())) {
+                script.setRuntimeSession(session);
+            }
+
+            // enable result channel
+            if (step.isReturnResults()) {
+                script.setResultSizeLimit(step.getResultSizeLimit());
+            }
 
             Run<?, ?> run = context.get(Run.class);
             TaskListener listener = context.get(TaskListener.class);
@@ -123,12 +366,68 @@ public abstract class BaseScriptStep extends Step {
                 // handle failure result
                 if (step.isIgnoreFailedExecution()) {
                     listener.error("[UNIVERSAL SCRIPT EXECUTOR] " + e.getMessage());
-                    return e.getExitCode();
+                    return getResult(script, e.getExitCode());
                 } else {
                     throw e;
                 }
             }
-            return 0;
+            return getResult(script, 0);
+        }
+
+        @Override
+        public void stop(@Nonnull final Throwable cause) throws Exception {
+            final TaskListener listener = getContext().get(TaskListener.class);
+            if (processControl == null || listener == null) {
+                super.stop(cause);
+                return;
+            }
+
+            // terminate the process tree before the step thread is interrupted
+            Timer.get().submit(new Runnable() {
+                public void run() {
+                    try {
+                        processControl.terminate(listener);
+                    } catch (IOException | InterruptedException e) {
+                        listener.error("[UNIVERSAL SCRIPT EXECUTOR] Failed to terminate process: " + e);
+                    } finally {
+                        interrupt(cause);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Interrupt the step thread and fail the step
+         * @param cause Cause of the stop
+         */
+        private void interrupt(Throwable cause) {
+            try {
+                super.stop(cause);
+            } catch (Exception e) {
+                getContext().onFailure(cause);
+            }
+        }
+
+        /**
+         * Get the return value of the step
+         * @param script Executed universal script
+         * @param exitCode Exit code of the script
+         * @return Exit code or map with exit code, results and resource usage
+         */
+        private Object getResult(UniversalScript script, int exitCode) {
+            if (!step.isReturnResults() && !step.isRecordResourceUsage()) {
+                return exitCode;
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("exitCode", exitCode);
+            if (step.isReturnResults()) {
+                result.put("results", script.getResults() != null ? script.getResults() : new ArrayList<>());
+            }
+            if (step.isRecordResourceUsage() && script.getResourceUsage() != null) {
+                result.put("resourceUsage", script.getResourceUsage().toMap());
+            }
+            return result;
         }
     }
 }
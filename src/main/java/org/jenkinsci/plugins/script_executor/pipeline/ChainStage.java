@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.script_executor.pipeline;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.ListBoxModel;
+import org.jenkinsci.plugins.script_executor.RuntimeInstallation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Stage of a universal script chain
+ */
+public final class ChainStage extends AbstractDescribableImpl<ChainStage> {
+    /**
+     * Name of runtime
+     */
+    private @Nonnull String runtimeName;
+    /**
+     * Script content
+     */
+    private @Nonnull String script;
+    /**
+     * List of runtime Parameters
+     */
+    private String runtimeParameters = "";
+    /**
+     * List of script parameters
+     */
+    private String scriptParameters = "";
+
+    @DataBoundConstructor
+    public ChainStage(@Nonnull String runtimeName, @Nonnull String script) {
+        this.runtimeName = runtimeName;
+        this.script = script;
+    }
+
+    @Nonnull
+    public String getRuntimeName() {
+        return runtimeName;
+    }
+
+    @Nonnull
+    public String getScript() {
+        return script;
+    }
+
+    public String getRuntimeParameters() {
+        return runtimeParameters;
+    }
+
+    @DataBoundSetter
+    public void setRuntimeParameters(String runtimeParameters) {
+        this.runtimeParameters = Util.fixNull(runtimeParameters);
+    }
+
+    public String getScriptParameters() {
+        return scriptParameters;
+    }
+
+    @DataBoundSetter
+    public void setScriptParameters(String scriptParameters) {
+        this.scriptParameters = Util.fixNull(scriptParameters);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<ChainStage> {
+
+        @Override
+        public String getDisplayName() {
+            return "Chain stage";
+        }
+
+        public ListBoxModel doFillRuntimeNameItems() {
+            return RuntimeInstallation.getAllInstallations();
+        }
+    }
+}
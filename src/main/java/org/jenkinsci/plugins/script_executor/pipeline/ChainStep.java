@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.script_executor.pipeline;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.*;
+import hudson.model.*;
+import hudson.util.VariableResolver;
+import org.apache.commons.io.Charsets;
+import org.jenkinsci.plugins.script_executor.ChainExecution;
+import org.jenkinsci.plugins.script_executor.ExecutionFailureException;
+import org.jenkinsci.plugins.script_executor.ExecutionPlan;
+import org.jenkinsci.plugins.script_executor.RuntimeInstallation;
+import org.jenkinsci.plugins.script_executor.UniversalScript;
+import org.jenkinsci.plugins.workflow.steps.*;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pipeline step to execute a chain of universal scripts where the output
+ * of each script is the input of the next one
+ */
+public final class ChainStep extends Step {
+    /**
+     * Stages of the chain
+     */
+    private @Nonnull List<ChainStage> stages;
+    /**
+     * True if failed execution should not cause an error
+     */
+    private boolean ignoreFailedExecution = false;
+
+    @DataBoundConstructor
+    public ChainStep(@Nonnull List<ChainStage> stages) {
+        this.stages = stages;
+    }
+
+    @Nonnull
+    public List<ChainStage> getStages() {
+        return stages;
+    }
+
+    public boolean isIgnoreFailedExecution() {
+        return ignoreFailedExecution;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreFailedExecution(boolean ignoreFailedExecution) {
+        this.ignoreFailedExecution = ignoreFailedExecution;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "univScriptChain";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Execute a chain of universal scripts connected by pipes";
+        }
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            return ImmutableSet.of(FilePath.class, Run.class, Launcher.class, TaskListener.class);
+        }
+    }
+
+    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<List<Integer>> {
+        private final transient ChainStep step;
+
+        public Execution(ChainStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected List<Integer> run() throws Exception {
+            StepContext context = getContext();
+            Run<?, ?> run = context.get(Run.class);
+            TaskListener listener = context.get(TaskListener.class);
+
+            if (run == null || listener == null) {
+                throw new ExecutionFailureException("Invalid context");
+            }
+            if (step.getStages().isEmpty()) {
+                throw new ExecutionFailureException("Empty chain");
+            }
+
+            FilePath workspace = context.get(FilePath.class);
+            Launcher launcher = context.get(Launcher.class);
+
+            // prepare environment variables
+            Map<String, String> envVars = context.get(EnvVars.class);
+            EnvVars env = run.getEnvironment(listener);
+            VariableResolver<String> vr = UniversalScript.getParameterResolver(run, env);
+
+            // resolve all stages on the controller
+            List<ExecutionPlan> plans = new ArrayList<>();
+            for (ChainStage stage : step.getStages()) {
+                RuntimeInstallation installation = UniversalScript.getRuntime(stage.getRuntimeName(), context);
+                if (installation == null) {
+                    listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime "
+                            + stage.getRuntimeName() + " not found, please check your configuration.");
+                    throw new ExecutionFailureException("Empty command");
+                }
+                Computer computer = Computer.currentComputer();
+                if (computer != null) {
+                    installation = installation.forNode(computer.getNode(), listener);
+                }
+                installation = installation.forEnvironment(env);
+
+                plans.add(new ExecutionPlan(installation, launcher.isUnix(),
+                        ExecutionPlan.Script.content(stage.getScript().getBytes(Charsets.UTF_8)),
+                        UniversalScript.expandParams(stage.getRuntimeParameters(), vr),
+                        UniversalScript.expandParams(stage.getScriptParameters(), vr),
+                        envVars, workspace.getRemote()));
+            }
+
+            List<Integer> exitCodes = new ChainExecution(plans, listener).execute(workspace.getChannel());
+
+            // check the exit codes of all stages
+            for (int i = 0; i < exitCodes.size(); i++) {
+                if (exitCodes.get(i) != 0) {
+                    String message = "Execution of stage " + (i + 1) + " failed";
+                    if (step.isIgnoreFailedExecution()) {
+                        listener.error("[UNIVERSAL SCRIPT EXECUTOR] " + message);
+                    } else {
+                        throw new ExecutionFailureException(message, exitCodes.get(i));
+                    }
+                }
+            }
+            return exitCodes;
+        }
+    }
+}
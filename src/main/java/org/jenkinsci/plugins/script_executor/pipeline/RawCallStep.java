@@ -5,19 +5,34 @@ import hudson.*;
 import hudson.model.*;
 import hudson.util.ListBoxModel;
 import hudson.util.VariableResolver;
+import jenkins.util.Timer;
 import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.script_executor.CoreAllocator;
+import org.jenkinsci.plugins.script_executor.EnvironmentDelta;
 import org.jenkinsci.plugins.script_executor.ExecutionFailureException;
+import org.jenkinsci.plugins.script_executor.ExecutionPlan;
+import org.jenkinsci.plugins.script_executor.ExecutionResult;
+import org.jenkinsci.plugins.script_executor.ProcessControl;
+import org.jenkinsci.plugins.script_executor.ProcessRegistry;
+import org.jenkinsci.plugins.script_executor.ResourceSampler;
+import org.jenkinsci.plugins.script_executor.ResourceUsage;
+import org.jenkinsci.plugins.script_executor.ResourceUsageAction;
+import org.jenkinsci.plugins.script_executor.ResponseFile;
 import org.jenkinsci.plugins.script_executor.RuntimeInstallation;
+import org.jenkinsci.plugins.script_executor.SchedulingPolicy;
 import org.jenkinsci.plugins.script_executor.UniversalScript;
 import org.jenkinsci.plugins.workflow.steps.*;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 /**
  * Pipeline step to execute the runtime without a script
@@ -35,6 +50,26 @@ public final class RawCallStep extends Step {
      * True if failed execution should not cause an error
      */
     private boolean ignoreFailedExecution = false;
+    /**
+     * True if the runtime is executed on the node in a single remote call
+     */
+    private boolean agentSideExecution = false;
+    /**
+     * Workspace file connected to the input of the runtime
+     */
+    private String stdinFile = "";
+    /**
+     * True if only the difference to the node environment is sent
+     */
+    private boolean minimalEnvironment = false;
+    /**
+     * True if the resource usage of the execution is recorded and returned
+     */
+    private boolean recordResourceUsage = false;
+    /**
+     * Scheduling policy that overrides the settings of the runtime
+     */
+    private String schedulingPolicy = "";
 
     @DataBoundConstructor
     public RawCallStep(@Nonnull String runtimeName) {
@@ -64,6 +99,51 @@ public final class RawCallStep extends Step {
         this.ignoreFailedExecution = ignoreFailedExecution;
     }
 
+    public boolean isAgentSideExecution() {
+        return agentSideExecution;
+    }
+
+    @DataBoundSetter
+    public void setAgentSideExecution(boolean agentSideExecution) {
+        this.agentSideExecution = agentSideExecution;
+    }
+
+    public String getStdinFile() {
+        return stdinFile;
+    }
+
+    @DataBoundSetter
+    public void setStdinFile(String stdinFile) {
+        this.stdinFile = Util.fixNull(stdinFile);
+    }
+
+    public boolean isMinimalEnvironment() {
+        return minimalEnvironment;
+    }
+
+    @DataBoundSetter
+    public void setMinimalEnvironment(boolean minimalEnvironment) {
+        this.minimalEnvironment = minimalEnvironment;
+    }
+
+    public boolean isRecordResourceUsage() {
+        return recordResourceUsage;
+    }
+
+    @DataBoundSetter
+    public void setRecordResourceUsage(boolean recordResourceUsage) {
+        this.recordResourceUsage = recordResourceUsage;
+    }
+
+    public String getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    @DataBoundSetter
+    public void setSchedulingPolicy(String schedulingPolicy) {
+        this.schedulingPolicy = Util.fixNull(schedulingPolicy);
+    }
+
     @Override
     public StepExecution start(StepContext context) throws Exception {
         return new Execution(this, context);
@@ -95,8 +175,10 @@ public final class RawCallStep extends Step {
         }
     }
 
-    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Integer> {
+    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Object> {
         private final transient RawCallStep step;
+        private final transient ProcessControl processControl = new ProcessControl();
+        private transient ResourceUsage resourceUsage;
 
         public Execution(RawCallStep step, StepContext context) {
             super(context);
@@ -104,7 +186,7 @@ public final class RawCallStep extends Step {
         }
 
         @Override
-        protected Integer run() throws Exception {
+        protected Object run() throws Exception {
             StepContext context = getContext();
             Run<?, ?> run = context.get(Run.class);
             TaskListener listener = context.get(TaskListener.class);
@@ -134,6 +216,13 @@ public final class RawCallStep extends Step {
                     }
                     installation = installation.forEnvironment(env);
 
+                    // execute everything on the node in a single call
+                    // (input file is always connected on the node)
+                    if (step.isAgentSideExecution() || StringUtils.isNotBlank(step.getStdinFile())) {
+                        runOnAgent(installation, env, envVars, workspace, launcher, listener);
+                        return getResult(0);
+                    }
+
                     // add runtime to commandline
                     cmdLine.add(installation.getExecutable(workspace.getChannel(), launcher.isUnix()));
 
@@ -163,26 +252,82 @@ public final class RawCallStep extends Step {
                 VariableResolver<String> vr = new VariableResolver.ByMap<>(parameterVariables);
 
                 // add runtimeParameters
+                List<String> parameters = new ArrayList<>();
                 if(StringUtils.isNotBlank(step.getParameters())) {
                     String[] args = UniversalScript.parseParams(step.getParameters());
                     for(String arg : args) {
-                        cmdLine.add(Util.replaceMacro(arg, vr));
+                        parameters.add(Util.replaceMacro(arg, vr));
                     }
                 }
 
                 // ensure workspace directory exist
                 workspace.mkdirs();
 
+                // large parameter lists are passed as response file
+                ResponseFile responseFile = ResponseFile.of(installation);
+                String executionId = null;
+                String coreAllocation = null;
+                String cgroup = null;
+                int exitCode;
+                try {
+                    if (responseFile != null) {
+                        parameters = responseFile.spill(workspace, parameters, listener);
+                    }
+                    cmdLine.addAll(parameters);
+
+                    // start sampling of the resource usage
+                    if (step.isRecordResourceUsage()) {
+                        executionId = UUID.randomUUID().toString();
+                        envVars.put(ResourceSampler.ENV_VAR, executionId);
+                        ResourceSampler.start(workspace.getChannel(), executionId);
+                    }
 
-                // prepare the runtime for script execution
-                Launcher.ProcStarter procStarter = launcher.launch();
-                procStarter.cmds(cmdLine.toArray(new String[] {}));
-                procStarter.envs(envVars);
-                procStarter.stdout(listener);
-                procStarter.pwd(workspace);
+                    // mark the process tree for the termination on abort
+                    envVars.put(ProcessRegistry.ENV_VAR, processControl.getId());
+
+                    // apply the scheduling policy of the runtime and the step
+                    SchedulingPolicy policy = installation != null && launcher.isUnix()
+                            ? UniversalScript.getSchedulingPolicy(installation, step.getSchedulingPolicy(), workspace, listener) : null;
+                    if (policy != null) {
+                        String cpus = null;
+                        if (policy.isAutoCpus()) {
+                            coreAllocation = UUID.randomUUID().toString();
+                            cpus = CoreAllocator.allocate(workspace.getChannel(), coreAllocation,
+                                    policy.getAutoCores(), UniversalScript.getExecutors(workspace));
+                        }
+                        cgroup = policy.getCgroup(installation.getName(), UUID.randomUUID().toString());
+                        List<String> cmd = policy.apply(cmdLine, cpus, cgroup);
+                        cmdLine.clear();
+                        cmdLine.addAll(cmd);
+                    }
 
-                // execute the script
-                int exitCode = procStarter.join();
+                    // prepare the runtime for script execution
+                    Launcher.ProcStarter procStarter = launcher.launch();
+                    procStarter.cmds(cmdLine.toArray(new String[] {}));
+                    procStarter.envs(step.isMinimalEnvironment()
+                            ? EnvironmentDelta.of(envVars, workspace.getChannel()) : envVars);
+                    procStarter.stdout(listener);
+                    procStarter.pwd(workspace);
+
+                    // execute the script
+                    Proc proc = procStarter.start();
+                    processControl.attach(proc, workspace.getChannel());
+                    exitCode = proc.join();
+                } finally {
+                    // record the resource usage of the process tree
+                    if (executionId != null) {
+                        recordResourceUsage(run, ResourceSampler.stop(workspace.getChannel(), executionId));
+                    }
+                    if (coreAllocation != null) {
+                        CoreAllocator.release(workspace.getChannel(), coreAllocation);
+                    }
+                    if (cgroup != null) {
+                        SchedulingPolicy.removeCgroup(workspace.getChannel(), cgroup);
+                    }
+                    if (responseFile != null) {
+                        responseFile.delete(listener);
+                    }
+                }
                 if (exitCode != 0) {
                     throw new ExecutionFailureException("Execution failed", exitCode);
                 }
@@ -191,12 +336,121 @@ public final class RawCallStep extends Step {
                 // handle failure result
                 if (step.isIgnoreFailedExecution()) {
                     listener.error("[UNIVERSAL SCRIPT EXECUTOR] " + e.getMessage());
-                    return e.getExitCode();
+                    return getResult(e.getExitCode());
                 } else {
                     throw e;
                 }
             }
-            return 0;
+            return getResult(0);
+        }
+
+        /**
+         * Get the return value of the step
+         * @param exitCode Exit code of the runtime
+         * @return Exit code or map with exit code and resource usage
+         */
+        private Object getResult(int exitCode) {
+            if (!step.isRecordResourceUsage()) {
+                return exitCode;
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("exitCode", exitCode);
+            if (resourceUsage != null) {
+                result.put("resourceUsage", resourceUsage.toMap());
+            }
+            return result;
+        }
+
+        @Override
+        public void stop(@Nonnull final Throwable cause) throws Exception {
+            final TaskListener listener = getContext().get(TaskListener.class);
+            if (processControl == null || listener == null) {
+                super.stop(cause);
+                return;
+            }
+
+            // terminate the process tree before the step thread is interrupted
+            Timer.get().submit(new Runnable() {
+                public void run() {
+                    try {
+                        processControl.terminate(listener);
+                    } catch (IOException | InterruptedException e) {
+                        listener.error("[UNIVERSAL SCRIPT EXECUTOR] Failed to terminate process: " + e);
+                    } finally {
+                        interrupt(cause);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Interrupt the step thread and fail the step
+         * @param cause Cause of the stop
+         */
+        private void interrupt(Throwable cause) {
+            try {
+                super.stop(cause);
+            } catch (Exception e) {
+                getContext().onFailure(cause);
+            }
+        }
+
+        /**
+         * Record the resource usage of the execution
+         * @param run Build
+         * @param usage Resource usage or null if not available on the node
+         */
+        private void recordResourceUsage(Run<?, ?> run, ResourceUsage usage) {
+            resourceUsage = usage;
+            if (usage != null) {
+                ResourceUsageAction.record(run, step.getRuntimeName(), usage);
+            }
+        }
+
+        /**
+         * Execute the runtime with an execution plan on the node in a single remote call
+         * @param installation Runtime installation
+         * @param env Environment of the build
+         * @param envVars Environment variables of the execution
+         * @param workspace Workspace
+         * @param launcher Launcher of the node
+         * @param listener Build listener
+         * @throws Exception
+         */
+        private void runOnAgent(RuntimeInstallation installation, EnvVars env, Map<String, String> envVars,
+                                FilePath workspace, Launcher launcher, TaskListener listener) throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+
+            // expand parameters on the controller
+            VariableResolver<String> vr = UniversalScript.getParameterResolver(run, env);
+
+            ExecutionPlan plan = new ExecutionPlan(installation, launcher.isUnix(), null,
+                    UniversalScript.expandParams(step.getParameters(), vr), new ArrayList<String>(),
+                    step.isMinimalEnvironment() ? EnvironmentDelta.of(envVars, workspace.getChannel()) : envVars,
+                    workspace.getRemote());
+            if (StringUtils.isNotBlank(step.getStdinFile())) {
+                plan.setStdinFile(workspace.child(Util.replaceMacro(step.getStdinFile().trim(), vr)).getRemote());
+            }
+
+            plan.setProcessId(processControl.getId());
+            processControl.attach(workspace.getChannel());
+
+            if (step.isRecordResourceUsage()) {
+                plan.setExecutionId(UUID.randomUUID().toString());
+            }
+            SchedulingPolicy policy = UniversalScript.getSchedulingPolicy(installation, step.getSchedulingPolicy(), listener);
+            if (policy != null) {
+                plan.setSchedulingPolicy(policy, UniversalScript.getExecutors(workspace));
+            }
+
+            ExecutionResult result = plan.execute(workspace.getChannel(), listener);
+            recordResourceUsage(run, result.getResourceUsage());
+
+            int exitCode = result.getExitCode();
+            if (exitCode != 0) {
+                throw new ExecutionFailureException("Execution failed", exitCode);
+            }
         }
     }
 }
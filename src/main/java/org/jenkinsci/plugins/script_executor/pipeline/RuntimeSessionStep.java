@@ -0,0 +1,205 @@
+package org.jenkinsci.plugins.script_executor.pipeline;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.*;
+import hudson.model.*;
+import hudson.util.ListBoxModel;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.script_executor.ExecutionFailureException;
+import org.jenkinsci.plugins.script_executor.RuntimeInstallation;
+import org.jenkinsci.plugins.script_executor.RuntimeSession;
+import org.jenkinsci.plugins.script_executor.UniversalScript;
+import org.jenkinsci.plugins.workflow.steps.*;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pipeline block step that keeps one runtime process alive for the nested
+ * script steps of the same runtime. The scripts are sent to the process,
+ * so interpreter state and loaded libraries are kept between them.
+ */
+public final class RuntimeSessionStep extends Step {
+    /**
+     * Name of runtime
+     */
+    private @Nonnull String runtimeName;
+    /**
+     * Parameters of the runtime executable that start the session server
+     */
+    private String sessionParameters = "";
+
+    @DataBoundConstructor
+    public RuntimeSessionStep(@Nonnull String runtimeName) {
+        this.runtimeName = runtimeName;
+    }
+
+    @Nonnull
+    public String getRuntimeName() {
+        return runtimeName;
+    }
+
+    public String getSessionParameters() {
+        return sessionParameters;
+    }
+
+    @DataBoundSetter
+    public void setSessionParameters(String sessionParameters) {
+        this.sessionParameters = Util.fixNull(sessionParameters);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        public static final String runtimeName = null;
+
+        @Override
+        public String getFunctionName() {
+            return "withUnivRuntimeSession";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Execute nested universal scripts in one runtime process";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        public ListBoxModel doFillRuntimeNameItems() {
+            return RuntimeInstallation.getAllInstallations();
+        }
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            return ImmutableSet.of(FilePath.class, Run.class, Launcher.class, TaskListener.class);
+        }
+    }
+
+    public static final class Execution extends StepExecution {
+        private final transient RuntimeSessionStep step;
+        private transient BodyExecution body;
+
+        private RuntimeSession session;
+        private FilePath workspace;
+
+        public Execution(RuntimeSessionStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            // the process is started outside of the pipeline thread
+            Timer.get().submit(new Runnable() {
+                public void run() {
+                    try {
+                        startSession();
+                    } catch (Throwable e) {
+                        getContext().onFailure(e);
+                    }
+                }
+            });
+            return false;
+        }
+
+        /**
+         * Start the session process and the body
+         * @throws Exception
+         */
+        private void startSession() throws Exception {
+            StepContext context = getContext();
+            Run<?, ?> run = context.get(Run.class);
+            TaskListener listener = context.get(TaskListener.class);
+            Launcher launcher = context.get(Launcher.class);
+            workspace = context.get(FilePath.class);
+            if (run == null || listener == null || launcher == null || workspace == null) {
+                throw new ExecutionFailureException("Invalid context");
+            }
+
+            RuntimeInstallation installation = UniversalScript.getRuntime(step.getRuntimeName(), context);
+            if (installation == null) {
+                throw new ExecutionFailureException("Runtime " + step.getRuntimeName() + " not found");
+            }
+
+            EnvVars env = run.getEnvironment(listener);
+            Computer computer = context.get(Computer.class);
+            if (computer != null) {
+                installation = installation.forNode(computer.getNode(), listener);
+            }
+            installation = installation.forEnvironment(env);
+
+            // prepare environment variables
+            EnvVars envVars = context.get(EnvVars.class);
+            envVars = envVars != null ? new EnvVars(envVars) : env;
+            envVars.put("RUNTIME_HOME", installation.getLocalHome(workspace.getChannel(), launcher.isUnix()));
+            envVars.putAll(installation.getEnvVarMap(envVars, launcher.isUnix()));
+
+            String executable = installation.getExecutable(workspace.getChannel(), launcher.isUnix());
+            if (executable == null) {
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime executable is NULL, please check your configuration.");
+                throw new ExecutionFailureException("Empty command");
+            }
+            List<String> cmd = new ArrayList<>();
+            cmd.add(executable);
+            cmd.addAll(UniversalScript.expandParams(step.getSessionParameters(),
+                    UniversalScript.getParameterResolver(run, env)));
+
+            session = RuntimeSession.start(step.getRuntimeName(), cmd, envVars, workspace);
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Started runtime session of " + step.getRuntimeName());
+
+            body = context.newBodyInvoker()
+                    .withContext(session)
+                    .withCallback(new Callback(session, workspace))
+                    .start();
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            // terminate the process first -> running scripts of the body return
+            if (session != null && workspace != null) {
+                TaskListener listener = getContext().get(TaskListener.class);
+                session.stop(workspace.getChannel(), listener != null ? listener : TaskListener.NULL);
+            }
+            if (body != null) {
+                body.cancel(cause);
+            } else {
+                getContext().onFailure(cause);
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Stop the session at the end of the body
+     */
+    private static final class Callback extends BodyExecutionCallback.TailCall {
+        private final RuntimeSession session;
+        private final FilePath workspace;
+
+        Callback(RuntimeSession session, FilePath workspace) {
+            this.session = session;
+            this.workspace = workspace;
+        }
+
+        @Override
+        protected void finished(StepContext context) throws Exception {
+            TaskListener listener = context.get(TaskListener.class);
+            session.stop(workspace.getChannel(), listener != null ? listener : TaskListener.NULL);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
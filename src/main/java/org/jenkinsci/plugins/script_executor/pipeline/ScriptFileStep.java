@@ -8,6 +8,7 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
 import org.jenkinsci.plugins.script_executor.FileScriptSource;
+import org.jenkinsci.plugins.script_executor.ExecutionTrace;
 import org.jenkinsci.plugins.script_executor.RuntimeInstallation;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -56,6 +57,10 @@ public final class ScriptFileStep extends BaseScriptStep {
             return RuntimeInstallation.getAllInstallations();
         }
 
+        public ListBoxModel doFillTraceFormatItems() {
+            return ExecutionTrace.getFormatItems();
+        }
+
         @Override
         public Set<Class<?>> getRequiredContext() {
             return ImmutableSet.of(FilePath.class, Run.class, Launcher.class, TaskListener.class);
@@ -7,6 +7,7 @@ import hudson.Launcher;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
+import org.jenkinsci.plugins.script_executor.ExecutionTrace;
 import org.jenkinsci.plugins.script_executor.RuntimeInstallation;
 import org.jenkinsci.plugins.script_executor.StringScriptSource;
 import org.jenkinsci.plugins.workflow.steps.*;
@@ -56,6 +57,10 @@ public final class ScriptStringStep extends BaseScriptStep {
             return RuntimeInstallation.getAllInstallations();
         }
 
+        public ListBoxModel doFillTraceFormatItems() {
+            return ExecutionTrace.getFormatItems();
+        }
+
         @Override
         public Set<Class<?>> getRequiredContext() {
             return ImmutableSet.of(FilePath.class, Run.class, Launcher.class, TaskListener.class);
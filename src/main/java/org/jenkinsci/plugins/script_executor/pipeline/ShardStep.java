@@ -0,0 +1,668 @@
+package org.jenkinsci.plugins.script_executor.pipeline;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.*;
+import hudson.model.*;
+import hudson.model.Queue;
+import hudson.remoting.VirtualChannel;
+import hudson.model.queue.AbstractQueueTask;
+import hudson.model.queue.SubTask;
+import hudson.model.queue.Tasks;
+import hudson.security.ACL;
+import hudson.util.ListBoxModel;
+import hudson.util.VariableResolver;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.script_executor.ExecutionFailureException;
+import org.jenkinsci.plugins.script_executor.ExecutionPlan;
+import org.jenkinsci.plugins.script_executor.RuntimeInstallation;
+import org.jenkinsci.plugins.script_executor.SchedulingPolicy;
+import org.jenkinsci.plugins.script_executor.UniversalScript;
+import org.jenkinsci.plugins.workflow.steps.*;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import org.acegisecurity.Authentication;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipeline step to split the work list of a universal script into shards
+ * which are executed on all online nodes with a label.
+ *
+ * Each shard is a task of the build queue, so it occupies an executor of the
+ * node and is subject to the node restrictions and the permissions of the
+ * job like a <code>node(label)</code> block. The step itself needs no node,
+ * so it does not hold an executor while its shards wait in the queue.
+ */
+public final class ShardStep extends Step {
+    /**
+     * Environment variable with the id of the shard
+     */
+    public static final String SHARD_ID = "UNIV_SHARD_ID";
+    /**
+     * Environment variable with the number of shards
+     */
+    public static final String SHARD_COUNT = "UNIV_SHARD_COUNT";
+    /**
+     * Environment variable with the path of the file with the work items of the shard (one per line)
+     */
+    public static final String SHARD_ITEMS_FILE = "UNIV_SHARD_ITEMS_FILE";
+
+    /**
+     * Name of runtime
+     */
+    private @Nonnull String runtimeName;
+    /**
+     * Script content
+     */
+    private @Nonnull String script;
+    /**
+     * Label of the nodes
+     */
+    private @Nonnull String label;
+    /**
+     * Work list (one item per line)
+     */
+    private String workList = "";
+    /**
+     * Path to a work list file in the workspace (one item per line)
+     */
+    private String workListFile = "";
+    /**
+     * Number of shards (0 = one per node)
+     */
+    private int shards = 0;
+    /**
+     * Number of queued or running shards per node
+     */
+    private int shardsPerNode = 1;
+    /**
+     * List of runtime Parameters
+     */
+    private String runtimeParameters = "";
+    /**
+     * List of script parameters
+     */
+    private String scriptParameters = "";
+    /**
+     * True if failed execution should not cause an error
+     */
+    private boolean ignoreFailedExecution = false;
+
+    @DataBoundConstructor
+    public ShardStep(@Nonnull String runtimeName, @Nonnull String script, @Nonnull String label) {
+        this.runtimeName = runtimeName;
+        this.script = script;
+        this.label = label;
+    }
+
+    @Nonnull
+    public String getRuntimeName() {
+        return runtimeName;
+    }
+
+    @Nonnull
+    public String getScript() {
+        return script;
+    }
+
+    @Nonnull
+    public String getLabel() {
+        return label;
+    }
+
+    public String getWorkList() {
+        return workList;
+    }
+
+    @DataBoundSetter
+    public void setWorkList(String workList) {
+        this.workList = Util.fixNull(workList);
+    }
+
+    public String getWorkListFile() {
+        return workListFile;
+    }
+
+    @DataBoundSetter
+    public void setWorkListFile(String workListFile) {
+        this.workListFile = Util.fixNull(workListFile);
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    @DataBoundSetter
+    public void setShards(int shards) {
+        this.shards = Math.max(0, shards);
+    }
+
+    public int getShardsPerNode() {
+        return shardsPerNode;
+    }
+
+    @DataBoundSetter
+    public void setShardsPerNode(int shardsPerNode) {
+        this.shardsPerNode = Math.max(1, shardsPerNode);
+    }
+
+    public String getRuntimeParameters() {
+        return runtimeParameters;
+    }
+
+    @DataBoundSetter
+    public void setRuntimeParameters(String runtimeParameters) {
+        this.runtimeParameters = Util.fixNull(runtimeParameters);
+    }
+
+    public String getScriptParameters() {
+        return scriptParameters;
+    }
+
+    @DataBoundSetter
+    public void setScriptParameters(String scriptParameters) {
+        this.scriptParameters = Util.fixNull(scriptParameters);
+    }
+
+    public boolean isIgnoreFailedExecution() {
+        return ignoreFailedExecution;
+    }
+
+    @DataBoundSetter
+    public void setIgnoreFailedExecution(boolean ignoreFailedExecution) {
+        this.ignoreFailedExecution = ignoreFailedExecution;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        public static final String runtimeName = null;
+
+        @Override
+        public String getFunctionName() {
+            return "univScriptShard";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Execute a universal script sharded over nodes";
+        }
+
+        public ListBoxModel doFillRuntimeNameItems() {
+            return RuntimeInstallation.getAllInstallations();
+        }
+
+        @Override
+        public Set<Class<?>> getRequiredContext() {
+            // no node -> the step does not block an executor that its shards may need
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+    }
+
+    /**
+     * Result of a single shard
+     */
+    private static final class ShardResult {
+        private final int id;
+        private volatile String node;
+        private volatile int exitCode = -1;
+        private volatile long duration;
+        private volatile boolean nodeFailed;
+        private int attempts = 0;
+
+        ShardResult(int id) {
+            this.id = id;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("id", id);
+            map.put("node", node);
+            map.put("exitCode", exitCode);
+            map.put("durationMillis", duration);
+            return map;
+        }
+    }
+
+    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Map<String, Object>> {
+        private final transient ShardStep step;
+
+        public Execution(ShardStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Map<String, Object> run() throws Exception {
+            StepContext context = getContext();
+            final Run<?, ?> run = context.get(Run.class);
+            final TaskListener listener = context.get(TaskListener.class);
+
+            if (run == null || listener == null) {
+                throw new ExecutionFailureException("Invalid context");
+            }
+
+            // get the work list
+            final List<String> items = getWorkItems(context.get(FilePath.class));
+
+            // get the nodes
+            List<Node> nodes = new ArrayList<>();
+            Label label = Jenkins.getInstance().getLabel(step.getLabel());
+            if (label != null) {
+                for (Node node : label.getNodes()) {
+                    Computer computer = node.toComputer();
+                    if (computer != null && computer.isOnline() && computer.getNumExecutors() > 0) {
+                        nodes.add(node);
+                    }
+                }
+            }
+            if (nodes.isEmpty()) {
+                throw new ExecutionFailureException("No online node with label " + step.getLabel());
+            }
+
+            // get the runtime installation
+            final RuntimeInstallation runtime = UniversalScript.getRuntime(step.getRuntimeName(), null);
+            if (runtime == null) {
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR - ERROR] Runtime executable is NULL, please check your configuration.");
+                throw new ExecutionFailureException("Empty command");
+            }
+
+            // prepare environment variables -> only the build specific variables
+            final EnvVars env = run.getEnvironment(listener);
+            final Map<String, String> envVars = new HashMap<>(env);
+            Computer current = context.get(Computer.class);
+            if (current != null) {
+                for (Map.Entry<String, String> entry : current.getEnvironment().entrySet()) {
+                    if (entry.getValue().equals(envVars.get(entry.getKey()))) {
+                        envVars.remove(entry.getKey());
+                    }
+                }
+            }
+            VariableResolver<String> vr = UniversalScript.getParameterResolver(run, env);
+            final List<String> runtimeArguments = UniversalScript.expandParams(step.getRuntimeParameters(), vr);
+            final List<String> scriptArguments = UniversalScript.expandParams(step.getScriptParameters(), vr);
+
+            // partition the work list
+            final int shardCount = step.getShards() > 0 ? step.getShards() : nodes.size();
+            final List<ShardResult> results = new ArrayList<>();
+            for (int i = 0; i < shardCount; i++) {
+                results.add(new ShardResult(i));
+            }
+
+            listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Executing " + items.size() + " items in "
+                    + shardCount + " shards on " + nodes.size() + " nodes");
+
+            // the build queue assigns the shards to executors of the nodes
+            Shards shards = new Shards(step, run, listener, label, runtime, env, envVars,
+                    runtimeArguments, scriptArguments, items, shardCount);
+            Deque<ShardResult> pending = new ArrayDeque<>(results);
+            Map<ShardTask, Future<?>> active = new LinkedHashMap<>();
+            int limit = nodes.size() * step.getShardsPerNode();
+            Queue buildQueue = Jenkins.getInstance().getQueue();
+            try {
+                while (!pending.isEmpty() || !active.isEmpty()) {
+                    while (!pending.isEmpty() && active.size() < limit) {
+                        ShardResult shard = pending.poll();
+                        shard.attempts++;
+                        ShardTask task = new ShardTask(shards, shard);
+                        Queue.Item item = buildQueue.schedule2(task, 0).getItem();
+                        if (item == null) {
+                            throw new ExecutionFailureException("Failed to schedule shard " + shard.id);
+                        }
+                        active.put(task, item.getFuture());
+                    }
+
+                    shards.finished.poll(500, TimeUnit.MILLISECONDS);
+                    for (Iterator<Map.Entry<ShardTask, Future<?>>> it = active.entrySet().iterator(); it.hasNext(); ) {
+                        Map.Entry<ShardTask, Future<?>> entry = it.next();
+                        if (!entry.getValue().isDone()) {
+                            continue;
+                        }
+                        it.remove();
+
+                        ShardResult shard = entry.getKey().shard;
+                        if (entry.getValue().isCancelled()) {
+                            listener.error("[UNIVERSAL SCRIPT EXECUTOR] Shard " + shard.id + " was cancelled");
+                        } else if (shard.nodeFailed && shard.attempts < 2) {
+                            // node is broken -> give shard to the other nodes
+                            shard.nodeFailed = false;
+                            pending.add(shard);
+                        }
+                    }
+                }
+            } catch (InterruptedException | ExecutionFailureException e) {
+                // aborted -> remove queued shards and stop running shards
+                for (ShardTask task : active.keySet()) {
+                    buildQueue.cancel(task);
+                    task.interrupt();
+                }
+                throw e;
+            }
+
+            // merge results
+            List<Integer> exitCodes = new ArrayList<>();
+            List<Map<String, Object>> shardResults = new ArrayList<>();
+            int failed = 0;
+            for (ShardResult result : results) {
+                exitCodes.add(result.exitCode);
+                shardResults.add(result.toMap());
+                if (result.exitCode != 0) {
+                    failed++;
+                }
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("exitCodes", exitCodes);
+            result.put("shards", shardResults);
+            result.put("failed", failed);
+
+            if (failed > 0) {
+                String message = failed + " of " + shardCount + " shards failed";
+                if (step.isIgnoreFailedExecution()) {
+                    listener.error("[UNIVERSAL SCRIPT EXECUTOR] " + message);
+                } else {
+                    throw new ExecutionFailureException(message, 1);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Get the items of the work list
+         * @param workspace Workspace of the enclosing node block or null
+         * @return List of work items
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private List<String> getWorkItems(FilePath workspace) throws IOException, InterruptedException {
+            String content = step.getWorkList();
+            if (StringUtils.isNotBlank(step.getWorkListFile())) {
+                if (workspace == null) {
+                    throw new ExecutionFailureException("Work list file " + step.getWorkListFile()
+                            + " requires a workspace, use the work list outside of a node block");
+                }
+                content = workspace.child(step.getWorkListFile()).readToString();
+            }
+
+            List<String> items = new ArrayList<>();
+            for (String line : content.split("\r?\n")) {
+                if (!line.trim().isEmpty()) {
+                    items.add(line);
+                }
+            }
+            return items;
+        }
+    }
+
+    /**
+     * Settings shared by all shards of a step execution
+     */
+    private static final class Shards {
+        private final ShardStep step;
+        private final Run<?, ?> run;
+        private final TaskListener listener;
+        private final Label label;
+        private final RuntimeInstallation runtime;
+        private final EnvVars env;
+        private final Map<String, String> envVars;
+        private final List<String> runtimeArguments;
+        private final List<String> scriptArguments;
+        private final List<String> items;
+        private final int shardCount;
+        /**
+         * Tasks of finished shards (wakes up the step)
+         */
+        private final BlockingQueue<ShardTask> finished = new LinkedBlockingQueue<>();
+
+        Shards(ShardStep step, Run<?, ?> run, TaskListener listener, Label label, RuntimeInstallation runtime,
+               EnvVars env, Map<String, String> envVars, List<String> runtimeArguments,
+               List<String> scriptArguments, List<String> items, int shardCount) {
+            this.step = step;
+            this.run = run;
+            this.listener = listener;
+            this.label = label;
+            this.runtime = runtime;
+            this.env = env;
+            this.envVars = envVars;
+            this.runtimeArguments = runtimeArguments;
+            this.scriptArguments = scriptArguments;
+            this.items = items;
+            this.shardCount = shardCount;
+        }
+    }
+
+    /**
+     * Queue task of a single shard
+     */
+    private static final class ShardTask extends AbstractQueueTask implements Queue.TransientTask {
+        private final Shards shards;
+        private final ShardResult shard;
+        private volatile Executor executor;
+
+        ShardTask(Shards shards, ShardResult shard) {
+            this.shards = shards;
+            this.shard = shard;
+        }
+
+        /**
+         * Interrupt the running shard
+         */
+        void interrupt() {
+            Executor current = executor;
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return getDisplayName();
+        }
+
+        @Override
+        public String getFullDisplayName() {
+            return shards.run.getFullDisplayName() + " shard " + shard.id;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return getFullDisplayName();
+        }
+
+        @Override
+        public void checkAbortPermission() {
+            shards.run.getParent().checkPermission(Item.CANCEL);
+        }
+
+        @Override
+        public boolean hasAbortPermission() {
+            return shards.run.getParent().hasPermission(Item.CANCEL);
+        }
+
+        @Override
+        public String getUrl() {
+            return shards.run.getUrl();
+        }
+
+        @Override
+        public boolean isConcurrentBuild() {
+            return false;
+        }
+
+        @Override
+        public Label getAssignedLabel() {
+            return shards.label;
+        }
+
+        @Override
+        public Node getLastBuiltOn() {
+            return null;
+        }
+
+        @Override
+        public long getEstimatedDuration() {
+            return -1;
+        }
+
+        @Override
+        public ResourceList getResourceList() {
+            return new ResourceList();
+        }
+
+        @Nonnull
+        @Override
+        public Authentication getDefaultAuthentication() {
+            // shards run with the authentication of the job
+            Job<?, ?> job = shards.run.getParent();
+            return job instanceof Queue.Task ? Tasks.getDefaultAuthenticationOf((Queue.Task) job) : ACL.SYSTEM;
+        }
+
+        @Nonnull
+        @Override
+        public Authentication getDefaultAuthentication(Queue.Item item) {
+            return getDefaultAuthentication();
+        }
+
+        @Override
+        public Queue.Executable createExecutable() {
+            return new ShardExecutable(this);
+        }
+    }
+
+    /**
+     * Execution of a shard in an executor of a node
+     */
+    private static final class ShardExecutable implements Queue.Executable {
+        private final ShardTask task;
+
+        ShardExecutable(ShardTask task) {
+            this.task = task;
+        }
+
+        @Nonnull
+        @Override
+        public SubTask getParent() {
+            return task;
+        }
+
+        @Override
+        public long getEstimatedDuration() {
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return task.getFullDisplayName();
+        }
+
+        @Override
+        public void run() {
+            task.executor = Executor.currentExecutor();
+            try {
+                execute();
+            } catch (InterruptedException e) {
+                task.shards.listener.error("[UNIVERSAL SCRIPT EXECUTOR] Shard " + task.shard.id + " aborted");
+            } finally {
+                task.executor = null;
+                task.shards.finished.add(task);
+            }
+        }
+
+        /**
+         * Execute the shard on the node of the executor
+         * @throws InterruptedException
+         */
+        private void execute() throws InterruptedException {
+            Shards shards = task.shards;
+            ShardResult shard = task.shard;
+            TaskListener listener = shards.listener;
+
+            Executor executor = task.executor;
+            Computer computer = executor != null ? executor.getOwner() : null;
+            Node node = computer != null ? computer.getNode() : null;
+            VirtualChannel channel = computer != null ? computer.getChannel() : null;
+            FilePath root = node != null ? node.getRootPath() : null;
+            if (channel == null || root == null) {
+                shard.nodeFailed = true;
+                return;
+            }
+            String nodeName = node.getDisplayName();
+            shard.node = nodeName;
+
+            FilePath pwd = root.child("universal-script-shards").child(shards.run.getParent().getFullName())
+                    .child(String.valueOf(shards.run.getNumber())).child("shard-" + shard.id);
+            long start = System.currentTimeMillis();
+            try {
+                RuntimeInstallation installation = shards.runtime.forNode(node, listener).forEnvironment(shards.env);
+                boolean isUnix = node.createLauncher(listener).isUnix();
+                SchedulingPolicy policy = UniversalScript.getSchedulingPolicy(installation, null, listener);
+
+                // slice of the work list -> file in the shard directory (no size limit of the environment)
+                int from = shard.id * shards.items.size() / shards.shardCount;
+                int to = (shard.id + 1) * shards.items.size() / shards.shardCount;
+                pwd.mkdirs();
+                FilePath itemsFile = pwd.child("items.txt");
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(itemsFile.write(), Charsets.UTF_8))) {
+                    for (String item : shards.items.subList(from, to)) {
+                        writer.write(item);
+                        writer.write('\n');
+                    }
+                }
+
+                Map<String, String> shardEnv = new HashMap<>(shards.envVars);
+                shardEnv.put(SHARD_ID, String.valueOf(shard.id));
+                shardEnv.put(SHARD_COUNT, String.valueOf(shards.shardCount));
+                shardEnv.put(SHARD_ITEMS_FILE, itemsFile.getRemote());
+
+                ExecutionPlan plan = new ExecutionPlan(installation, isUnix,
+                        ExecutionPlan.Script.content(shards.step.getScript().getBytes(Charsets.UTF_8)),
+                        shards.runtimeArguments, shards.scriptArguments, shardEnv, pwd.getRemote());
+                if (policy != null) {
+                    plan.setSchedulingPolicy(policy, Math.max(computer.getNumExecutors(), 1));
+                }
+
+                listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Shard " + shard.id + " started on " + nodeName);
+                try {
+                    shard.exitCode = plan.execute(channel, listener).getExitCode();
+                    shard.duration = System.currentTimeMillis() - start;
+                    listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Shard " + shard.id + " finished on "
+                            + nodeName + " with exit code " + shard.exitCode + " in " + shard.duration + " ms");
+
+                } catch (ExecutionFailureException e) {
+                    shard.exitCode = e.getExitCode() != 0 ? e.getExitCode() : 1;
+                    shard.duration = System.currentTimeMillis() - start;
+                    listener.error("[UNIVERSAL SCRIPT EXECUTOR] Shard " + shard.id + " failed on " + nodeName + ": " + e.getMessage());
+                }
+
+            } catch (IOException e) {
+                shard.nodeFailed = true;
+                listener.error("[UNIVERSAL SCRIPT EXECUTOR] Node " + nodeName + " failed: " + e);
+            } finally {
+                try {
+                    pwd.deleteRecursive();
+                } catch (IOException e) {
+                    // node may be gone -> report and keep the result of the shard
+                    listener.getLogger().println("[UNIVERSAL SCRIPT EXECUTOR] Failed to delete " + pwd.getRemote() + ": " + e);
+                }
+            }
+        }
+    }
+}
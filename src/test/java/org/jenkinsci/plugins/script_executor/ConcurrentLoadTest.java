@@ -0,0 +1,248 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.tools.ToolProperty;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of concurrent script steps and freestyle builds.
+ *
+ * The test is only executed if enabled with
+ * <code>-Dorg.jenkinsci.plugins.script_executor.ConcurrentLoadTest.enabled=true</code>.
+ * It writes a report to target/load-test-report.json and fails if one of the
+ * thresholds is exceeded (all settings are system properties with the prefix
+ * of this class):
+ * <ul>
+ *     <li><code>.pipelines</code> - number of concurrent pipelines (3 steps each, default 100)</li>
+ *     <li><code>.freestyle</code> - number of concurrent freestyle builds (default 100)</li>
+ *     <li><code>.minThroughput</code> - minimal steps per second (default 0 = disabled)</li>
+ *     <li><code>.maxP99Millis</code> - maximal p99 step latency (default 60000)</li>
+ *     <li><code>.maxThreads</code> - maximal controller thread count (default 2000)</li>
+ *     <li><code>.maxHeapMB</code> - maximal used heap (default 0 = disabled)</li>
+ * </ul>
+ */
+public class ConcurrentLoadTest {
+
+    private static final String PREFIX = ConcurrentLoadTest.class.getName();
+
+    private static final Pattern LATENCY = Pattern.compile("LATENCY (\\w+) (\\d+)");
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("load test disabled", Boolean.getBoolean(PREFIX + ".enabled"));
+        Assume.assumeTrue("load test requires a unix shell", SystemUtils.IS_OS_UNIX);
+
+        // dummy runtime: the shell of the machine
+        j.jenkins.getDescriptorByType(RuntimeInstallation.DescriptorImpl.class).setInstallations(
+                new RuntimeInstallation("sh", "/bin", "", "sh", "", "", "", "",
+                        Collections.<ToolProperty<?>>emptyList()));
+        j.jenkins.setQuietPeriod(0);
+    }
+
+    @Test
+    public void concurrentSteps() throws Exception {
+        int pipelines = Integer.getInteger(PREFIX + ".pipelines", 100);
+        int freestyle = Integer.getInteger(PREFIX + ".freestyle", 100);
+        j.jenkins.setNumExecutors(pipelines + freestyle);
+
+        List<WorkflowJob> workflowJobs = new ArrayList<>();
+        for (int i = 0; i < pipelines; i++) {
+            WorkflowJob job = j.jenkins.createProject(WorkflowJob.class, "pipeline-" + i);
+            job.setDefinition(new CpsFlowDefinition(
+                    "node {\n"
+                    + "  writeFile file: 'load.sh', text: \"echo file ${env.BUILD_TAG}\"\n"
+                    + "  def t = System.nanoTime()\n"
+                    + "  univScriptExec script: 'echo inline', runtimeName: 'sh'\n"
+                    + "  echo \"LATENCY univScriptExec ${(System.nanoTime() - t).intdiv(1000000)}\"\n"
+                    + "  t = System.nanoTime()\n"
+                    + "  univScriptExecFile filePath: 'load.sh', runtimeName: 'sh'\n"
+                    + "  echo \"LATENCY univScriptExecFile ${(System.nanoTime() - t).intdiv(1000000)}\"\n"
+                    + "  t = System.nanoTime()\n"
+                    + "  univScriptRuntimeCall runtimeName: 'sh', parameters: '-c \"echo raw\"'\n"
+                    + "  echo \"LATENCY univScriptRuntimeCall ${(System.nanoTime() - t).intdiv(1000000)}\"\n"
+                    + "}", false));
+            workflowJobs.add(job);
+        }
+        List<FreeStyleProject> freestyleJobs = new ArrayList<>();
+        for (int i = 0; i < freestyle; i++) {
+            FreeStyleProject project = j.createFreeStyleProject("freestyle-" + i);
+            project.getBuildersList().add(new UniversalScript(new StringScriptSource("echo freestyle"), "sh"));
+            freestyleJobs.add(project);
+        }
+
+        Sampler sampler = new Sampler();
+        sampler.start();
+        long start = System.nanoTime();
+
+        // start everything at once
+        List<Future<WorkflowRun>> workflowRuns = new ArrayList<>();
+        for (WorkflowJob job : workflowJobs) {
+            workflowRuns.add(job.scheduleBuild2(0));
+        }
+        List<Future<FreeStyleBuild>> freestyleRuns = new ArrayList<>();
+        for (FreeStyleProject project : freestyleJobs) {
+            freestyleRuns.add(project.scheduleBuild2(0));
+        }
+
+        // collect the latencies
+        Map<String, List<Long>> latencies = new TreeMap<>();
+        int failed = 0;
+        for (Future<WorkflowRun> future : workflowRuns) {
+            WorkflowRun run = future.get(30, TimeUnit.MINUTES);
+            failed += run.getResult() == Result.SUCCESS ? 0 : 1;
+            Matcher matcher = LATENCY.matcher(JenkinsRule.getLog(run));
+            while (matcher.find()) {
+                add(latencies, matcher.group(1), Long.parseLong(matcher.group(2)));
+            }
+        }
+        for (Future<FreeStyleBuild> future : freestyleRuns) {
+            Run<?, ?> run = future.get(30, TimeUnit.MINUTES);
+            failed += run.getResult() == Result.SUCCESS ? 0 : 1;
+            add(latencies, "UniversalScript", run.getDuration());
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.finish();
+
+        // report
+        int steps = 0;
+        List<Long> all = new ArrayList<>();
+        JSONObject stepReport = new JSONObject();
+        for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+            List<Long> values = entry.getValue();
+            Collections.sort(values);
+            steps += values.size();
+            all.addAll(values);
+
+            JSONObject report = new JSONObject();
+            report.put("count", values.size());
+            report.put("p50Millis", percentile(values, 50));
+            report.put("p99Millis", percentile(values, 99));
+            report.put("maxMillis", values.get(values.size() - 1));
+            stepReport.put(entry.getKey(), report);
+        }
+        Collections.sort(all);
+
+        double throughput = steps / seconds;
+        long p99 = percentile(all, 99);
+        long heapMB = sampler.peakHeap / (1024 * 1024);
+
+        JSONObject report = new JSONObject();
+        report.put("pipelines", pipelines);
+        report.put("freestyleBuilds", freestyle);
+        report.put("steps", steps);
+        report.put("failedBuilds", failed);
+        report.put("durationSeconds", seconds);
+        report.put("stepsPerSecond", throughput);
+        report.put("p50Millis", percentile(all, 50));
+        report.put("p99Millis", p99);
+        report.put("peakThreads", sampler.peakThreads);
+        report.put("peakHeapMB", heapMB);
+        report.put("stepTypes", stepReport);
+
+        File reportFile = new File("target", "load-test-report.json");
+        FileUtils.writeStringToFile(reportFile, report.toString(2), "UTF-8");
+
+        // thresholds
+        List<String> violations = new ArrayList<>();
+        if (failed > 0) {
+            violations.add(failed + " builds failed");
+        }
+        double minThroughput = Double.parseDouble(System.getProperty(PREFIX + ".minThroughput", "0"));
+        if (minThroughput > 0 && throughput < minThroughput) {
+            violations.add("throughput " + throughput + " steps/s < " + minThroughput);
+        }
+        long maxP99 = Long.getLong(PREFIX + ".maxP99Millis", 60000);
+        if (maxP99 > 0 && p99 > maxP99) {
+            violations.add("p99 latency " + p99 + " ms > " + maxP99);
+        }
+        int maxThreads = Integer.getInteger(PREFIX + ".maxThreads", 2000);
+        if (maxThreads > 0 && sampler.peakThreads > maxThreads) {
+            violations.add("peak threads " + sampler.peakThreads + " > " + maxThreads);
+        }
+        long maxHeap = Long.getLong(PREFIX + ".maxHeapMB", 0);
+        if (maxHeap > 0 && heapMB > maxHeap) {
+            violations.add("peak heap " + heapMB + " MB > " + maxHeap);
+        }
+        assertTrue("Load test thresholds exceeded (see " + reportFile + "): " + violations, violations.isEmpty());
+    }
+
+    private static void add(Map<String, List<Long>> latencies, String step, long millis) {
+        List<Long> values = latencies.get(step);
+        if (values == null) {
+            values = new ArrayList<>();
+            latencies.put(step, values);
+        }
+        values.add(millis);
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+
+    /**
+     * Sampler of the thread count and heap usage of the controller
+     */
+    private static final class Sampler extends Thread {
+        private volatile boolean running = true;
+        private volatile int peakThreads;
+        private volatile long peakHeap;
+
+        Sampler() {
+            super("Load test sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peakThreads = Math.max(peakThreads, ManagementFactory.getThreadMXBean().getThreadCount());
+                peakHeap = Math.max(peakHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void finish() throws InterruptedException {
+            running = false;
+            join();
+        }
+    }
+}
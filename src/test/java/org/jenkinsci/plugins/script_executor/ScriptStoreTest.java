@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.script_executor;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.tools.ToolProperty;
+import org.apache.commons.lang.SystemUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Migration of inline scripts to the script store and its garbage collection
+ */
+public class ScriptStoreTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("test requires a unix shell", SystemUtils.IS_OS_UNIX);
+
+        // dummy runtime: the shell of the machine
+        j.jenkins.getDescriptorByType(RuntimeInstallation.DescriptorImpl.class).setInstallations(
+                new RuntimeInstallation("sh", "/bin", "", "sh", "", "", "", "",
+                        Collections.<ToolProperty<?>>emptyList()));
+    }
+
+    @Test
+    public void migratedScriptSurvivesGarbageCollection() throws Exception {
+        String script = "echo migrated script";
+        FreeStyleProject project = j.createFreeStyleProject("migrated");
+        project.getBuildersList().add(new UniversalScript(new StringScriptSource(script), "sh"));
+        project.save();
+
+        // configuration of an old version: inline command without hash
+        String xml = project.getConfigFile().asString().replaceAll("\\s*<hash>[0-9a-f]{64}</hash>", "");
+        assertTrue(xml.contains("<command>"));
+        project.updateByXml(new StreamSource(new StringReader(xml)));
+        project = j.jenkins.getItemByFullName("migrated", FreeStyleProject.class);
+
+        // migrated, but the configuration file does not refer to the store entry yet
+        String hash = ScriptStore.hash(script);
+        File stored = new File(ScriptStore.getRoot(), hash + ".use");
+        assertTrue(stored.isFile());
+        assertFalse(project.getConfigFile().asString().contains(hash));
+
+        assertTrue(stored.setLastModified(System.currentTimeMillis() - 7L * 24 * 3600 * 1000));
+        assertEquals(1, ScriptStore.collectGarbage());
+        assertFalse(stored.isFile());
+
+        // the script is still executed and stored again
+        StringScriptSource source = (StringScriptSource) project.getBuildersList()
+                .get(UniversalScript.class).getScriptSource();
+        assertEquals(script, source.getCommand());
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        j.assertLogContains("migrated script", build);
+        assertTrue(stored.isFile());
+
+        // saved configuration refers to the entry
+        project.save();
+        assertTrue(project.getConfigFile().asString().contains(hash));
+        assertTrue(stored.setLastModified(System.currentTimeMillis() - 7L * 24 * 3600 * 1000));
+        assertEquals(0, ScriptStore.collectGarbage());
+        assertTrue(stored.isFile());
+    }
+}